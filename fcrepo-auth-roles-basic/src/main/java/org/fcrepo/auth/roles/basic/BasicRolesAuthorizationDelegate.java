@@ -19,10 +19,13 @@ package org.fcrepo.auth.roles.basic;
 
 import java.security.Principal;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.jcr.Session;
 
 import org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.RoleIds;
+import org.modeshape.jcr.value.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +57,72 @@ public class BasicRolesAuthorizationDelegate extends AbstractRolesAuthorizationD
     private static final Logger LOGGER = LoggerFactory
             .getLogger(BasicRolesAuthorizationDelegate.class);
 
+    private static final long ADMIN = RoleIds.bit("admin");
+
+    private static final long WRITER = RoleIds.bit("writer");
+
+    private static final long READER = RoleIds.bit("reader");
+
+    private static final int ADMIN_ID = Long.numberOfTrailingZeros(ADMIN);
+
+    private static final int WRITER_ID = Long.numberOfTrailingZeros(WRITER);
+
+    private static final int READER_ID = Long.numberOfTrailingZeros(READER);
+
+    /**
+     * The actions this delegate tells apart.
+     */
+    private enum Action {
+        /**
+         * A single read action.
+         */
+        READ,
+        /**
+         * Any other action, or several actions at once.
+         */
+        WRITE
+    }
+
+    /**
+     * Decisions for each combination of the admin, writer and reader roles, action and ACL node flag, indexed by
+     * {@link #index}.
+     */
+    private static final boolean[] DECISIONS = new boolean[8 << 2];
+
+    static {
+        for (int roles = 0; roles < 8; roles++) {
+            for (final Action action : Action.values()) {
+                DECISIONS[index(roles, action, false)] = decide(roles, action, false);
+                DECISIONS[index(roles, action, true)] = decide(roles, action, true);
+            }
+        }
+    }
+
+    private static final AtomicBoolean DEPRECATION_LOGGED = new AtomicBoolean();
+
+    /**
+     * @param roles the admin (1), writer (2) and reader (4) bits of the roles
+     * @param action the action
+     * @param aclNode whether the action is on an ACL node
+     * @return the decision
+     */
+    private static boolean decide(final int roles, final Action action, final boolean aclNode) {
+        if ((roles & 1) != 0) {
+            // an admin role may perform any action
+            return true;
+        }
+        if ((roles & 2) != 0) {
+            // a writer role may perform any action on a non-ACL node, and read ACL nodes
+            return !aclNode || action == Action.READ;
+        }
+        // a reader role may perform read actions; a caller without content roles can do nothing
+        return (roles & 4) != 0 && action == Action.READ;
+    }
+
+    private static int index(final int roles, final Action action, final boolean aclNode) {
+        return roles << 2 | action.ordinal() << 1 | (aclNode ? 1 : 0);
+    }
+
     /*
      * (non-Javadoc)
      * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
@@ -63,44 +132,66 @@ public class BasicRolesAuthorizationDelegate extends AbstractRolesAuthorizationD
     public boolean rolesHavePermission(final Session userSession,
             final String absPath,
             final String[] actions, final Set<String> roles) {
-        LOGGER.warn("===========================");
-        LOGGER.warn("This authorization provider is deprecated and will be removed in a future release of Fedora: {}",
-                this.getClass());
-        LOGGER.warn("===========================");
-
-        if (roles.isEmpty()) {
-            LOGGER.debug("A caller without content roles can do nothing in the repository.");
-            return false;
+        final long mask = RoleIds.mask(roles);
+        if ((mask & ~RoleIds.UNMAPPED) == 0 && !roles.isEmpty()) {
+            LOGGER.error("There are roles in session that aren't recognized by this authorization delegate: {}",
+                    roles);
         }
-        if (roles.contains("admin")) {
-            LOGGER.debug("Granting an admin role permission to perform any action.");
-            return true;
+        return rolesHavePermission(userSession, absPath, actions, mask & ~RoleIds.UNMAPPED);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * String absPath, final String[] actions, final long roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession,
+            final String absPath,
+            final String[] actions, final long roles) {
+        return decide(roles, actions, absPath.contains(AUTHZ_DETECTION));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * Path absPath, final String[] actions, final long roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession,
+            final Path absPath,
+            final String[] actions, final long roles) {
+        return decide(roles, actions, isAclPath(absPath));
+    }
+
+    private boolean decide(final long roles, final String[] actions, final boolean aclNode) {
+        if (DEPRECATION_LOGGED.compareAndSet(false, true)) {
+            LOGGER.warn("===========================");
+            LOGGER.warn("This authorization provider is deprecated and will be removed in a future release of Fedora:"
+                    + " {}", this.getClass());
+            LOGGER.warn("===========================");
         }
-        if (roles.contains("writer")) {
-            if (absPath.contains(AUTHZ_DETECTION)) {
-                if (actions.length == 1 && "read".equals(actions[0])) {
-                    LOGGER.debug("Granting reader role permission to perform a read action.");
-                    return true;
-                } else {
-                    LOGGER.debug("Denying writer role permission to perform an action on an ACL node.");
-                    return false;
-                }
-            } else {
-                LOGGER.debug("Granting writer role permission to perform any action on a non-ACL node.");
-                return true;
-            }
+        final int known = (int) ((roles >>> ADMIN_ID & 1) | (roles >>> WRITER_ID & 1) << 1 |
+                (roles >>> READER_ID & 1) << 2);
+        if (known == 0 && roles != 0) {
+            LOGGER.error("There are roles in session that aren't recognized by this authorization delegate: {}",
+                    RoleIds.names(roles));
         }
-        if (roles.contains("reader")) {
-            if (actions.length == 1 && "read".equals(actions[0])) {
-                LOGGER.debug("Granting reader role permission to perform a read action.");
-                return true;
-            }
-            LOGGER.debug("Denying reader role permission to perform a non-read action.");
-            return false;
+        final Action action = actions.length == 1 && "read".equals(actions[0]) ? Action.READ : Action.WRITE;
+        final boolean permitted = DECISIONS[index(known, action, aclNode)];
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Decision for roles {}, action {}, ACL node {}: {}", RoleIds.names(roles), action, aclNode,
+                    permitted);
         }
-        LOGGER.error("There are roles in session that aren't recognized by this authorization delegate: {}",
-                roles);
-        return false;
+        return permitted;
+    }
+
+    /**
+     * Decisions depend only on the roles, the actions and whether the path is within an ACL node.
+     */
+    @Override
+    protected boolean isDecisionCacheable() {
+        return true;
     }
 
     /**
@@ -0,0 +1,168 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.basic;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate.RemoveStrategy.PARALLEL;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
+import static org.fcrepo.kernel.modeshape.testutilities.TestNodeIterator.nodeIterator;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.modeshape.jcr.value.Path;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BasicRolesAuthorizationDelegateRemoveChildrenParallelTest {
+
+    private static final String[] REMOVE_ACTION = {"remove"};
+
+    private BasicRolesAuthorizationDelegate authorizationDelegate;
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private Session mockSession;
+
+    @Mock
+    private FedoraSessionImpl mockFedoraSession;
+
+    @Mock
+    private Principal principal;
+
+    @Mock
+    private Path parentPath;
+
+    @Mock
+    private Node parentNode, writableNode, otherWritableNode, readableNode, noAclNode;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        authorizationDelegate = new BasicRolesAuthorizationDelegate();
+        setField(authorizationDelegate, "accessRolesProvider",
+                accessRolesProvider);
+        setField(authorizationDelegate, "sessionFactory", sessionFactory);
+        authorizationDelegate.setRemoveStrategy(PARALLEL);
+        authorizationDelegate.setRemoveParallelism(2);
+
+        when(sessionFactory.getInternalSession()).thenReturn(mockFedoraSession);
+        when(mockFedoraSession.getJcrSession()).thenReturn(mockSession);
+
+        when(principal.getName()).thenReturn("user");
+        when(mockSession.getAttribute(FEDORA_USER_PRINCIPAL)).thenReturn(principal);
+        when(mockSession.getAttribute(FEDORA_ALL_PRINCIPALS)).thenReturn(singleton(principal));
+
+        final Map<String, Collection<String>> writerAcl = singletonMap("user", asList("writer"));
+        final Map<String, Collection<String>> readerAcl = singletonMap("user", asList("reader"));
+
+        when(accessRolesProvider.findRolesForPath(parentPath, mockSession)).thenReturn(writerAcl);
+        when(accessRolesProvider.getRoles(writableNode, false)).thenReturn(writerAcl);
+        when(accessRolesProvider.getRoles(otherWritableNode, false)).thenReturn(writerAcl);
+        when(accessRolesProvider.getRoles(readableNode, false)).thenReturn(readerAcl);
+
+        when(parentPath.toString()).thenReturn("parent");
+        mockNode(parentNode, "parent");
+        mockNode(writableNode, "writable");
+        mockNode(otherWritableNode, "other");
+        mockNode(readableNode, "readable");
+        mockNode(noAclNode, "noacl");
+        when(mockSession.getItem("parent")).thenReturn(parentNode);
+    }
+
+    private void mockNode(final Node node, final String path) throws RepositoryException {
+        when(node.getPath()).thenReturn(path);
+        when(node.isNode()).thenReturn(true);
+        when(mockSession.getNode(path)).thenReturn(node);
+    }
+
+    @After
+    public void tearDown() {
+        authorizationDelegate.shutdown();
+    }
+
+    @Test
+    public void shouldPermitForChildlessNode() throws RepositoryException {
+        when(parentNode.hasNodes()).thenReturn(false);
+
+        assertTrue("Should permit remove for childless writable node",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldPermitForWritableSubtrees() throws RepositoryException {
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode, noAclNode));
+        when(writableNode.hasNodes()).thenReturn(true);
+        when(writableNode.getNodes()).thenReturn(nodeIterator(otherWritableNode));
+        when(noAclNode.hasNodes()).thenReturn(true);
+        when(noAclNode.getNodes()).thenReturn(nodeIterator(otherWritableNode));
+
+        assertTrue("Should permit remove for writable node with writable subtrees",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldDenyForUnwritableChild() throws RepositoryException {
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode, readableNode));
+
+        assertFalse("Should deny remove for writable node with unwritable child",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldDenyWithRecursion() throws RepositoryException {
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode, noAclNode));
+        when(writableNode.hasNodes()).thenReturn(true);
+        when(writableNode.getNodes()).thenReturn(nodeIterator(otherWritableNode));
+        when(noAclNode.hasNodes()).thenReturn(true);
+        when(noAclNode.getNodes()).thenReturn(nodeIterator(readableNode));
+
+        assertFalse("Should deny remove for a writable node with an unwritable descendant in a parallel subtree",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+}
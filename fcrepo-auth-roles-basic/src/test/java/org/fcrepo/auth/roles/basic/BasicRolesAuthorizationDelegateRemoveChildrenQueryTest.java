@@ -0,0 +1,208 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.basic;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static javax.jcr.query.Query.JCR_SQL2;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate.RemoveStrategy.QUERY;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
+import static org.fcrepo.kernel.modeshape.testutilities.TestNodeIterator.nodeIterator;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.modeshape.jcr.value.Path;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BasicRolesAuthorizationDelegateRemoveChildrenQueryTest {
+
+    private static final String[] REMOVE_ACTION = {"remove"};
+
+    private BasicRolesAuthorizationDelegate authorizationDelegate;
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private Session mockSession;
+
+    @Mock
+    private FedoraSessionImpl mockFedoraSession;
+
+    @Mock
+    private Workspace mockWorkspace;
+
+    @Mock
+    private QueryManager mockQueryManager;
+
+    @Mock
+    private Query mockQuery;
+
+    @Mock
+    private QueryResult mockResult;
+
+    @Mock
+    private Query mockAclQuery;
+
+    @Mock
+    private QueryResult mockAclResult;
+
+    @Mock
+    private Principal principal;
+
+    @Mock
+    private Path parentPath;
+
+    @Mock
+    private Node parentNode, writableNode, otherWritableNode, readableNode, adminNode, writableAcl, adminAcl;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        authorizationDelegate = new BasicRolesAuthorizationDelegate();
+        setField(authorizationDelegate, "accessRolesProvider",
+                accessRolesProvider);
+        setField(authorizationDelegate, "sessionFactory", sessionFactory);
+        authorizationDelegate.setRemoveStrategy(QUERY);
+
+        when(sessionFactory.getInternalSession()).thenReturn(mockFedoraSession);
+        when(mockFedoraSession.getJcrSession()).thenReturn(mockSession);
+
+        when(principal.getName()).thenReturn("user");
+        final Set<Principal> allPrincipals = singleton(principal);
+        when(mockSession.getAttribute(FEDORA_USER_PRINCIPAL)).thenReturn(principal);
+        when(mockSession.getAttribute(FEDORA_ALL_PRINCIPALS)).thenReturn(allPrincipals);
+
+        final Map<String, Collection<String>> writerAcl = singletonMap("user", asList("writer"));
+        final Map<String, Collection<String>> readerAcl = singletonMap("user", asList("reader"));
+        final Map<String, Collection<String>> adminRoles = singletonMap("user", asList("admin"));
+
+        when(accessRolesProvider.findRolesForPath(parentPath, mockSession)).thenReturn(writerAcl);
+        when(accessRolesProvider.getRoles(writableNode, false)).thenReturn(writerAcl);
+        when(accessRolesProvider.getRoles(otherWritableNode, false)).thenReturn(writerAcl);
+        when(accessRolesProvider.getRoles(readableNode, false)).thenReturn(readerAcl);
+        when(accessRolesProvider.getRoles(adminNode, false)).thenReturn(adminRoles);
+
+        when(parentPath.toString()).thenReturn("/parent");
+        when(mockSession.getItem("/parent")).thenReturn(parentNode);
+        when(parentNode.getPath()).thenReturn("/parent");
+        when(parentNode.isNode()).thenReturn(true);
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(writableNode.getPath()).thenReturn("/parent/writable");
+        when(otherWritableNode.getPath()).thenReturn("/parent/writable/other");
+        when(readableNode.getPath()).thenReturn("/parent/readable");
+        when(adminNode.getPath()).thenReturn("/parent/admin");
+        when(writableAcl.getPath()).thenReturn("/parent/writable/authz:rbacl");
+        when(writableAcl.getParent()).thenReturn(writableNode);
+        when(writableAcl.getSession()).thenReturn(mockSession);
+        when(adminAcl.getPath()).thenReturn("/parent/admin/authz:rbacl");
+        when(adminAcl.getParent()).thenReturn(adminNode);
+        when(adminAcl.getSession()).thenReturn(mockSession);
+        when(mockSession.getNamespaceURI("authz")).thenReturn(JcrName.NS_URI);
+
+        when(mockSession.getWorkspace()).thenReturn(mockWorkspace);
+        when(mockWorkspace.getQueryManager()).thenReturn(mockQueryManager);
+        when(mockQueryManager.createQuery(contains("[authz:rbaclAssignable] AS n WHERE ISDESCENDANTNODE(n, '/parent')"),
+                eq(JCR_SQL2))).thenReturn(mockQuery);
+        when(mockQuery.execute()).thenReturn(mockResult);
+        when(mockQueryManager.createQuery(contains("[authz:Rbacl] AS n WHERE ISDESCENDANTNODE(n, '/parent')"),
+                eq(JCR_SQL2))).thenReturn(mockAclQuery);
+        when(mockAclQuery.execute()).thenReturn(mockAclResult);
+        when(mockAclResult.getNodes()).thenReturn(nodeIterator());
+    }
+
+    @Test
+    public void shouldPermitForChildlessNode() throws RepositoryException {
+        when(parentNode.hasNodes()).thenReturn(false);
+
+        assertTrue("Should permit remove for childless writable node",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        verify(mockWorkspace, never()).getQueryManager();
+    }
+
+    @Test
+    public void shouldPermitWithoutDescendantAcls() throws RepositoryException {
+        when(mockResult.getNodes()).thenReturn(nodeIterator());
+
+        assertTrue("Should permit remove for writable node without descendant ACLs",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        verify(parentNode, never()).getNodes();
+    }
+
+    @Test
+    public void shouldDenyForWritableDescendants() throws RepositoryException {
+        when(mockResult.getNodes()).thenReturn(nodeIterator(writableNode, otherWritableNode));
+        when(mockAclResult.getNodes()).thenReturn(nodeIterator(writableAcl));
+
+        // as the recursive check, which reaches the ACL node below the writable descendant
+        assertFalse("Should deny remove for writable node whose descendant holds an ACL the writer may not edit",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldPermitForAdminDescendantAcl() throws RepositoryException {
+        when(mockResult.getNodes()).thenReturn(nodeIterator(adminNode));
+        when(mockAclResult.getNodes()).thenReturn(nodeIterator(adminAcl));
+
+        assertTrue("Should permit remove of an ACL node with the admin roles assigned at its node",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+
+    @Test
+    public void shouldDenyForUnwritableDescendant() throws RepositoryException {
+        when(mockResult.getNodes()).thenReturn(nodeIterator(writableNode, readableNode));
+
+        assertFalse("Should deny remove for writable node with an unwritable descendant",
+                authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+    }
+}
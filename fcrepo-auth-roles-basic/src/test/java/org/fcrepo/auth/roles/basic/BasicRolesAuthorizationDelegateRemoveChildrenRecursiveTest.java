@@ -22,13 +22,19 @@ import static java.util.Collections.singleton;
 import static java.util.Collections.singletonMap;
 import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
 import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate.RemoveStrategy.RECURSIVE;
 import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
 import static org.fcrepo.kernel.modeshape.testutilities.TestNodeIterator.nodeIterator;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.auth.roles.common.Constants.JcrName;
 import org.fcrepo.http.commons.session.SessionFactory;
 import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
 import org.junit.Before;
@@ -36,6 +42,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.Path;
 
 import javax.jcr.Node;
@@ -86,6 +93,7 @@ public class BasicRolesAuthorizationDelegateRemoveChildrenRecursiveTest {
         setField(authorizationDelegate, "accessRolesProvider",
                 accessRolesProvider);
         setField(authorizationDelegate, "sessionFactory", sessionFactory);
+        authorizationDelegate.setRemoveStrategy(RECURSIVE);
 
         when(sessionFactory.getInternalSession()).thenReturn(mockFedoraSession);
         when(mockFedoraSession.getJcrSession()).thenReturn(mockSession);
@@ -209,4 +217,82 @@ public class BasicRolesAuthorizationDelegateRemoveChildrenRecursiveTest {
                 authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
     }
 
+    @Test
+    public void shouldRememberRemovableSubtreeForSession() throws RepositoryException {
+        when(mockSession.isLive()).thenReturn(true);
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode));
+        when(writablePath.getParent()).thenReturn(parentPath);
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        assertTrue("Should permit remove of a descendant of a subtree already granted",
+                authorizationDelegate.hasPermission(mockSession, writablePath, REMOVE_ACTION));
+        verify(accessRolesProvider, never()).findRolesForPath(writablePath, mockSession);
+    }
+
+    @Test
+    public void shouldForgetRemovableSubtreeAfterLogout() throws RepositoryException {
+        when(mockSession.isLive()).thenReturn(true);
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode), nodeIterator(writableNode));
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        when(mockSession.isLive()).thenReturn(false);
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        verify(accessRolesProvider, times(2)).findRolesForPath(parentPath, mockSession);
+    }
+
+    @Test
+    public void shouldForgetRemovableSubtreeWhenRolesChange() throws RepositoryException {
+        when(mockSession.isLive()).thenReturn(true);
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode));
+        when(writablePath.getParent()).thenReturn(parentPath);
+        when(accessRolesProvider.getRolesGeneration()).thenReturn(1L);
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        when(accessRolesProvider.getRolesGeneration()).thenReturn(2L);
+        assertTrue(authorizationDelegate.hasPermission(mockSession, writablePath, REMOVE_ACTION));
+        verify(accessRolesProvider).findRolesForPath(writablePath, mockSession);
+    }
+
+    @Test
+    public void shouldForgetRemovableSubtreeWhenNodesAreAdded() throws RepositoryException {
+        when(mockSession.isLive()).thenReturn(true);
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode));
+        when(writablePath.getParent()).thenReturn(parentPath);
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        authorizationDelegate.hasPermission(mockSession, writablePath, new String[] {"add_node"});
+        assertTrue(authorizationDelegate.hasPermission(mockSession, writablePath, REMOVE_ACTION));
+        verify(accessRolesProvider, times(2)).findRolesForPath(writablePath, mockSession);
+    }
+
+    @Test
+    public void shouldCheckAclNodesOfRemovableSubtree() throws RepositoryException {
+        when(mockSession.isLive()).thenReturn(true);
+        when(parentNode.hasNodes()).thenReturn(true);
+        when(parentNode.getNodes()).thenReturn(nodeIterator(writableNode));
+        final Path aclPath = mock(Path.class);
+        final Path.Segment parentSegment = mock(Path.Segment.class);
+        final Path.Segment aclSegment = mock(Path.Segment.class);
+        final Name parentName = mock(Name.class);
+        final Name aclName = mock(Name.class);
+        when(parentName.getNamespaceUri()).thenReturn("");
+        when(aclName.getNamespaceUri()).thenReturn(JcrName.NS_URI);
+        when(parentSegment.getName()).thenReturn(parentName);
+        when(aclSegment.getName()).thenReturn(aclName);
+        when(aclPath.size()).thenReturn(2);
+        when(aclPath.getSegment(0)).thenReturn(parentSegment);
+        when(aclPath.getSegment(1)).thenReturn(aclSegment);
+        when(aclPath.getParent()).thenReturn(parentPath);
+        when(accessRolesProvider.findRolesForPath(aclPath, mockSession))
+                .thenReturn(singletonMap("user", asList("writer")));
+
+        assertTrue(authorizationDelegate.hasPermission(mockSession, parentPath, REMOVE_ACTION));
+        assertFalse("Should check remove of an ACL node below a subtree already granted",
+                authorizationDelegate.hasPermission(mockSession, aclPath, REMOVE_ACTION));
+    }
+
 }
@@ -22,28 +22,39 @@ import static java.util.Collections.singleton;
 import static java.util.Collections.singletonMap;
 import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
 import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+import static org.fcrepo.auth.roles.basic.BasicRolesAuthorizationDelegate.EVERYONE_NAME;
 import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
 import org.fcrepo.auth.roles.common.AccessRolesProvider;
+import org.fcrepo.auth.roles.common.CompiledAcl;
 import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.fcrepo.auth.roles.common.RoleIds;
 import org.fcrepo.http.commons.session.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.modeshape.jcr.ExecutionContext;
 import org.modeshape.jcr.value.Path;
 
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import java.security.Principal;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -91,7 +102,6 @@ public class BasicRolesAuthorizationDelegateTest {
     @Mock
     private Path unrecognizablePath;
 
-    @Mock
     private Path authzPath;
 
     @Before
@@ -136,13 +146,12 @@ public class BasicRolesAuthorizationDelegateTest {
         when(
                 accessRolesProvider.findRolesForPath(unrecognizablePath,
                         mockSession)).thenReturn(unrecognizableAcl);
-        when(accessRolesProvider.findRolesForPath(authzPath, mockSession))
-                .thenReturn(writerAcl);
-
         // Identify authzPath as an ACL node
 
-        final String authzDetection = "/{" + JcrName.NS_URI + "}";
-        when(authzPath.toString()).thenReturn("/blah" + authzDetection);
+        authzPath = new ExecutionContext().getValueFactories().getPathFactory()
+                .create("/blah/{" + JcrName.NS_URI + "}rbacl");
+        when(accessRolesProvider.findRolesForPath(authzPath, mockSession))
+                .thenReturn(writerAcl);
     }
 
     @Test
@@ -211,4 +220,84 @@ public class BasicRolesAuthorizationDelegateTest {
                 .hasPermission(mockSession, authzPath, WRITE_ACTION));
     }
 
+    @Test
+    public void testPermitReadToWriterForAuthzPath() {
+        assertTrue("Should permit read for ACL path", authorizationDelegate
+                .hasPermission(mockSession, authzPath, READ_ACTION));
+    }
+
+    @Test
+    public void testPrincipalsAreReadOncePerSession() {
+        authorizationDelegate.hasPermission(mockSession, readablePath, READ_ACTION);
+        authorizationDelegate.hasPermission(mockSession, writablePath, WRITE_ACTION);
+        verify(mockSession).getAttribute(FEDORA_USER_PRINCIPAL);
+        verify(mockSession).getAttribute(FEDORA_ALL_PRINCIPALS);
+    }
+
+    @Test
+    public void testCheckAccess() throws RepositoryException {
+        final Node readable = mock(Node.class);
+        when(readable.getPath()).thenReturn("/readable");
+        final Node writable = mock(Node.class);
+        when(writable.getPath()).thenReturn("/writable");
+        final Node authz = mock(Node.class);
+        when(authz.getPath()).thenReturn("/writable/authz:rbacl");
+        when(mockSession.getNamespaceURI("authz")).thenReturn(JcrName.NS_URI);
+        final List<Node> nodes = asList(readable, readable, writable, authz, authz);
+        final CompiledAcl readerAcl = CompiledAcl.of(singletonMap("user", asList("reader")));
+        final CompiledAcl writerAcl = CompiledAcl.of(singletonMap("user", asList("writer")));
+        when(accessRolesProvider.getEffectiveRoles(nodes))
+                .thenReturn(asList(readerAcl, readerAcl, writerAcl, writerAcl, writerAcl));
+
+        final BitSet permitted = authorizationDelegate.checkAccess(mockSession, allPrincipals, nodes,
+                asList(READ_ACTION, WRITE_ACTION, WRITE_ACTION, WRITE_ACTION, READ_ACTION));
+
+        assertEquals("Should permit read with reader role, write with writer role and read of ACL node",
+                BitSet.valueOf(new long[] {0b10101}), permitted);
+        assertTrue("Should deny all without principals", authorizationDelegate.checkAccess(mockSession,
+                Collections.<Principal>emptySet(), nodes, asList(READ_ACTION, READ_ACTION, READ_ACTION,
+                        READ_ACTION, READ_ACTION)).isEmpty());
+    }
+
+    @Test
+    public void testCheckAccessForEveryone() throws RepositoryException {
+        final Node readable = mock(Node.class);
+        when(readable.getPath()).thenReturn("/readable");
+        final List<Node> nodes = asList(readable, readable);
+        final CompiledAcl everyoneAcl = CompiledAcl.of(singletonMap(EVERYONE_NAME, asList("reader")));
+        when(accessRolesProvider.getEffectiveRoles(nodes)).thenReturn(asList(everyoneAcl, everyoneAcl));
+        final Set<Principal> principals = new HashSet<>(asList(principal,
+                authorizationDelegate.getEveryonePrincipal()));
+
+        final BitSet permitted = authorizationDelegate.checkAccess(mockSession, principals, nodes,
+                asList(READ_ACTION, WRITE_ACTION));
+
+        assertEquals("Should permit read to everyone, but not write", BitSet.valueOf(new long[] {0b01}),
+                permitted);
+    }
+
+    @Test
+    public void testCachedDecisionsSeparateAclNodes() throws RepositoryException {
+        final CompiledAcl writerAcl = CompiledAcl.of(singletonMap("user", asList("writer")));
+        when(accessRolesProvider.findRolesForPath(writablePath, mockSession)).thenReturn(writerAcl);
+        when(accessRolesProvider.findRolesForPath(authzPath, mockSession)).thenReturn(writerAcl);
+        for (int i = 0; i < 2; i++) {
+            assertTrue(authorizationDelegate.hasPermission(mockSession, writablePath, WRITE_ACTION));
+            assertFalse(authorizationDelegate.hasPermission(mockSession, authzPath, WRITE_ACTION));
+        }
+    }
+
+    @Test
+    public void testRoleMaskMatchesRoleNames() {
+        for (final String role : asList("admin", "writer", "reader", "something_else")) {
+            for (final String[] actions : asList(READ_ACTION, WRITE_ACTION)) {
+                for (final String path : asList("/a", "/blah/{" + JcrName.NS_URI + "}")) {
+                    assertEquals(authorizationDelegate.rolesHavePermission(mockSession, path, actions, singleton(role)),
+                            authorizationDelegate.rolesHavePermission(mockSession, path, actions, RoleIds.bit(role)));
+                }
+            }
+        }
+        assertFalse(authorizationDelegate.rolesHavePermission(mockSession, "/a", READ_ACTION, 0L));
+    }
+
 }
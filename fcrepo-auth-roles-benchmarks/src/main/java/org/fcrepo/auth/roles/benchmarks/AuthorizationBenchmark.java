@@ -0,0 +1,79 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of permission checks and effective role lookups against an in-memory repository, at varying tree
+ * depths and ACL sizes.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizationBenchmark {
+
+    private static final String[] READ = {"read"};
+
+    private static final String[] ADD_NODE = {"add_node"};
+
+    /**
+     * @param state the repository
+     * @return the decision
+     */
+    @Benchmark
+    public boolean hasPermissionRead(final RepositoryState state) {
+        return state.delegate.hasPermission(state.userSession, state.deepestPath, READ);
+    }
+
+    /**
+     * @param state the repository
+     * @return the decision
+     */
+    @Benchmark
+    public boolean hasPermissionAddNode(final RepositoryState state) {
+        return state.delegate.hasPermission(state.userSession, state.deepestPath, ADD_NODE);
+    }
+
+    /**
+     * @param state the repository
+     * @return the effective roles of the deepest node
+     * @throws RepositoryException if the roles cannot be read
+     */
+    @Benchmark
+    public Map<String, Collection<String>> findRolesForPath(final RepositoryState state) throws RepositoryException {
+        return state.provider.findRolesForPath(state.deepestPath, state.internalSession);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.NS_URI;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.fcrepo.auth.roles.basic.BasicRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.RoleIds;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.value.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the decision table of {@link BasicRolesAuthorizationDelegate} with the chain of string comparisons it
+ * replaced, which is reproduced here as the baseline.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PermissionDecisionBenchmark {
+
+    private static final String AUTHZ_DETECTION = "/{" + NS_URI + "}";
+
+    @Param({"reader", "writer", "admin"})
+    public String role;
+
+    @Param({"read", "add_node"})
+    public String action;
+
+    @Param({"false", "true"})
+    public boolean aclPath;
+
+    private String[] actions;
+
+    private Set<String> roles;
+
+    private long roleMask;
+
+    private Path path;
+
+    private final BasicRolesAuthorizationDelegate delegate = new BasicRolesAuthorizationDelegate();
+
+    /**
+     * Build the path and roles.
+     */
+    @Setup
+    public void setUp() {
+        actions = new String[] {action};
+        roles = Collections.singleton(role);
+        roleMask = RoleIds.bit(role);
+        final String object = "/benchmarks/a/b/c/object";
+        path = new ExecutionContext().getValueFactories().getPathFactory()
+                .create(aclPath ? object + "/{" + NS_URI + "}rbacl/{" + NS_URI + "}assignment" : object);
+    }
+
+    /**
+     * @return the decision of the string comparisons on the stringified path
+     */
+    @Benchmark
+    public boolean baseline() {
+        return ifChain(path.toString(), actions, roles);
+    }
+
+    /**
+     * @return the decision of the table on the path segments
+     */
+    @Benchmark
+    public boolean decisionTable() {
+        return delegate.rolesHavePermission(null, path, actions, roleMask);
+    }
+
+    private static boolean ifChain(final String absPath, final String[] actions, final Set<String> roles) {
+        if (roles.isEmpty()) {
+            return false;
+        }
+        if (roles.contains("admin")) {
+            return true;
+        }
+        if (roles.contains("writer")) {
+            if (absPath.contains(AUTHZ_DETECTION)) {
+                return actions.length == 1 && "read".equals(actions[0]);
+            }
+            return true;
+        }
+        if (roles.contains("reader")) {
+            return actions.length == 1 && "read".equals(actions[0]);
+        }
+        return false;
+    }
+}
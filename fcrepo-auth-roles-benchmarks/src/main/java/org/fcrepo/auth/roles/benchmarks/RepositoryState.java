@@ -0,0 +1,213 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.Collections.singleton;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_ALL_PRINCIPALS;
+import static org.fcrepo.auth.common.FedoraAuthorizationDelegate.FEDORA_USER_PRINCIPAL;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.basic.BasicRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.AccessRoles;
+import org.fcrepo.auth.roles.common.AclIndexPreloader;
+import org.fcrepo.auth.roles.common.AclIndexPreloader.PreloadMode;
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.JcrRepository;
+import org.modeshape.jcr.ModeShapeEngine;
+import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.api.nodetype.NodeTypeManager;
+import org.modeshape.jcr.value.Path;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An in-memory repository holding a chain of nodes {@code depth} levels deep below an rbaclAssignable node whose ACL
+ * assigns roles to {@code aclSize} principals, with a provider and a basic delegate wired to it.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+public class RepositoryState {
+
+    private static final String CONFIGURATION = "{ \"name\" : \"rbacl-benchmarks\" }";
+
+    private static final String ROOT = "/benchmarks";
+
+    @Param({"1", "8", "32"})
+    public int depth;
+
+    @Param({"1", "50"})
+    public int aclSize;
+
+    @Param({"false", "true"})
+    public boolean aclIndex;
+
+    private ModeShapeEngine engine;
+
+    private Session session;
+
+    RbAclAccessRolesProvider provider;
+
+    AbstractRolesAuthorizationDelegate delegate;
+
+    Session userSession;
+
+    Session internalSession;
+
+    Path deepestPath;
+
+    /**
+     * Start the repository and build the tree.
+     *
+     * @throws Exception if the repository cannot be started
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        engine = new ModeShapeEngine();
+        engine.start();
+        final JcrRepository repository = engine.deploy(RepositoryConfiguration.read(CONFIGURATION));
+        session = repository.login();
+        final NodeTypeManager types = (NodeTypeManager) session.getWorkspace().getNodeTypeManager();
+        types.registerNodeTypes(AccessRoles.class.getResource("/cnd/access-control.cnd"), true);
+
+        provider = new RbAclAccessRolesProvider();
+        provider.setAclIndexEnabled(aclIndex);
+        provider.postRoles(session.getRootNode().addNode(ROOT.substring(1)), acl(aclSize));
+        final StringBuilder path = new StringBuilder(ROOT);
+        Node node = session.getNode(ROOT);
+        for (int i = 0; i < depth; i++) {
+            node = node.addNode("n" + i);
+            path.append("/n").append(i);
+        }
+        session.save();
+        deepestPath = new ExecutionContext().getValueFactories().getPathFactory().create(path.toString());
+
+        final SessionFactory sessionFactory = new SessionFactory() {
+
+            @Override
+            public FedoraSession getInternalSession() {
+                try {
+                    return new FedoraSessionImpl(repository.login());
+                } catch (final RepositoryException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        internalSession = repository.login();
+        delegate = new BasicRolesAuthorizationDelegate();
+        inject(delegate, "accessRolesProvider", provider);
+        inject(delegate, "sessionFactory", sessionFactory);
+        if (aclIndex) {
+            final AclIndexPreloader preloader = new AclIndexPreloader();
+            inject(preloader, "sessionFactory", sessionFactory);
+            inject(preloader, "accessRolesProvider", provider);
+            preloader.setMode(PreloadMode.SYNC);
+            preloader.start();
+        }
+
+        final Principal user = () -> "principal" + (aclSize - 1);
+        final Set<Principal> principals = new HashSet<>();
+        principals.add(user);
+        principals.add(delegate.getEveryonePrincipal());
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put(FEDORA_USER_PRINCIPAL, user);
+        attributes.put(FEDORA_ALL_PRINCIPALS, principals);
+        userSession = userSession(repository.login(), attributes);
+    }
+
+    /**
+     * Stop the repository.
+     *
+     * @throws Exception if the repository cannot be stopped
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        delegate.shutdown();
+        userSession.logout();
+        internalSession.logout();
+        session.logout();
+        engine.shutdown().get(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param size the number of principals
+     * @return an ACL assigning the writer role to each principal
+     */
+    static Map<String, Set<String>> acl(final int size) {
+        final Map<String, Set<String>> acl = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            acl.put("principal" + i, singleton("writer"));
+        }
+        return acl;
+    }
+
+    /**
+     * A user session carries its principals as attributes, which only the authentication provider can set on a
+     * real session.
+     */
+    private static Session userSession(final Session session, final Map<String, Object> attributes) {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] {Session.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getAttribute")) {
+                        return attributes.get(args[0]);
+                    }
+                    try {
+                        return method.invoke(session, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static void inject(final Object target, final String name, final Object value)
+            throws ReflectiveOperationException {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (final NoSuchFieldException e) {
+                // look in the superclass
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.benchmarks;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.fcrepo.auth.roles.basic.BasicRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.CompiledAcl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the repository-independent steps of a permission check: matching the request principals against an
+ * ACL and deciding on the resulting roles.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoleResolutionBenchmark {
+
+    private static final String[] READ = {"read"};
+
+    private static final String[] WRITE = {"add_node"};
+
+    @Param({"1", "10", "100"})
+    public int aclSize;
+
+    @Param({"1", "10"})
+    public int principalCount;
+
+    @Param({"reader", "writer", "admin"})
+    public String role;
+
+    private Map<String, Collection<String>> acl;
+
+    private Set<Principal> principals;
+
+    private Set<String> roles;
+
+    private CompiledAcl compiledAcl;
+
+    private long roleMask;
+
+    private final BasicRolesAuthorizationDelegate delegate = new BasicRolesAuthorizationDelegate();
+
+    /**
+     * Build the ACL and principals.
+     */
+    @Setup
+    public void setUp() {
+        acl = new HashMap<>();
+        for (int i = 0; i < aclSize; i++) {
+            final List<String> assigned = new ArrayList<>();
+            assigned.add(role);
+            acl.put("principal" + i, assigned);
+        }
+        principals = new HashSet<>();
+        for (int i = 0; i < principalCount; i++) {
+            final String name = "principal" + (aclSize - 1 - i);
+            principals.add(() -> name);
+        }
+        roles = AbstractRolesAuthorizationDelegate.resolveUserRoles(acl, principals);
+        compiledAcl = CompiledAcl.of(acl);
+        roleMask = compiledAcl.resolve(principals);
+    }
+
+    /**
+     * @return the roles of the principals
+     */
+    @Benchmark
+    public Set<String> resolveUserRoles() {
+        return AbstractRolesAuthorizationDelegate.resolveUserRoles(acl, principals);
+    }
+
+    /**
+     * @return the decision
+     */
+    @Benchmark
+    public boolean rolesHavePermissionRead() {
+        return delegate.rolesHavePermission(null, "/benchmarks/object", READ, roles);
+    }
+
+    /**
+     * @return the decision
+     */
+    @Benchmark
+    public boolean rolesHavePermissionWrite() {
+        return delegate.rolesHavePermission(null, "/benchmarks/object", WRITE, roles);
+    }
+
+    /**
+     * @return the mask of the roles of the principals
+     */
+    @Benchmark
+    public long resolveRoleMask() {
+        return compiledAcl.resolve(principals);
+    }
+
+    /**
+     * @return the decision
+     */
+    @Benchmark
+    public boolean rolesHavePermissionReadMask() {
+        return delegate.rolesHavePermission(null, "/benchmarks/object", READ, roleMask);
+    }
+}
@@ -17,15 +17,24 @@
  */
 package org.fcrepo.auth.roles.common;
 
-import static java.util.stream.Collectors.toSet;
+import static org.fcrepo.auth.roles.common.AccessRolesProvider.DEFAULT_ACCESS_ROLES;
 import static org.fcrepo.kernel.modeshape.FedoraSessionImpl.getJcrSession;
 
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.jcr.Item;
 import javax.jcr.Node;
@@ -40,6 +49,10 @@ import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
 import org.modeshape.jcr.value.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Policy enforcement point for roles-based authentication
@@ -55,12 +68,113 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
 
     private static final String[] REMOVE_ACTIONS = {"remove"};
 
+    /**
+     * Strategies for checking that every descendant of a node may be removed along with it.
+     */
+    public enum RemoveStrategy {
+        /**
+         * Visit every descendant node and resolve its roles.
+         */
+        RECURSIVE,
+        /**
+         * Query for the rbaclAssignable descendants and check only those whose roles have not already been granted
+         * remove, then query for the ACL nodes within the subtree and check each of them with the roles of the node
+         * holding it.
+         */
+        QUERY,
+        /**
+         * Visit every descendant node, evaluating independent child subtrees concurrently. Implementations of
+         * {@link AbstractRolesAuthorizationDelegate#rolesHavePermission} must then be safe to call from several
+         * threads at once.
+         */
+        PARALLEL
+    }
+
     @Inject
     private AccessRolesProvider accessRolesProvider = null;
 
     @Inject
     private SessionFactory sessionFactory = null;
 
+    @Inject
+    private AccessRolesReader accessRolesReader = null;
+
+    private RemoveStrategy removeStrategy = RemoveStrategy.RECURSIVE;
+
+    private int removeParallelism = Runtime.getRuntime().availableProcessors();
+
+    private ForkJoinPool removePool;
+
+    /**
+     * Authorization data of each user session. Entries are dropped once their session has been collected.
+     */
+    private final Cache<Session, AuthContext> authContexts = CacheBuilder.newBuilder().weakKeys().build();
+
+    private volatile DecisionCache decisionCache = new DecisionCache(10000);
+
+    /**
+     * @param decisionCacheSize the maximum number of permission decisions shared between paths governed by the same
+     *        ACL, or 0 to not cache decisions; only used if {@link #isDecisionCacheable()}
+     */
+    @Value("${fcrepo.auth.rbacl.decision.cache.size:10000}")
+    public void setDecisionCacheSize(final long decisionCacheSize) {
+        this.decisionCache = decisionCacheSize > 0 ? new DecisionCache(decisionCacheSize) : null;
+    }
+
+    /**
+     * Drop all cached permission decisions, for subclasses whose decisions change.
+     */
+    protected void invalidateDecisions() {
+        final DecisionCache cache = decisionCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @param removeStrategy the strategy used to check that all descendants of a removed node may be removed
+     */
+    @Value("${fcrepo.auth.rbacl.remove.strategy:RECURSIVE}")
+    public void setRemoveStrategy(final RemoveStrategy removeStrategy) {
+        this.removeStrategy = removeStrategy;
+    }
+
+    /**
+     * @param removeParallelism the number of worker threads, each with its own internal session, used by the
+     *        {@link RemoveStrategy#PARALLEL} strategy, or 0 for the number of available processors
+     */
+    @Value("${fcrepo.auth.rbacl.remove.parallelism:0}")
+    public synchronized void setRemoveParallelism(final int removeParallelism) {
+        this.removeParallelism = removeParallelism > 0 ? removeParallelism : Runtime.getRuntime()
+                .availableProcessors();
+        shutdown();
+    }
+
+    /**
+     * Stop the workers of the parallel remove check, expiring their sessions.
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (removePool != null) {
+            removePool.shutdownNow();
+            removePool = null;
+        }
+    }
+
+    private synchronized AccessRolesReader getAccessRolesReader() {
+        if (accessRolesReader == null) {
+            accessRolesReader = new AccessRolesReader(sessionFactory, accessRolesProvider);
+        }
+        return accessRolesReader;
+    }
+
+    private synchronized ForkJoinPool getRemovePool() {
+        if (removePool == null) {
+            removePool = new ForkJoinPool(removeParallelism, SessionWorker::new, null, false);
+        }
+        return removePool;
+    }
+
     /**
      * Gather effectives roles
      *
@@ -70,11 +184,15 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
      */
     public static Set<String> resolveUserRoles(final Map<String, Collection<String>> acl,
                     final Collection<Principal> principals) {
-        return principals.stream().map(Principal::getName).filter(acl::containsKey)
-            .peek(principal -> LOGGER.debug("request principal matched role assignment: {}", principal))
-            .map(acl::get)
-            .flatMap(Collection::stream)
-            .collect(toSet());
+        final Set<String> roles = new HashSet<>();
+        for (final Principal principal : principals) {
+            final Collection<String> assigned = acl.get(principal.getName());
+            if (assigned != null) {
+                LOGGER.debug("request principal matched role assignment: {}", principal.getName());
+                roles.addAll(assigned);
+            }
+        }
+        return roles;
     }
 
     @Override
@@ -87,38 +205,32 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
     }
 
     private boolean doHasPermission(final Session session, final Path absPath, final String[] actions) {
-        final Set<String> roles;
-
-        final Principal userPrincipal = getUserPrincipal(session);
-        if (userPrincipal == null) {
+        final AuthContext context = getAuthContext(session);
+        if (context == null) {
             return false;
         }
+        final Set<Principal> allPrincipals = context.getPrincipals();
 
-        final Set<Principal> allPrincipals = getPrincipals(session);
-        if (allPrincipals == null) {
-            return false;
+        final boolean remove = actions.length == 1 && "remove".equals(actions[0]);
+        final long generation = accessRolesProvider.getRolesGeneration();
+        // ACL nodes are decided apart from the content around them, so they are never answered from the memo
+        final boolean aclPath = remove && isAclPath(absPath);
+        if (remove && !aclPath && inRemovableSubtree(session, context, absPath, generation)) {
+            return true;
+        }
+        if (!remove && Arrays.asList(actions).contains("add_node")) {
+            // a new node is not covered by the remove check of its ancestors
+            context.clearRemovableSubtrees();
         }
 
+        final Map<String, Collection<String>> acl;
         try {
-            final FedoraSession internalSession = sessionFactory.getInternalSession();
-            final Map<String, Collection<String>> acl =
-                    accessRolesProvider.findRolesForPath(absPath,
-                            getJcrSession(internalSession));
-            roles = resolveUserRoles(acl, allPrincipals);
-            LOGGER.debug("roles for this request: {}", roles);
+            acl = getAccessRolesReader().findRolesForPath(absPath, session);
         } catch (final RepositoryException e) {
             throw new RepositoryRuntimeException("Cannot look up node information on " + absPath +
                     " for permissions check.", e);
         }
 
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("roles: {}, actions: {}, path: {}", roles, actions, absPath);
-            if (actions.length > 1) { // have yet to see more than one
-                LOGGER.debug("FOUND MULTIPLE ACTIONS: {}", Arrays
-                        .toString(actions));
-            }
-        }
-
         if (actions.length == 1 && "remove_child_nodes".equals(actions[0])) {
             // in roles-based ACLs, the permission to remove children is
             // conferred by earlier check for "remove_node" on the child node
@@ -126,19 +238,212 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
             return true;
         }
 
-        if (!rolesHavePermission(session, absPath.toString(), actions, roles)) {
+        if (!decide(session, context, absPath, actions, acl)) {
             return false;
         }
 
-        if (actions.length == 1 && "remove".equals(actions[0])) {
+        if (remove) {
             // you must be able to delete all the children
-            // TODO make recursive/ACL-query-based check configurable
-            return canRemoveChildrenRecursive(session, absPath.toString(),
-                    allPrincipals, roles);
+            final Set<String> roleNames = resolveUserRoles(acl, allPrincipals);
+            final boolean removable = canRemoveChildren(session, absPath.toString(), allPrincipals, roleNames);
+            // every remove strategy checks the ACL nodes of the subtree, so its grant covers the whole subtree
+            if (removable && !aclPath && generation >= 0 && session.isLive()) {
+                context.grantRemovableSubtree(absPath, roleNames, generation);
+            }
+            return removable;
         }
         return true;
     }
 
+    /**
+     * Decide on the roles the ACL grants to the principals of a session, through the decision cache when the ACL is
+     * a cached one and the subclass allows it.
+     *
+     * @param session the user session
+     * @param context the authorization data of the session
+     * @param absPath path to the object
+     * @param actions requested actions
+     * @param acl the effective ACL of the object
+     * @return true if the roles have permission
+     */
+    private boolean decide(final Session session, final AuthContext context, final Path absPath,
+            final String[] actions, final Map<String, Collection<String>> acl) {
+        final CompiledAcl compiled = CompiledAcl.of(acl);
+        final DecisionCache cache = decisionCache;
+        // only compiled ACLs served by the provider's caches are shared, and stable, between requests
+        final boolean cacheable = cache != null && (compiled == acl || compiled == CompiledAcl.EMPTY) &&
+                isDecisionCacheable();
+        final boolean aclNode = cacheable && isAclPath(absPath);
+        final long stamp = cacheable ? cache.stamp() : 0;
+        if (cacheable) {
+            final Boolean cached = cache.get(context, compiled, actions, aclNode);
+            if (cached != null) {
+                LOGGER.debug("Cached decision for actions: {}, on: {} = {}", actions, absPath, cached);
+                return cached;
+            }
+        }
+
+        final long roles = compiled.resolve(context.getPrincipalNames());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("roles: {}, actions: {}, path: {}", RoleIds.names(roles), actions, absPath);
+            if (actions.length > 1) { // have yet to see more than one
+                LOGGER.debug("FOUND MULTIPLE ACTIONS: {}", Arrays
+                        .toString(actions));
+            }
+        }
+
+        final boolean permitted;
+        if ((roles & RoleIds.UNMAPPED) == 0) {
+            permitted = rolesHavePermission(session, absPath, actions, roles);
+        } else {
+            permitted = rolesHavePermission(session, absPath.toString(), actions,
+                    resolveUserRoles(acl, context.getPrincipals()));
+        }
+        if (cacheable) {
+            cache.put(context, compiled, actions, aclNode, permitted, stamp);
+        }
+        return permitted;
+    }
+
+    /**
+     * Decide many permission checks for one set of principals, as {@link #hasPermission} would for a session holding
+     * them. The effective ACLs of all nodes are looked up together, and the checks governed by the same ACL share
+     * their decisions. Remove is decided for each node alone, without checking its descendants.
+     *
+     * @param session the session the nodes were read with
+     * @param principals the principals to decide for
+     * @param nodes the nodes to check
+     * @param actions the actions to check on the node at the same position
+     * @return the positions of the checks that are permitted
+     */
+    public BitSet checkAccess(final Session session, final Set<Principal> principals, final List<Node> nodes,
+            final List<String[]> actions) {
+        final BitSet permitted = new BitSet(nodes.size());
+        if (principals.isEmpty()) {
+            return permitted;
+        }
+        // no session carries these principals, so there is no user principal either
+        final AuthContext context = new AuthContext(null, principals);
+        final List<Map<String, Collection<String>>> acls = accessRolesProvider.getEffectiveRoles(nodes);
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                final String[] checked = actions.get(i);
+                if (checked.length == 1 && "remove_child_nodes".equals(checked[0])) {
+                    permitted.set(i);
+                    continue;
+                }
+                // the same path and decision as hasPermission, so ACL nodes are detected alike
+                final Path path = AclPathKeys.path(nodes.get(i).getPath(), session);
+                final Map<String, Collection<String>> found = acls.get(i);
+                final boolean decision = decide(session, context, path, checked,
+                        found == null ? DEFAULT_ACCESS_ROLES : found);
+                LOGGER.debug("Batch permission for actions: {}, on: {} = {}", checked, path, decision);
+                permitted.set(i, decision);
+            }
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(e);
+        }
+        return permitted;
+    }
+
+    /**
+     * @param userSession the user session
+     * @param parentPath the parent path
+     * @param allPrincipals all principals
+     * @param parentRoles the roles on the parent
+     * @return true if every descendant may be removed, as decided by the configured strategy
+     */
+    private boolean canRemoveChildren(final Session userSession,
+                                      final String parentPath,
+                                      final Set<Principal> allPrincipals,
+                                      final Set<String> parentRoles) {
+        try {
+            return getAccessRolesReader().read(internalSession -> {
+                switch (removeStrategy) {
+                    case QUERY:
+                        return canRemoveChildrenByQuery(internalSession, userSession, parentPath, allPrincipals,
+                                parentRoles);
+                    case PARALLEL:
+                        return canRemoveChildrenParallel(internalSession, userSession, parentPath, allPrincipals,
+                                parentRoles);
+                    default:
+                        return canRemoveChildrenRecursive(internalSession, userSession, parentPath, allPrincipals,
+                                parentRoles);
+                }
+            });
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(
+                    "Cannot lookup child permission check information for " +
+                            parentPath, e);
+        }
+    }
+
+    /**
+     * ModeShape checks remove on the root of a removed subtree and then on its descendants. Once the whole subtree
+     * has been granted to a session, the checks on its descendants are answered from that decision, for as long as
+     * no access roles change. Checks on ACL nodes are not answered here.
+     *
+     * @param session the user session
+     * @param context the authorization data of the session
+     * @param absPath the path to be removed
+     * @param generation the current generation of the access roles
+     * @return true if the session was already granted remove on the path or one of its ancestors
+     */
+    private static boolean inRemovableSubtree(final Session session, final AuthContext context, final Path absPath,
+            final long generation) {
+        final Map<Path, Set<String>> granted = context.getRemovableSubtrees(generation);
+        if (granted.isEmpty()) {
+            return false;
+        }
+        if (!session.isLive()) {
+            granted.clear();
+            return false;
+        }
+        for (Path path = absPath; path != null; path = path.isRoot() ? null : path.getParent()) {
+            final Set<String> roles = granted.get(path);
+            if (roles != null) {
+                LOGGER.debug("Remove of {} already granted at {} with roles {}", absPath, path, roles);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param session the user session
+     * @return the authorization data of the session, built on first use, or null if the session has no principals
+     */
+    private AuthContext getAuthContext(final Session session) {
+        final AuthContext cached = authContexts.getIfPresent(session);
+        if (cached != null) {
+            return cached;
+        }
+        final Principal userPrincipal = getUserPrincipal(session);
+        if (userPrincipal == null) {
+            return null;
+        }
+        final Set<Principal> allPrincipals = getPrincipals(session);
+        if (allPrincipals == null) {
+            return null;
+        }
+        final AuthContext context = new AuthContext(userPrincipal, allPrincipals);
+        authContexts.put(session, context);
+        return context;
+    }
+
+    /**
+     * @param absPath an absolute path
+     * @return true if any segment of the path is in the access control namespace
+     */
+    protected static boolean isAclPath(final Path absPath) {
+        for (int i = 0; i < absPath.size(); i++) {
+            if (Constants.JcrName.NS_URI.equals(absPath.getSegment(i).getName().getNamespaceUri())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static Principal getUserPrincipal(final Session session) {
         final Object value = session.getAttribute(FEDORA_USER_PRINCIPAL);
         if (value instanceof Principal) {
@@ -157,21 +462,22 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
     }
 
     /**
+     * @param internalSession the internal session the repository is read with
      * @param userSession the user session
      * @param parentPath the parent path
      * @param allPrincipals all principals
      * @param parentRoles the roles on the parent
      * @return true if permitted
      */
-    private boolean canRemoveChildrenRecursive(final Session userSession,
+    private boolean canRemoveChildrenRecursive(final Session internalSession,
+                                               final Session userSession,
                                                final String parentPath,
                                                final Set<Principal> allPrincipals,
                                                final Set<String> parentRoles) {
         try {
-            final FedoraSession internalSession = sessionFactory.getInternalSession();
             LOGGER.debug("Recursive child remove permission checks for: {}",
                     parentPath);
-            final Item item = getJcrSession(internalSession).getItem(parentPath);
+            final Item item = internalSession.getItem(parentPath);
             if (!item.isNode()) {
                 // this is a property and has no children...
                 return true;
@@ -192,11 +498,11 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
                 } else {
                     roles = parentRoles;
                 }
-                if (rolesHavePermission(userSession, n.getPath(),
+                if (rolesHavePermission(userSession, checkedPath(n),
                         REMOVE_ACTIONS,
                         roles)) {
 
-                    if (!canRemoveChildrenRecursive(userSession, n.getPath(),
+                    if (!canRemoveChildrenRecursive(internalSession, userSession, n.getPath(),
                             allPrincipals, roles)) {
                         return false;
                     }
@@ -213,6 +519,246 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
         }
     }
 
+    /**
+     * Check the remove permission of a subtree with a query for the rbaclAssignable nodes within it. Nodes without an
+     * ACL of their own inherit roles already checked, so only the ACLs found by the query are evaluated, and each
+     * distinct set of resolved roles only once. ACL nodes are decided apart from content, so a second query finds
+     * the rbacl nodes within the subtree, and each of them and its descendants are checked as
+     * {@link #canRemoveChildrenRecursive} would check them.
+     *
+     * @param internalSession the internal session the repository is read with
+     * @param userSession the user session
+     * @param parentPath the parent path
+     * @param allPrincipals all principals
+     * @param parentRoles the roles on the parent, already granted remove
+     * @return true if permitted
+     */
+    private boolean canRemoveChildrenByQuery(final Session internalSession,
+                                             final Session userSession,
+                                             final String parentPath,
+                                             final Set<Principal> allPrincipals,
+                                             final Set<String> parentRoles) {
+        try {
+            LOGGER.debug("Query child remove permission checks for: {}", parentPath);
+            final Item item = internalSession.getItem(parentPath);
+            if (!item.isNode() || !((Node) item).hasNodes()) {
+                return true;
+            }
+            final Set<Set<String>> granted = new HashSet<>();
+            granted.add(parentRoles);
+            final NodeIterator ni = RbAclAccessRolesProvider.queryAssignable(internalSession, item.getPath());
+            while (ni.hasNext()) {
+                final Node n = ni.nextNode();
+                final Map<String, Collection<String>> acl = accessRolesProvider.getRoles(n, false);
+                if (acl == null) {
+                    continue;
+                }
+                final Set<String> roles = resolveUserRoles(acl, allPrincipals);
+                if (granted.contains(roles)) {
+                    continue;
+                }
+                if (!rolesHavePermission(userSession, n.getPath(), REMOVE_ACTIONS, roles)) {
+                    LOGGER.info("Remove permission denied at {} with roles {}", n.getPath(), roles);
+                    return false;
+                }
+                granted.add(roles);
+            }
+            final NodeIterator acls = RbAclAccessRolesProvider.queryAcls(internalSession, item.getPath());
+            while (acls.hasNext()) {
+                final Node rbacl = acls.nextNode();
+                final Set<String> roles = inheritedRoles(rbacl, item.getPath(), allPrincipals, parentRoles);
+                if (!rolesHavePermission(userSession, checkedPath(rbacl), REMOVE_ACTIONS, roles)) {
+                    LOGGER.info("Remove permission denied at {} with roles {}", rbacl.getPath(), roles);
+                    return false;
+                }
+                if (rbacl.hasNodes() &&
+                        !canRemoveChildrenRecursive(internalSession, userSession, rbacl.getPath(), allPrincipals,
+                                roles)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(
+                    "Cannot query child permission check information for " +
+                            parentPath, e);
+        }
+    }
+
+    /**
+     * @param node a node within the removed subtree
+     * @return the path of the node as permission checks are handed it, with the names of the access control
+     *         namespace expanded so that {@link #AUTHZ_DETECTION} finds them
+     * @throws RepositoryException if the namespace prefix cannot be resolved
+     */
+    private static String checkedPath(final Node node) throws RepositoryException {
+        final String path = node.getPath();
+        if (path.indexOf(':') < 0) {
+            return path;
+        }
+        return AclPathKeys.path(path, node.getSession()).toString();
+    }
+
+    /**
+     * @param node a node within the removed subtree
+     * @param rootPath the root of the removed subtree
+     * @param allPrincipals all principals
+     * @param rootRoles the roles on the root
+     * @return the roles a recursive walk from the root would hand down to the node
+     * @throws RepositoryException
+     */
+    private Set<String> inheritedRoles(final Node node, final String rootPath, final Set<Principal> allPrincipals,
+            final Set<String> rootRoles) throws RepositoryException {
+        for (Node ancestor = node.getParent(); !ancestor.getPath().equals(rootPath); ancestor =
+                ancestor.getParent()) {
+            final Map<String, Collection<String>> acl = accessRolesProvider.getRoles(ancestor, false);
+            if (acl != null) {
+                return resolveUserRoles(acl, allPrincipals);
+            }
+        }
+        return rootRoles;
+    }
+
+    /**
+     * Check the remove permission of a subtree like {@link #canRemoveChildrenRecursive}, walking the subtrees of
+     * independent children concurrently. The first denial cancels the outstanding work.
+     *
+     * @param internalSession the internal session the repository is read with
+     * @param userSession the user session
+     * @param parentPath the parent path
+     * @param allPrincipals all principals
+     * @param parentRoles the roles on the parent
+     * @return true if permitted
+     */
+    private boolean canRemoveChildrenParallel(final Session internalSession,
+                                              final Session userSession,
+                                              final String parentPath,
+                                              final Set<Principal> allPrincipals,
+                                              final Set<String> parentRoles) {
+        try {
+            LOGGER.debug("Parallel child remove permission checks for: {}", parentPath);
+            final Item item = internalSession.getItem(parentPath);
+            if (!item.isNode() || !((Node) item).hasNodes()) {
+                return true;
+            }
+            return getRemovePool().invoke(new RemoveChildrenTask(internalSession, userSession, item.getPath(),
+                    allPrincipals, parentRoles, new AtomicBoolean()));
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(
+                    "Cannot lookup child permission check information for " +
+                            parentPath, e);
+        }
+    }
+
+    /**
+     * Worker of the parallel remove check. JCR sessions are not thread-safe, so each worker reads through an
+     * internal session of its own, held until the worker terminates.
+     */
+    private final class SessionWorker extends ForkJoinWorkerThread {
+
+        private FedoraSession session;
+
+        private SessionWorker(final ForkJoinPool pool) {
+            super(pool);
+            setName("rbacl-remove-" + getPoolIndex());
+        }
+
+        private Session getSession() {
+            if (session == null) {
+                session = sessionFactory.getInternalSession();
+            }
+            return getJcrSession(session);
+        }
+
+        @Override
+        protected void onTermination(final Throwable exception) {
+            if (session != null) {
+                session.expire();
+                session = null;
+            }
+            super.onTermination(exception);
+        }
+    }
+
+    /**
+     * Checks the children of one node, forking a task for each child that has children of its own. A pool may
+     * run a task on the thread that invoked it, which then reads through the internal session of the caller.
+     */
+    private final class RemoveChildrenTask extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Session callerSession;
+
+        private final Session userSession;
+
+        private final String parentPath;
+
+        private final Set<Principal> allPrincipals;
+
+        private final Set<String> parentRoles;
+
+        private final AtomicBoolean denied;
+
+        private RemoveChildrenTask(final Session callerSession, final Session userSession, final String parentPath,
+                final Set<Principal> allPrincipals, final Set<String> parentRoles, final AtomicBoolean denied) {
+            this.callerSession = callerSession;
+            this.userSession = userSession;
+            this.parentPath = parentPath;
+            this.allPrincipals = allPrincipals;
+            this.parentRoles = parentRoles;
+            this.denied = denied;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (denied.get()) {
+                return false;
+            }
+            try {
+                final Thread thread = Thread.currentThread();
+                final boolean worker = thread instanceof SessionWorker;
+                final Node parent = (worker ? ((SessionWorker) thread).getSession() : callerSession)
+                        .getNode(parentPath);
+                final List<RemoveChildrenTask> forked = new ArrayList<>();
+                final NodeIterator ni = parent.getNodes();
+                while (ni.hasNext() && !denied.get()) {
+                    final Node n = ni.nextNode();
+                    final Map<String, Collection<String>> acl = accessRolesProvider.getRoles(n, false);
+                    final Set<String> roles = acl != null ? resolveUserRoles(acl, allPrincipals) : parentRoles;
+                    if (!rolesHavePermission(userSession, checkedPath(n), REMOVE_ACTIONS, roles)) {
+                        LOGGER.info("Remove permission denied at {} with roles {}", n.getPath(), roles);
+                        denied.set(true);
+                        break;
+                    }
+                    if (n.hasNodes()) {
+                        final RemoveChildrenTask task = new RemoveChildrenTask(callerSession, userSession,
+                                n.getPath(), allPrincipals, roles, denied);
+                        if (worker) {
+                            task.fork();
+                        } else {
+                            // forking off a worker would queue the task in the common pool
+                            getRemovePool().execute(task);
+                        }
+                        forked.add(task);
+                    }
+                }
+                for (final RemoveChildrenTask task : forked) {
+                    if (denied.get()) {
+                        task.cancel(false);
+                    } else {
+                        task.join();
+                    }
+                }
+                return !denied.get();
+            } catch (final RepositoryException e) {
+                throw new RepositoryRuntimeException(
+                        "Cannot lookup child permission check information for " +
+                                parentPath, e);
+            }
+        }
+    }
+
     /**
      * Subclasses must override this method to determine permissions based on
      * supplied roles.
@@ -226,4 +772,46 @@ public abstract class AbstractRolesAuthorizationDelegate implements FedoraAuthor
     public abstract boolean rolesHavePermission(final Session userSession, final String absPath,
             final String[] actions, final Set<String> roles);
 
+    /**
+     * Determine permissions based on roles held as a mask of {@link RoleIds}. The mask never holds
+     * {@link RoleIds#UNMAPPED}. Subclasses should override this to decide without allocating; by default the roles
+     * are handed to {@link #rolesHavePermission(Session, String, String[], Set)} by name.
+     *
+     * @param userSession the user session
+     * @param absPath path to the object
+     * @param actions requested action
+     * @param roles mask of the effective roles for this request and content
+     * @return true if role has permission
+     */
+    public boolean rolesHavePermission(final Session userSession, final String absPath,
+            final String[] actions, final long roles) {
+        return rolesHavePermission(userSession, absPath, actions, RoleIds.names(roles));
+    }
+
+    /**
+     * Determine permissions like {@link #rolesHavePermission(Session, String, String[], long)} for a path that has
+     * not been turned into a string. Subclasses may override this to inspect the path segments directly.
+     *
+     * @param userSession the user session
+     * @param absPath path to the object
+     * @param actions requested action
+     * @param roles mask of the effective roles for this request and content
+     * @return true if role has permission
+     */
+    public boolean rolesHavePermission(final Session userSession, final Path absPath,
+            final String[] actions, final long roles) {
+        return rolesHavePermission(userSession, absPath.toString(), actions, roles);
+    }
+
+    /**
+     * Subclasses whose decisions depend only on the roles, the actions and whether the path is within an ACL node,
+     * as given by {@link #isAclPath(Path)}, override this to share decisions between paths and sessions through a
+     * decision cache. They must call {@link #invalidateDecisions()} whenever their decisions change.
+     *
+     * @return true if decisions may be cached
+     */
+    protected boolean isDecisionCacheable() {
+        return false;
+    }
+
 }
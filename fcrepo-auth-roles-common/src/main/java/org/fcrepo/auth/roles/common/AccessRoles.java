@@ -17,12 +17,15 @@
  */
 package org.fcrepo.auth.roles.common;
 
+import static java.util.Collections.emptyMap;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static org.fcrepo.kernel.api.FedoraTypes.FCR_METADATA;
 import static org.fcrepo.kernel.modeshape.utils.FedoraTypesUtils.getJcrNode;
 
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 import javax.inject.Inject;
 import javax.jcr.Node;
@@ -37,7 +40,9 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -45,6 +50,7 @@ import javax.ws.rs.core.UriInfo;
 
 import org.fcrepo.http.commons.AbstractResource;
 import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.http.commons.domain.PATCH;
 import org.fcrepo.http.commons.session.HttpSession;
 import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
 import org.fcrepo.kernel.api.models.FedoraBinary;
@@ -57,6 +63,7 @@ import org.springframework.context.annotation.Scope;
 
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Striped;
 import org.apache.jena.rdf.model.Resource;
 
 /**
@@ -72,6 +79,12 @@ public class AccessRoles extends AbstractResource {
     private static final Logger LOGGER = LoggerFactory
             .getLogger(AccessRoles.class);
 
+    private static final String ADD = "add";
+
+    private static final String REMOVE = "remove";
+
+    private static final Striped<Lock> WRITE_LOCKS = Striped.lazyWeakLock(256);
+
     protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
 
 
@@ -116,7 +129,8 @@ public class AccessRoles extends AbstractResource {
     }
 
     /**
-     * Retrieve the roles assigned to each principal on this specific path.
+     * Retrieve the roles assigned to each principal on this specific path. The response carries a strong ETag of
+     * the assignments, and a request whose If-None-Match matches it is answered with 304 Not Modified.
      *
      * @param effective the effective roles
      * @return JSON representation of assignment map
@@ -143,12 +157,19 @@ public class AccessRoles extends AbstractResource {
                 response = Response.status(Status.NOT_FOUND);
             } else {
                 final Map<String, Collection<String>> data =
-                        provider.getRoles(node, (effective != null));
+                        provider.getCachedRoles(node, (effective != null));
                 if (data == null) {
                     LOGGER.debug("no content response");
                     response = Response.noContent();
                 } else {
-                    response = Response.ok(data);
+                    final EntityTag etag = new EntityTag(CompiledAcl.of(data).getTag());
+                    response = request.evaluatePreconditions(etag);
+                    if (response == null) {
+                        response = Response.ok(data);
+                    } else {
+                        LOGGER.debug("Access roles for {} are not modified", externalPath);
+                    }
+                    response.tag(etag).cacheControl(revalidate());
                 }
             }
         } finally {
@@ -177,13 +198,25 @@ public class AccessRoles extends AbstractResource {
 
             final FedoraResource resource = resource();
 
-            if (resource instanceof FedoraBinary) {
-                this.getAccessRolesProvider().postRoles(getJcrNode(((FedoraBinary) resource).getDescription()), data);
-            } else {
-                this.getAccessRolesProvider().postRoles(getJcrNode(resource), data);
+            final Lock lock = writeLock();
+            lock.lock();
+            try {
+                final boolean changed;
+                if (resource instanceof FedoraBinary) {
+                    changed = this.getAccessRolesProvider().postRolesIfChanged(
+                            getJcrNode(((FedoraBinary) resource).getDescription()), data);
+                } else {
+                    changed = this.getAccessRolesProvider().postRolesIfChanged(getJcrNode(resource), data);
+                }
+                if (changed) {
+                    session.commit();
+                    LOGGER.debug("Saved access roles {}", data);
+                } else {
+                    LOGGER.debug("Access roles {} are unchanged, nothing to save", data);
+                }
+            } finally {
+                lock.unlock();
             }
-            session.commit();
-            LOGGER.debug("Saved access roles {}", data);
             response =
                     Response.created(getUriInfo().getBaseUriBuilder()
                             .path(externalPath).path("fcr:accessroles").build());
@@ -197,6 +230,74 @@ public class AccessRoles extends AbstractResource {
         return response.build();
     }
 
+    /**
+     * Add and remove single roles of principals at the specified node, leaving the roles of all other principals as
+     * they are. The body holds an "add" and a "remove" object, each with the roles of some principals. A request with
+     * If-Match is applied only if the roles assigned at the node still carry that ETag, as given by GET without
+     * effective.
+     *
+     * @param data the roles to add and the roles to remove
+     * @return response
+     * @throws RepositoryException if the roles could not be changed
+     */
+    @PATCH
+    @Consumes(APPLICATION_JSON)
+    @Timed
+    public Response patch(final Map<String, Map<String, Set<String>>> data)
+            throws RepositoryException {
+        LOGGER.debug("PATCH Received request param: {}", request);
+        Response.ResponseBuilder response;
+
+        try {
+            validatePATCH(data);
+            final Map<String, Set<String>> add = data.getOrDefault(ADD, emptyMap());
+            final Map<String, Set<String>> remove = data.getOrDefault(REMOVE, emptyMap());
+
+            final FedoraResource resource = resource();
+            final Node node;
+            if (resource instanceof FedoraBinary) {
+                node = getJcrNode(((FedoraBinary) resource).getDescription());
+            } else {
+                node = getJcrNode(resource);
+            }
+
+            final AccessRolesProvider provider = this.getAccessRolesProvider();
+            // the roles compared with If-Match must still be current when the patch is committed
+            final Lock lock = writeLock();
+            lock.lock();
+            try {
+                final Map<String, Collection<String>> current = provider.getRoles(node, false);
+                final Response.ResponseBuilder precondition = current == null ? request.evaluatePreconditions()
+                        : request.evaluatePreconditions(new EntityTag(CompiledAcl.of(current).getTag()));
+                if (precondition != null) {
+                    LOGGER.debug("Access roles for {} do not match the preconditions", externalPath);
+                    return precondition.build();
+                }
+
+                if (provider.patchRoles(node, add, remove)) {
+                    session.commit();
+                    LOGGER.debug("Saved access roles patch, add: {}, remove: {}", add, remove);
+                } else {
+                    LOGGER.debug("Access roles patch changes nothing, add: {}, remove: {}", add, remove);
+                }
+            } finally {
+                lock.unlock();
+            }
+            response = Response.noContent();
+            final Map<String, Collection<String>> patched = provider.getRoles(node, false);
+            if (patched != null) {
+                response.tag(new EntityTag(CompiledAcl.of(patched).getTag()));
+            }
+
+        } catch (final IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.status(Status.BAD_REQUEST).build());
+        } finally {
+            session.expire();
+        }
+
+        return response.build();
+    }
+
     /**
      * @param data
      */
@@ -205,6 +306,34 @@ public class AccessRoles extends AbstractResource {
             throw new IllegalArgumentException(
                     "Posted access roles must include role assignments");
         }
+        validateAssignments(data);
+    }
+
+    /**
+     * @param data
+     */
+    private void validatePATCH(final Map<String, Map<String, Set<String>>> data) {
+        if (data == null || data.isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Access roles patch must include roles to add or remove");
+        }
+        for (final Map.Entry<String, Map<String, Set<String>>> entry : data.entrySet()) {
+            if (!ADD.equals(entry.getKey()) && !REMOVE.equals(entry.getKey())) {
+                throw new IllegalArgumentException(
+                        "Access roles patch may only add or remove roles, not " + entry.getKey());
+            }
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException(
+                        "Access roles patch must include the roles to " + entry.getKey());
+            }
+            validateAssignments(entry.getValue());
+        }
+    }
+
+    /**
+     * @param data
+     */
+    private static void validateAssignments(final Map<String, Set<String>> data) {
         for (final Map.Entry<String, Set<String>> entry : data.entrySet()) {
             if (entry.getKey() == null || entry.getValue() == null || entry.getValue().isEmpty()) {
                 throw new IllegalArgumentException(
@@ -241,14 +370,43 @@ public class AccessRoles extends AbstractResource {
                 node = getJcrNode(resource());
             }
 
-            this.getAccessRolesProvider().deleteRoles(node);
-            session.commit();
+            final Lock lock = writeLock();
+            lock.lock();
+            try {
+                this.getAccessRolesProvider().deleteRoles(node);
+                session.commit();
+            } finally {
+                lock.unlock();
+            }
             return Response.noContent().build();
         } finally {
             session.expire();
         }
     }
 
+    /**
+     * @return the lock held while the roles of the resource of this request are compared and written, the same for
+     *         a binary and its description
+     */
+    private Lock writeLock() {
+        String key = externalPath.startsWith("/") ? externalPath.substring(1) : externalPath;
+        if (key.endsWith("/" + FCR_METADATA)) {
+            key = key.substring(0, key.length() - FCR_METADATA.length() - 1);
+        }
+        return WRITE_LOCKS.get(key);
+    }
+
+    /**
+     * Caches, shared ones included, may store access roles but must revalidate them on every use, so that each
+     * request is still authorized and sees changes at once.
+     */
+    private static CacheControl revalidate() {
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        cacheControl.setMustRevalidate(true);
+        return cacheControl;
+    }
+
     private UriInfo getUriInfo() {
         return this.uriInfo;
     }
@@ -0,0 +1,279 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static org.fcrepo.auth.common.ServletContainerAuthenticationProvider.FEDORA_ADMIN_ROLE;
+import static org.fcrepo.kernel.modeshape.FedoraSessionImpl.getJcrSession;
+import static org.fcrepo.kernel.modeshape.utils.FedoraTypesUtils.getJcrNode;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriInfo;
+
+import org.fcrepo.auth.common.FedoraAuthorizationDelegate;
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.http.commons.session.HttpSession;
+import org.fcrepo.kernel.api.exception.PathNotFoundRuntimeException;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * RESTful interface to decide many permission checks for a set of principals in one request, such as whether a
+ * user may read each hit of a search. Only administrators may ask, since the answers disclose the access of other
+ * users.
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/{path: .*}/fcr:accessroles/check")
+public class AccessRolesCheck extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessRolesCheck.class);
+
+    protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
+
+    @Inject
+    protected HttpSession session;
+
+    @Inject
+    @Optional
+    private FedoraAuthorizationDelegate authorizationDelegate;
+
+    @Context protected SecurityContext securityContext;
+    @Context protected UriInfo uriInfo;
+
+    @PathParam("path") protected String externalPath;
+
+    /**
+     * Default JAX-RS entry point
+     */
+    public AccessRolesCheck() {
+        super();
+    }
+
+    /**
+     * Create a new instance for a given path
+     * @param externalPath external path
+     */
+    @VisibleForTesting
+    public AccessRolesCheck(final String externalPath) {
+        this.externalPath = externalPath;
+    }
+
+    /**
+     * Decide each check for the given principals. Paths are relative to the resource of the request URI, and the
+     * response is a JSON array holding the decision of each check in order. Checks on paths that are not found are
+     * denied.
+     *
+     * @param checks the principals and the checks to decide for them
+     * @return JSON array of decisions
+     */
+    @POST
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response post(final Checks checks) {
+        try {
+            if (!securityContext.isUserInRole(FEDORA_ADMIN_ROLE)) {
+                return Response.status(Status.FORBIDDEN).build();
+            }
+            if (checks == null || checks.getPrincipals() == null || checks.getChecks() == null) {
+                return Response.status(Status.BAD_REQUEST).build();
+            }
+            if (!(authorizationDelegate instanceof AbstractRolesAuthorizationDelegate)) {
+                LOGGER.debug("No roles based authorization delegate");
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            LOGGER.debug("Check access of {} for {} paths below {}", checks.getPrincipals(),
+                    checks.getChecks().size(), externalPath);
+
+            final Set<Principal> principals = new LinkedHashSet<>();
+            for (final String name : new LinkedHashSet<>(checks.getPrincipals())) {
+                principals.add(() -> name);
+            }
+            // every request also carries the principal standing for everyone, as a session would
+            principals.add(authorizationDelegate.getEveryonePrincipal());
+            final List<Check> requested = checks.getChecks();
+            final List<Integer> found = new ArrayList<>(requested.size());
+            final List<Node> nodes = new ArrayList<>(requested.size());
+            final List<String[]> actions = new ArrayList<>(requested.size());
+            for (int i = 0; i < requested.size(); i++) {
+                final Check check = requested.get(i);
+                if (check == null || check.getPath() == null || check.getAction() == null) {
+                    return Response.status(Status.BAD_REQUEST).build();
+                }
+                final Node node = findNode(check.getPath());
+                if (node != null) {
+                    found.add(i);
+                    nodes.add(node);
+                    actions.add(check.getAction().split(","));
+                }
+            }
+
+            final BitSet permitted = ((AbstractRolesAuthorizationDelegate) authorizationDelegate).checkAccess(
+                    getJcrSession(session.getFedoraSession()), principals, nodes, actions);
+            final List<Boolean> decisions = new ArrayList<>(requested.size());
+            for (int i = 0; i < requested.size(); i++) {
+                decisions.add(false);
+            }
+            for (int i = permitted.nextSetBit(0); i >= 0; i = permitted.nextSetBit(i + 1)) {
+                decisions.set(found.get(i), true);
+            }
+            return Response.ok(decisions).build();
+        } finally {
+            session.expire();
+        }
+    }
+
+    private Node findNode(final String path) {
+        final String relative = path.startsWith("/") ? path.substring(1) : path;
+        try {
+            return getJcrNode(translator().convert(translator().toDomain(externalPath + "/" + relative)));
+        } catch (final PathNotFoundRuntimeException e) {
+            LOGGER.debug("Cannot find {} below {}", path, externalPath);
+            return null;
+        }
+    }
+
+    protected IdentifierConverter<Resource, FedoraResource> translator() {
+        if (identifierTranslator == null) {
+            identifierTranslator = new HttpResourceConverter(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"));
+        }
+
+        return identifierTranslator;
+    }
+
+    /**
+     * The principals to decide for, and the checks to decide.
+     */
+    public static class Checks {
+
+        private List<String> principals;
+
+        private List<Check> checks;
+
+        /**
+         * @return the names of the principals to decide for
+         */
+        public List<String> getPrincipals() {
+            return principals;
+        }
+
+        /**
+         * @param principals the names of the principals to decide for
+         */
+        public void setPrincipals(final List<String> principals) {
+            this.principals = principals;
+        }
+
+        /**
+         * @return the checks to decide
+         */
+        public List<Check> getChecks() {
+            return checks;
+        }
+
+        /**
+         * @param checks the checks to decide
+         */
+        public void setChecks(final List<Check> checks) {
+            this.checks = checks;
+        }
+    }
+
+    /**
+     * One action, or several separated by commas, to check on one path.
+     */
+    public static class Check {
+
+        private String path;
+
+        private String action;
+
+        /**
+         * Default constructor, for JSON binding
+         */
+        public Check() {
+        }
+
+        /**
+         * @param path path relative to the resource of the request URI
+         * @param action the actions to check, separated by commas
+         */
+        public Check(final String path, final String action) {
+            this.path = path;
+            this.action = action;
+        }
+
+        /**
+         * @return path relative to the resource of the request URI
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @param path path relative to the resource of the request URI
+         */
+        public void setPath(final String path) {
+            this.path = path;
+        }
+
+        /**
+         * @return the actions to check, separated by commas
+         */
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * @param action the actions to check, separated by commas
+         */
+        public void setAction(final String action) {
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.unmodifiableMap;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * The roles assigned at one node, as listed by {@link AccessRolesProvider#exportRoles}.
+ *
+ * @author agent
+ */
+public final class AccessRolesEntry {
+
+    private final String path;
+
+    private final Map<String, Collection<String>> roles;
+
+    /**
+     * @param path JCR path of the node
+     * @param roles the roles assigned to each principal
+     */
+    public AccessRolesEntry(final String path, final Map<String, Collection<String>> roles) {
+        this.path = path;
+        this.roles = unmodifiableMap(roles);
+    }
+
+    /**
+     * @return JCR path of the node
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the roles assigned to each principal
+     */
+    public Map<String, Collection<String>> getRoles() {
+        return roles;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET;
+import static org.fcrepo.kernel.modeshape.utils.FedoraTypesUtils.getJcrNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.AccessControlException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.jcr.AccessDeniedException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.http.commons.session.HttpSession;
+import org.fcrepo.kernel.api.exception.PathNotFoundRuntimeException;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.fcrepo.kernel.api.models.FedoraResource;
+
+import org.glassfish.jersey.server.CloseableService;
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * RESTful interface to export the access roles assigned in a subtree, for audits and for warming external caches.
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/{path: .*}/fcr:accessroles/export")
+public class AccessRolesExport extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessRolesExport.class);
+
+    /**
+     * Newline delimited JSON, one JSON object per line.
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final JsonFactory JSON = new JsonFactory().disable(AUTO_CLOSE_TARGET);
+
+    private static final int FLUSH_INTERVAL = 100;
+
+    protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
+
+    @Inject
+    protected HttpSession session;
+
+    @Inject
+    @Optional
+    private AccessRolesProvider accessRolesProvider;
+
+    @Context protected UriInfo uriInfo;
+
+    @Context
+    private CloseableService closeableService;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    protected FedoraResource resource;
+
+    @PathParam("path") protected String externalPath;
+
+    /**
+     * Default JAX-RS entry point
+     */
+    public AccessRolesExport() {
+        super();
+    }
+
+    /**
+     * Create a new instance for a given path
+     * @param externalPath external path
+     */
+    @VisibleForTesting
+    public AccessRolesExport(final String externalPath) {
+        this.externalPath = externalPath;
+    }
+
+    /**
+     * Stream the roles assigned at this resource and at each of its descendants that has roles assigned, one JSON
+     * object per line holding the URI of the resource and the roles of each principal. Only the nodes the user may
+     * read are exported.
+     *
+     * @return NDJSON stream of access roles
+     * @throws RepositoryException if the descendants could not be found
+     */
+    @GET
+    @Produces(APPLICATION_NDJSON)
+    @Timed
+    public Response get() throws RepositoryException {
+        LOGGER.debug("Export access roles below: {}", externalPath);
+        // the roles are read as they are written, so the session stays open until the request is done
+        closeableService.add(this::release);
+        boolean streaming = false;
+        try {
+            if (accessRolesProvider == null) {
+                LOGGER.debug("accessRolesProvider is null");
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            final Node node;
+            if (resource() instanceof FedoraBinary) {
+                node = getJcrNode(((FedoraBinary) resource()).getDescription());
+            } else {
+                node = getJcrNode(resource());
+            }
+            final Iterator<AccessRolesEntry> entries = accessRolesProvider.exportRoles(node);
+            final Response response = Response.ok((StreamingOutput) out -> write(entries, out)).build();
+            streaming = true;
+            return response;
+        } finally {
+            if (!streaming) {
+                release();
+            }
+        }
+    }
+
+    private void write(final Iterator<AccessRolesEntry> entries, final OutputStream out) throws IOException {
+        try {
+            final JsonGenerator json = JSON.createGenerator(out);
+            json.setRootValueSeparator(null);
+            int written = 0;
+            while (entries.hasNext()) {
+                final AccessRolesEntry entry = entries.next();
+                final FedoraResource exported;
+                try {
+                    exported = nodeService.find(session.getFedoraSession(), entry.getPath());
+                } catch (final PathNotFoundRuntimeException e) {
+                    LOGGER.debug("Cannot find {}, removed during the export", entry.getPath());
+                    continue;
+                } catch (final RepositoryRuntimeException | AccessControlException e) {
+                    if (!isAccessDenied(e)) {
+                        throw e;
+                    }
+                    // the response is already under way: leave out what the user may not read
+                    LOGGER.debug("Skipping {}, which the user may not read", entry.getPath());
+                    continue;
+                }
+                json.writeStartObject();
+                json.writeStringField("id", translator().reverse().convert(exported).getURI());
+                json.writeFieldName("roles");
+                EffectiveAccessRoles.writeRoles(json, entry.getRoles());
+                json.writeEndObject();
+                json.writeRaw('\n');
+                if (++written % FLUSH_INTERVAL == 0) {
+                    json.flush();
+                }
+            }
+            json.flush();
+            LOGGER.debug("Exported {} access control lists below {}", written, externalPath);
+        } finally {
+            release();
+        }
+    }
+
+    private static boolean isAccessDenied(final Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof AccessDeniedException || t instanceof AccessControlException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expire the session once, when the roles are written or when the request completes without writing them.
+     */
+    private void release() {
+        if (released.compareAndSet(false, true)) {
+            session.expire();
+        }
+    }
+
+    protected FedoraResource resource() {
+        if (resource == null) {
+            resource = translator().convert(translator().toDomain(externalPath));
+        }
+
+        return resource;
+    }
+
+    protected IdentifierConverter<Resource, FedoraResource> translator() {
+        if (identifierTranslator == null) {
+            identifierTranslator = new HttpResourceConverter(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"));
+        }
+
+        return identifierTranslator;
+    }
+}
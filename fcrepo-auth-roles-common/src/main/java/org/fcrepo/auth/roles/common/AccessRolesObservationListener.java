@@ -0,0 +1,265 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fcrepo.auth.roles.common.AclChanges.EVENT_TYPES;
+import static org.fcrepo.auth.roles.common.Constants.registerPrefixes;
+import static org.fcrepo.kernel.modeshape.FedoraSessionImpl.getJcrSession;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Keeps the cached and indexed access roles of {@link RbAclAccessRolesProvider} coherent with changes made by any
+ * session or cluster member, such as imports, moves and direct JCR edits of ACL nodes. Events are coalesced for a
+ * short delay and applied as targeted invalidations; a batch touching more ACLs than a threshold rebuilds the
+ * index once instead. The ACL index is also checkpointed at a fixed interval, if checkpoints are enabled.
+ *
+ * @author agent
+ */
+@Component
+public class AccessRolesObservationListener implements EventListener {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(AccessRolesObservationListener.class);
+
+    @Inject
+    private SessionFactory sessionFactory = null;
+
+    @Inject
+    private RbAclAccessRolesProvider accessRolesProvider = null;
+
+    @Inject
+    private AccessRolesReader accessRolesReader = null;
+
+    private long flushDelay = 500;
+
+    private int rebuildThreshold = 1000;
+
+    private long checkpointInterval = 300;
+
+    private final AclChanges changes = new AclChanges();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService flusher;
+
+    private FedoraSession session;
+
+    private ObservationManager observationManager;
+
+    /**
+     * @param flushDelay milliseconds for which events are coalesced before being applied
+     */
+    @Value("${fcrepo.auth.rbacl.observation.delay:500}")
+    public void setFlushDelay(final long flushDelay) {
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * @param rebuildThreshold number of changed paths in one batch above which all access roles are reloaded
+     */
+    @Value("${fcrepo.auth.rbacl.observation.rebuildThreshold:1000}")
+    public void setRebuildThreshold(final int rebuildThreshold) {
+        this.rebuildThreshold = rebuildThreshold;
+    }
+
+    /**
+     * @param checkpointInterval seconds between checkpoints of the ACL index, taken only if the index changed
+     */
+    @Value("${fcrepo.auth.rbacl.index.snapshot.interval:300}")
+    public void setCheckpointInterval(final long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Register this listener for changes anywhere in the workspace.
+     */
+    @PostConstruct
+    public void register() {
+        try {
+            session = sessionFactory.getInternalSession();
+            final Session jcrSession = getJcrSession(session);
+            registerPrefixes(jcrSession);
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "rbacl-observation");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (checkpointInterval > 0) {
+                flusher.scheduleWithFixedDelay(this::checkpoint, checkpointInterval, checkpointInterval, SECONDS);
+            }
+            observationManager = jcrSession.getWorkspace().getObservationManager();
+            observationManager.addEventListener(this, EVENT_TYPES, "/", true, null, null, false);
+            LOGGER.debug("Registered access roles observation listener");
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(e);
+        }
+    }
+
+    /**
+     * Unregister this listener and release its session.
+     */
+    @PreDestroy
+    public void unregister() {
+        try {
+            if (observationManager != null) {
+                observationManager.removeEventListener(this);
+            }
+        } catch (final RepositoryException e) {
+            LOGGER.warn("Unable to remove access roles observation listener: {}", e.getMessage());
+        } finally {
+            if (flusher != null) {
+                flusher.shutdownNow();
+            }
+            if (session != null) {
+                session.expire();
+            }
+        }
+    }
+
+    @Override
+    public void onEvent(final EventIterator events) {
+        boolean relevant = false;
+        while (events.hasNext()) {
+            try {
+                relevant |= changes.collect(events.nextEvent());
+            } catch (final RepositoryException e) {
+                LOGGER.warn("Unable to read event, reloading all access roles: {}", e.getMessage());
+                changes.collectAll();
+                relevant = true;
+            }
+        }
+        if (relevant && flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, flushDelay, MILLISECONDS);
+        }
+    }
+
+    /**
+     * Apply the changes collected since the last flush.
+     */
+    @VisibleForTesting
+    void flush() {
+        flushScheduled.set(false);
+        final long through = changes.getLatestEventDate();
+        final List<String> drained = changes.drainRemoved();
+        final List<String> moved = changes.drainMoved();
+        final List<String> changed = changes.drainChanged();
+        final List<String> mixins = changes.drainMixins();
+        final List<String> added = changes.drainAdded();
+        if (drained.isEmpty() && moved.isEmpty() && changed.isEmpty() && mixins.isEmpty()) {
+            // only nodes were added, as on every ingest: roles are unchanged
+            forgetMissingPaths(added);
+            accessRolesProvider.indexCaughtUp(through);
+            return;
+        }
+        accessRolesReader.refresh();
+        try {
+            final Session jcrSession = getJcrSession(session);
+            jcrSession.refresh(false);
+            added.addAll(moved);
+            accessRolesProvider.forgetMissingPaths(added, jcrSession);
+            // mixin changes of nodes that neither are nor were rbaclAssignable, as on every ingest, do not count
+            final Set<String> known = new HashSet<>(changed);
+            for (final String path : accessRolesProvider.assignableNodes(mixins, jcrSession)) {
+                if (known.add(path)) {
+                    changed.add(path);
+                }
+            }
+            if (drained.contains("/")) {
+                LOGGER.info("Reloading all access roles after the root was removed or an event was lost");
+                accessRolesProvider.reloadRoles(jcrSession);
+                accessRolesProvider.indexCaughtUp(through);
+                return;
+            }
+            // removals of subtrees without cached or indexed roles change nothing and do not count
+            final List<String> removed = accessRolesProvider.aclSubtrees(drained, jcrSession);
+            final int count = removed.size() + moved.size() + changed.size();
+            if (count > rebuildThreshold) {
+                LOGGER.info("Reloading all access roles after {} changes", count);
+                accessRolesProvider.reloadRoles(jcrSession);
+                accessRolesProvider.indexCaughtUp(through);
+                return;
+            }
+            accessRolesProvider.removeRolesSubtrees(removed, jcrSession);
+            for (final String path : moved) {
+                accessRolesProvider.rescanRolesSubtree(path, jcrSession);
+            }
+            for (final String path : changed) {
+                accessRolesProvider.refreshRoles(path, jcrSession);
+            }
+            accessRolesProvider.indexCaughtUp(through);
+            LOGGER.debug("Applied {} removed, {} moved and {} changed ACL paths", removed.size(), moved.size(),
+                    changed.size());
+        } catch (final RepositoryException | RuntimeException e) {
+            LOGGER.error("Unable to apply access roles changes, reloading all access roles", e);
+            try {
+                accessRolesProvider.reloadRoles(getJcrSession(session));
+            } catch (final RepositoryException | RuntimeException ex) {
+                LOGGER.error("Unable to reload access roles", ex);
+            }
+        }
+    }
+
+    /**
+     * Forget the paths found missing that added nodes may have made exist.
+     */
+    private void forgetMissingPaths(final List<String> added) {
+        try {
+            accessRolesProvider.forgetMissingPaths(added, getJcrSession(session));
+        } catch (final RepositoryException | RuntimeException e) {
+            LOGGER.warn("Unable to forget missing paths below added nodes: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Checkpoint the ACL index, logging rather than propagating failures so that later checkpoints still run.
+     */
+    private void checkpoint() {
+        try {
+            accessRolesProvider.checkpointIndex();
+        } catch (final RuntimeException e) {
+            LOGGER.error("Unable to checkpoint the ACL index", e);
+        }
+    }
+}
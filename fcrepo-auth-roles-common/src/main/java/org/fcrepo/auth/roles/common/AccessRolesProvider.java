@@ -19,16 +19,27 @@ package org.fcrepo.auth.roles.common;
 
 import static java.util.Collections.emptyMap;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
 import org.modeshape.jcr.value.Path;
 
+import com.google.common.collect.AbstractIterator;
+
 /**
  * Provides the effective access roles for authorization.
  *
@@ -48,6 +59,32 @@ public interface AccessRolesProvider {
      */
     public Map<String, Collection<String>> getRoles(final Node node, final boolean effective);
 
+    /**
+     * Get the roles assigned to this Node as {@link #getRoles}, served from the provider's cache if it keeps one.
+     * The returned map must not be modified.
+     *
+     * @param node the subject Node
+     * @param effective if true then search for effective roles
+     * @return a set of roles for each principal
+     */
+    public default Map<String, Collection<String>> getCachedRoles(final Node node, final boolean effective) {
+        return getRoles(node, effective);
+    }
+
+    /**
+     * Get the effective roles of several Nodes at once, as {@link #getCachedRoles} would for each of them.
+     *
+     * @param nodes the subject Nodes
+     * @return the effective roles of each Node, in the order of the given Nodes
+     */
+    public default List<Map<String, Collection<String>>> getEffectiveRoles(final List<Node> nodes) {
+        final List<Map<String, Collection<String>>> roles = new ArrayList<>(nodes.size());
+        for (final Node node : nodes) {
+            roles.add(getCachedRoles(node, true));
+        }
+        return roles;
+    }
+
     /**
      * Assigns the given set of roles to each principal.
      *
@@ -58,6 +95,115 @@ public interface AccessRolesProvider {
     public void postRoles(final Node node, final Map<String, Set<String>> data)
             throws RepositoryException;
 
+    /**
+     * Assigns the given set of roles to each principal as {@link #postRoles} does, unless they already match the
+     * roles assigned at the node.
+     *
+     * @param node the Node to edit
+     * @param data the roles to assign
+     * @return true if the stored roles changed, false if they already matched
+     * @throws RepositoryException if repository exception occurred
+     */
+    public default boolean postRolesIfChanged(final Node node, final Map<String, Set<String>> data)
+            throws RepositoryException {
+        final Map<String, Collection<String>> current = getRoles(node, false);
+        if (current != null && !current.isEmpty() && current.size() == data.size()) {
+            boolean same = true;
+            for (final Map.Entry<String, Set<String>> entry : data.entrySet()) {
+                final Collection<String> roles = current.get(entry.getKey());
+                same &= roles != null && new HashSet<>(roles).equals(entry.getValue());
+            }
+            if (same) {
+                return false;
+            }
+        }
+        postRoles(node, data);
+        return true;
+    }
+
+    /**
+     * Adds and removes single roles of principals, leaving the roles of all other principals as they are. A
+     * principal left without roles is unassigned, and if no principal is left with roles the roles are deleted as
+     * by {@link #deleteRoles}, so that the roles of the ancestors apply again. By default the roles are read, changed
+     * and written back whole.
+     *
+     * @param node the Node to edit
+     * @param add the roles to add to each principal
+     * @param remove the roles to remove from each principal, after the roles are added
+     * @return true if the stored roles changed
+     * @throws RepositoryException if repository exception occurred
+     */
+    public default boolean patchRoles(final Node node, final Map<String, Set<String>> add,
+            final Map<String, Set<String>> remove) throws RepositoryException {
+        final Map<String, Collection<String>> current = getRoles(node, false);
+        final Map<String, Set<String>> patched = new HashMap<>();
+        if (current != null) {
+            current.forEach((principalName, roles) -> patched.put(principalName, new HashSet<>(roles)));
+        }
+        add.forEach((principalName, roles) -> patched.computeIfAbsent(principalName, p -> new HashSet<>())
+                .addAll(roles));
+        remove.forEach((principalName, roles) -> {
+            final Set<String> kept = patched.get(principalName);
+            if (kept != null) {
+                kept.removeAll(roles);
+                if (kept.isEmpty()) {
+                    patched.remove(principalName);
+                }
+            }
+        });
+        if (patched.isEmpty()) {
+            if (current == null || current.isEmpty()) {
+                return false;
+            }
+            deleteRoles(node);
+            return true;
+        }
+        return postRolesIfChanged(node, patched);
+    }
+
+    /**
+     * Lists the roles assigned at a node and at each of its descendants that has roles assigned. The entries are read
+     * one at a time as the iterator advances. By default the subtree is walked depth first, reading the roles of each
+     * node with {@link #getRoles}.
+     *
+     * @param node the root of the subtree
+     * @return the path of each node with roles assigned and the roles assigned there
+     * @throws RepositoryException if the descendants could not be found
+     */
+    public default Iterator<AccessRolesEntry> exportRoles(final Node node) throws RepositoryException {
+        final Deque<NodeIterator> pending = new ArrayDeque<>();
+        return new AbstractIterator<AccessRolesEntry>() {
+
+            private Node next = node;
+
+            @Override
+            protected AccessRolesEntry computeNext() {
+                try {
+                    while (next != null || !pending.isEmpty()) {
+                        final Node current;
+                        if (next != null) {
+                            current = next;
+                            next = null;
+                        } else if (pending.peek().hasNext()) {
+                            current = pending.peek().nextNode();
+                        } else {
+                            pending.pop();
+                            continue;
+                        }
+                        pending.push(current.getNodes());
+                        final Map<String, Collection<String>> roles = getRoles(current, false);
+                        if (roles != null && !roles.isEmpty()) {
+                            return new AccessRolesEntry(current.getPath(), roles);
+                        }
+                    }
+                    return endOfData();
+                } catch (final RepositoryException e) {
+                    throw new RepositoryRuntimeException(e);
+                }
+            }
+        };
+    }
+
     /**
      * Deletes all roles assigned on this node and removes the mixin type.
      *
@@ -77,4 +223,14 @@ public interface AccessRolesProvider {
     public Map<String, Collection<String>> findRolesForPath(final Path absPath,
             final Session session) throws RepositoryException;
 
+    /**
+     * Decisions depending on the roles read from this provider are kept only while this number is unchanged.
+     *
+     * @return a number that changes whenever any assigned roles may have changed, or -1 if the provider does not
+     *         track changes, in which case no such decisions are kept
+     */
+    public default long getRolesGeneration() {
+        return -1;
+    }
+
 }
@@ -0,0 +1,252 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fcrepo.kernel.modeshape.FedoraSessionImpl.getJcrSession;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.metrics.RegistryService;
+import org.modeshape.jcr.value.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Reads access roles for permission checks through a small pool of long-lived internal sessions, instead of opening
+ * a new internal session for every check. Pooled sessions are only read from, and are refreshed before their next
+ * use once access roles have changed.
+ *
+ * @author agent
+ */
+@Component
+public class AccessRolesReader {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(AccessRolesReader.class);
+
+    private static final MetricRegistry metrics = RegistryService.getInstance().getMetrics();
+
+    private static final Counter createdSessions = metrics.counter(name(AccessRolesReader.class, "sessions",
+            "created"));
+
+    private static final Counter refreshedSessions = metrics.counter(name(AccessRolesReader.class, "sessions",
+            "refreshed"));
+
+    private static final Counter expiredSessions = metrics.counter(name(AccessRolesReader.class, "sessions",
+            "expired"));
+
+    private static final Counter activeSessions = metrics.counter(name(AccessRolesReader.class, "sessions",
+            "active"));
+
+    private static final Counter idleSessions = metrics.counter(name(AccessRolesReader.class, "sessions", "idle"));
+
+    private static final Counter reads = metrics.counter(name(AccessRolesReader.class, "reads"));
+
+    /**
+     * A unit of work run against a pooled session.
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    public interface SessionCallback<T> {
+
+        /**
+         * @param session a live internal session, which must only be read from
+         * @return the result of the work
+         * @throws RepositoryException if the repository could not be read
+         */
+        T doInSession(final Session session) throws RepositoryException;
+    }
+
+    private static final class PooledSession {
+
+        private final FedoraSession session;
+
+        private long generation;
+
+        private PooledSession(final FedoraSession session, final long generation) {
+            this.session = session;
+            this.generation = generation;
+        }
+    }
+
+    @Inject
+    private SessionFactory sessionFactory = null;
+
+    @Inject
+    private AccessRolesProvider accessRolesProvider = null;
+
+    private int maxIdle = 8;
+
+    private final BlockingQueue<PooledSession> idle = new LinkedBlockingQueue<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Default constructor
+     */
+    public AccessRolesReader() {
+    }
+
+    /**
+     * @param sessionFactory the source of internal sessions
+     * @param accessRolesProvider the provider the roles are read with
+     */
+    AccessRolesReader(final SessionFactory sessionFactory, final AccessRolesProvider accessRolesProvider) {
+        this.sessionFactory = sessionFactory;
+        this.accessRolesProvider = accessRolesProvider;
+    }
+
+    /**
+     * @param maxIdle the maximum number of sessions kept open between reads
+     */
+    @Value("${fcrepo.auth.rbacl.reader.sessions:8}")
+    public void setMaxIdle(final int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Finds effective roles assigned to a path.
+     *
+     * @param absPath the real or potential node path
+     * @return the roles assigned to each principal
+     * @throws RepositoryException if the roles could not be read
+     */
+    public Map<String, Collection<String>> findRolesForPath(final Path absPath) throws RepositoryException {
+        return read(session -> accessRolesProvider.findRolesForPath(absPath, session));
+    }
+
+    /**
+     * Finds effective roles assigned to a path for a user session. The provider may reuse what it learned on
+     * earlier lookups for the same user session, but never what it learned for other users.
+     *
+     * @param absPath the real or potential node path
+     * @param userSession the user session the roles are looked up for
+     * @return the roles assigned to each principal
+     * @throws RepositoryException if the roles could not be read
+     */
+    public Map<String, Collection<String>> findRolesForPath(final Path absPath, final Session userSession)
+            throws RepositoryException {
+        if (accessRolesProvider instanceof RbAclAccessRolesProvider) {
+            final RbAclAccessRolesProvider provider = (RbAclAccessRolesProvider) accessRolesProvider;
+            return read(session -> provider.findRolesForPath(absPath, session, userSession));
+        }
+        return findRolesForPath(absPath);
+    }
+
+    /**
+     * Run a unit of work against a pooled session.
+     *
+     * @param callback the work to run
+     * @param <T> the type of the result
+     * @return the result of the work
+     * @throws RepositoryException if the repository could not be read
+     */
+    public <T> T read(final SessionCallback<T> callback) throws RepositoryException {
+        final PooledSession pooled = borrow();
+        boolean completed = false;
+        try {
+            final T result = callback.doInSession(getJcrSession(pooled.session));
+            completed = true;
+            return result;
+        } finally {
+            release(pooled, completed);
+        }
+    }
+
+    /**
+     * Mark all pooled sessions stale, so that each is refreshed before it is next used. Called when access roles
+     * change.
+     */
+    public void refresh() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Expire all idle sessions.
+     */
+    @PreDestroy
+    public void close() {
+        for (PooledSession pooled = idle.poll(); pooled != null; pooled = idle.poll()) {
+            idleSessions.dec();
+            expire(pooled);
+        }
+    }
+
+    private PooledSession borrow() {
+        reads.inc();
+        for (PooledSession pooled = idle.poll(); pooled != null; pooled = idle.poll()) {
+            idleSessions.dec();
+            final Session session = getJcrSession(pooled.session);
+            if (!session.isLive()) {
+                expire(pooled);
+                continue;
+            }
+            final long current = generation.get();
+            if (pooled.generation != current) {
+                try {
+                    session.refresh(false);
+                } catch (final RepositoryException e) {
+                    LOGGER.debug("Unable to refresh pooled session: {}", e.getMessage());
+                    expire(pooled);
+                    continue;
+                }
+                pooled.generation = current;
+                refreshedSessions.inc();
+            }
+            activeSessions.inc();
+            return pooled;
+        }
+        LOGGER.debug("Opening a pooled internal session for access roles");
+        final PooledSession pooled = new PooledSession(sessionFactory.getInternalSession(), generation.get());
+        createdSessions.inc();
+        activeSessions.inc();
+        return pooled;
+    }
+
+    private void release(final PooledSession pooled, final boolean completed) {
+        activeSessions.dec();
+        if (completed && idle.size() < maxIdle && getJcrSession(pooled.session).isLive() && idle.offer(pooled)) {
+            idleSessions.inc();
+        } else {
+            expire(pooled);
+        }
+    }
+
+    private static void expire(final PooledSession pooled) {
+        expiredSessions.inc();
+        pooled.session.expire();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static javax.jcr.observation.Event.NODE_MOVED;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static javax.jcr.observation.Event.PROPERTY_ADDED;
+import static javax.jcr.observation.Event.PROPERTY_CHANGED;
+import static javax.jcr.observation.Event.PROPERTY_REMOVED;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+
+/**
+ * The parts of the tree whose access roles a series of workspace events may have changed: ACLs that changed,
+ * subtrees that were removed, subtrees that were moved into place and nodes whose mixin types changed, which only
+ * matter if the node is or was rbaclAssignable. Added nodes are collected too, as paths once found missing may now
+ * exist. Events may be collected and drained concurrently.
+ *
+ * @author agent
+ */
+final class AclChanges {
+
+    /**
+     * The event types that may change access roles.
+     */
+    static final int EVENT_TYPES = NODE_ADDED | NODE_REMOVED | NODE_MOVED | PROPERTY_ADDED |
+            PROPERTY_CHANGED | PROPERTY_REMOVED;
+
+    private static final String MIXIN_TYPES = "/jcr:mixinTypes";
+
+    private static final String[] ACL_SEGMENTS = {"/" + rbacl.getQualified(), "/" + rbacl.getExpanded()};
+
+    private final Set<String> changedAcls = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> removedSubtrees = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> movedSubtrees = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> changedMixins = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> addedNodes = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong latestEventDate = new AtomicLong();
+
+    /**
+     * Record the part of the tree whose access roles an event may have changed.
+     *
+     * @param event a workspace event
+     * @return true if the event may have changed access roles
+     * @throws RepositoryException if the event cannot be read
+     */
+    boolean collect(final Event event) throws RepositoryException {
+        latestEventDate.accumulateAndGet(event.getDate(), Math::max);
+        final String path = event.getPath();
+        final String owner = aclOwner(path);
+        if (owner != null) {
+            changedAcls.add(owner);
+            return true;
+        }
+        switch (event.getType()) {
+            case NODE_ADDED:
+                addedNodes.add(path);
+                return true;
+            case NODE_REMOVED:
+                removedSubtrees.add(path);
+                return true;
+            case NODE_MOVED:
+                final Object source = event.getInfo().get("srcAbsPath");
+                if (source != null) {
+                    removedSubtrees.add(source.toString());
+                }
+                movedSubtrees.add(path);
+                return true;
+            case PROPERTY_ADDED:
+            case PROPERTY_CHANGED:
+            case PROPERTY_REMOVED:
+                if (!path.endsWith(MIXIN_TYPES)) {
+                    return false;
+                }
+                final String node = path.substring(0, path.length() - MIXIN_TYPES.length());
+                changedMixins.add(node.isEmpty() ? "/" : node);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Record that access roles anywhere may have changed.
+     */
+    void collectAll() {
+        changedAcls.add("/");
+        removedSubtrees.add("/");
+    }
+
+    /**
+     * @return the date of the latest event collected, in milliseconds, or 0 if none was
+     */
+    long getLatestEventDate() {
+        return latestEventDate.get();
+    }
+
+    /**
+     * @return paths of the removed subtrees collected since the last call
+     */
+    List<String> drainRemoved() {
+        return drain(removedSubtrees);
+    }
+
+    /**
+     * @return paths of the moved subtrees collected since the last call
+     */
+    List<String> drainMoved() {
+        return drain(movedSubtrees);
+    }
+
+    /**
+     * @return paths of the nodes with changed ACLs collected since the last call
+     */
+    List<String> drainChanged() {
+        return drain(changedAcls);
+    }
+
+    /**
+     * @return paths of the nodes added since the last call
+     */
+    List<String> drainAdded() {
+        return drain(addedNodes);
+    }
+
+    /**
+     * @return paths of the nodes with changed mixin types collected since the last call, which may or may not be
+     *         rbaclAssignable
+     */
+    List<String> drainMixins() {
+        return drain(changedMixins);
+    }
+
+    /**
+     * @param path path of an event
+     * @return path of the rbaclAssignable node owning the ACL node at the path, or null if the path is not in an
+     *         ACL
+     */
+    private static String aclOwner(final String path) {
+        for (final String segment : ACL_SEGMENTS) {
+            final int i = path.indexOf(segment);
+            if (i >= 0) {
+                final int end = i + segment.length();
+                if (end == path.length() || path.charAt(end) == '/' || path.charAt(end) == '[') {
+                    return i == 0 ? "/" : path.substring(0, i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<String> drain(final Collection<String> paths) {
+        final List<String> drained = new ArrayList<>(paths.size());
+        for (final String path : paths) {
+            if (paths.remove(path)) {
+                drained.add(path);
+            }
+        }
+        return drained;
+    }
+}
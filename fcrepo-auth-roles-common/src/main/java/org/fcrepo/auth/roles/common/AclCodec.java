@@ -0,0 +1,130 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Encodes the roles assigned at an rbaclAssignable node as the single string stored in the authz:rbaclData property
+ * of its ACL node. The first line holds the format version; each further line holds a principal followed by its
+ * roles, separated by tabs. Principals and roles are sorted, so equal ACLs always encode to the same string.
+ *
+ * @author agent
+ */
+public final class AclCodec {
+
+    private static final String VERSION = "1";
+
+    private static final char LINE = '\n';
+
+    private static final char FIELD = '\t';
+
+    /**
+     * No public constructor for utility class
+     */
+    private AclCodec() {
+    }
+
+    /**
+     * @param acl the roles assigned to each principal
+     * @return the encoded form of the roles
+     */
+    public static String encode(final Map<String, ? extends Collection<String>> acl) {
+        final StringBuilder encoded = new StringBuilder(VERSION);
+        for (final Map.Entry<String, ? extends Collection<String>> entry : new TreeMap<>(acl).entrySet()) {
+            encoded.append(LINE);
+            escape(entry.getKey(), encoded);
+            for (final String role : new TreeSet<>(entry.getValue())) {
+                encoded.append(FIELD);
+                escape(role, encoded);
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * @param encoded the encoded form of the roles
+     * @return the roles assigned to each principal, without empty principal or role names
+     * @throws IllegalArgumentException if the encoded form has an unknown version
+     */
+    public static Map<String, Collection<String>> decode(final String encoded) {
+        final String[] lines = encoded.split(String.valueOf(LINE), -1);
+        if (!VERSION.equals(lines[0])) {
+            throw new IllegalArgumentException("Unknown access control list format: " + lines[0]);
+        }
+        final Map<String, Collection<String>> acl = new HashMap<>(lines.length * 2);
+        for (int i = 1; i < lines.length; i++) {
+            final String[] fields = lines[i].split(String.valueOf(FIELD), -1);
+            final String principal = unescape(fields[0]);
+            if (principal.trim().isEmpty()) {
+                continue;
+            }
+            final Collection<String> roles = acl.computeIfAbsent(principal, p -> new ArrayList<>(fields.length - 1));
+            for (int j = 1; j < fields.length; j++) {
+                final String role = unescape(fields[j]);
+                if (!role.trim().isEmpty()) {
+                    roles.add(role);
+                }
+            }
+        }
+        return acl;
+    }
+
+    private static void escape(final String value, final StringBuilder encoded) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '%':
+                    encoded.append("%25");
+                    break;
+                case FIELD:
+                    encoded.append("%09");
+                    break;
+                case LINE:
+                    encoded.append("%0A");
+                    break;
+                default:
+                    encoded.append(c);
+            }
+        }
+    }
+
+    private static String unescape(final String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        final StringBuilder unescaped = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            final char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 3;
+            } else {
+                unescaped.append(c);
+                i++;
+            }
+        }
+        return unescaped.toString();
+    }
+}
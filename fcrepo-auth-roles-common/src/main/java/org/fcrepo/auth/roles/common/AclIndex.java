@@ -0,0 +1,125 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Index of the access roles assigned at every rbaclAssignable node, keyed by the segment keys of
+ * {@link AclPathKeys}. Updates synchronize on the index, so a caller holding its monitor sees no updates across
+ * several calls.
+ *
+ * @author agent
+ */
+public interface AclIndex {
+
+    /**
+     * The roles assigned at an rbaclAssignable node.
+     */
+    final class Entry {
+
+        private final String path;
+
+        private final Map<String, Collection<String>> acl;
+
+        /**
+         * @param path JCR path of the rbaclAssignable node
+         * @param acl the roles assigned to each principal
+         */
+        public Entry(final String path, final Map<String, Collection<String>> acl) {
+            this.path = path;
+            this.acl = acl;
+        }
+
+        /**
+         * @return JCR path of the rbaclAssignable node
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the roles assigned to each principal
+         */
+        public Map<String, Collection<String>> getAcl() {
+            return acl;
+        }
+    }
+
+    /**
+     * @param keys segment keys of a path
+     * @return the entry of the path or of its nearest ancestor holding one, or null if there is none
+     */
+    Entry findNearest(String[] keys);
+
+    /**
+     * @param keys segment keys of a path
+     * @return the entry held at exactly this path, or null
+     */
+    Entry get(String[] keys);
+
+    /**
+     * @param keys segment keys of a path
+     * @return true if the path or any of its descendants holds an entry
+     */
+    boolean containsSubtree(String[] keys);
+
+    /**
+     * @param keys segment keys of an rbaclAssignable node
+     * @param entry the roles assigned at the node
+     */
+    void put(String[] keys, Entry entry);
+
+    /**
+     * Remove the entry held at a path, leaving entries of its descendants in place.
+     *
+     * @param keys segment keys of the path
+     */
+    void remove(String[] keys);
+
+    /**
+     * Remove the entries held at a path and all of its descendants.
+     *
+     * @param keys segment keys of the path
+     */
+    void removeSubtree(String[] keys);
+
+    /**
+     * Remove all entries.
+     */
+    void clear();
+
+    /**
+     * @return the number of entries held
+     */
+    int size();
+
+    /**
+     * Visit every entry. Updates wait until the visit is complete, so the entries visited are a consistent view.
+     *
+     * @param action called with the segment keys of each path holding an entry, and the entry
+     */
+    void forEach(BiConsumer<String[], Entry> action);
+
+    /**
+     * @return the number of bytes the index holds outside of the Java heap
+     */
+    long offHeapBytes();
+}
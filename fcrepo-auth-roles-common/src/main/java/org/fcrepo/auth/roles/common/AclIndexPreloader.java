@@ -0,0 +1,272 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.fcrepo.auth.roles.common.Constants.registerPrefixes;
+import static org.fcrepo.kernel.modeshape.FedoraSessionImpl.getJcrSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads every access control list into the ACL index of {@link RbAclAccessRolesProvider} at startup, so that the
+ * first requests after a restart do not each wait on, or compete to build, the index. The index is read from its
+ * checkpoint if there is a usable one; otherwise the rbaclAssignable nodes are found with one query and read by
+ * several worker threads, each with its own session. Whatever the mode, the index is only ever loaded by this
+ * class, never on a request thread.
+ *
+ * @author agent
+ */
+@Component
+@DependsOn("accessRolesTypes")
+public class AclIndexPreloader {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(AclIndexPreloader.class);
+
+    /**
+     * When the ACL index is loaded.
+     */
+    public enum PreloadMode {
+        /**
+         * On first use, in the background; requests are served without the index until it is loaded.
+         */
+        NONE,
+        /**
+         * At startup, before startup completes.
+         */
+        SYNC,
+        /**
+         * At startup, in the background; requests are served without the index until it is loaded.
+         */
+        ASYNC
+    }
+
+    @Inject
+    private SessionFactory sessionFactory = null;
+
+    @Inject
+    private RbAclAccessRolesProvider accessRolesProvider = null;
+
+    private PreloadMode mode = PreloadMode.NONE;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private ExecutorService background;
+
+    /**
+     * @param mode when the ACL index is loaded; only used if the index is enabled
+     */
+    @Value("${fcrepo.auth.rbacl.index.preload:NONE}")
+    public void setMode(final PreloadMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param threads the number of worker threads reading access control lists, or 0 for the number of available
+     *        processors
+     */
+    @Value("${fcrepo.auth.rbacl.index.preload.threads:0}")
+    public void setThreads(final int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Preload the index as configured.
+     */
+    @PostConstruct
+    public void start() {
+        if (!accessRolesProvider.isAclIndexEnabled()) {
+            if (mode != PreloadMode.NONE) {
+                LOGGER.warn("Not preloading the ACL index, as it is not enabled");
+            }
+            return;
+        }
+        accessRolesProvider.setIndexLoader(this::loadInBackground);
+        if (mode == PreloadMode.SYNC) {
+            accessRolesProvider.beginIndexPreload();
+            preload();
+        } else if (mode == PreloadMode.ASYNC) {
+            loadInBackground();
+        }
+    }
+
+    /**
+     * Start loading the index in the background. Lookups are served without the index until it is installed.
+     */
+    synchronized void loadInBackground() {
+        if (background == null) {
+            background = Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, "rbacl-preload");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        accessRolesProvider.beginIndexPreload();
+        background.submit(this::preload);
+    }
+
+    /**
+     * Stop a running preload.
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (background != null) {
+            background.shutdownNow();
+        }
+    }
+
+    /**
+     * Load every access control list into a new index and install it. A preload that fails leaves the index to be
+     * loaded again when next used.
+     *
+     * @return the number of access control lists loaded, or -1 if the preload failed
+     */
+    int preload() {
+        final long start = System.currentTimeMillis();
+        final FedoraSession session = sessionFactory.getInternalSession();
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, new WorkerFactory());
+        try {
+            final Session jcrSession = getJcrSession(session);
+            registerPrefixes(jcrSession);
+            final AclIndex restored = accessRolesProvider.restoreIndex(jcrSession);
+            if (restored != null) {
+                accessRolesProvider.completeIndexPreload(restored, jcrSession);
+                return restored.size();
+            }
+            final List<String> paths = new ArrayList<>();
+            for (final NodeIterator ni = RbAclAccessRolesProvider.queryAssignable(jcrSession, null); ni.hasNext();) {
+                paths.add(ni.nextNode().getPath());
+            }
+            LOGGER.info("Preloading {} access control lists into the ACL index with {} threads, found in {} ms",
+                    paths.size(), threads, System.currentTimeMillis() - start);
+
+            final AclIndex index = accessRolesProvider.newIndex();
+            final AtomicInteger loaded = new AtomicInteger();
+            final int step = Math.max(paths.size() / 10, 1);
+            final int chunk = (paths.size() + threads - 1) / threads;
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int from = 0; from < paths.size(); from += chunk) {
+                final List<String> part = paths.subList(from, Math.min(from + chunk, paths.size()));
+                results.add(workers.submit(new PreloadTask(index, part, loaded, step, paths.size())));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+
+            accessRolesProvider.completeIndexPreload(index, jcrSession);
+            LOGGER.info("Preloaded {} access control lists into the ACL index in {} ms", index.size(),
+                    System.currentTimeMillis() - start);
+            return index.size();
+        } catch (final RepositoryException | RepositoryRuntimeException | ExecutionException e) {
+            accessRolesProvider.abortIndexPreload();
+            LOGGER.error("Unable to preload the ACL index, it will be loaded again when next used", e);
+        } catch (final InterruptedException e) {
+            accessRolesProvider.abortIndexPreload();
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdownNow();
+            session.expire();
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a share of the access control lists through a session of its own.
+     */
+    private final class PreloadTask implements Callable<Void> {
+
+        private final AclIndex index;
+
+        private final List<String> paths;
+
+        private final AtomicInteger loaded;
+
+        private final int step;
+
+        private final int total;
+
+        private PreloadTask(final AclIndex index, final List<String> paths, final AtomicInteger loaded,
+                final int step, final int total) {
+            this.index = index;
+            this.paths = paths;
+            this.loaded = loaded;
+            this.step = step;
+            this.total = total;
+        }
+
+        @Override
+        public Void call() throws RepositoryException {
+            final FedoraSession session = sessionFactory.getInternalSession();
+            try {
+                final Session jcrSession = getJcrSession(session);
+                registerPrefixes(jcrSession);
+                for (final String path : paths) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new RepositoryRuntimeException("ACL index preload interrupted");
+                    }
+                    accessRolesProvider.preloadIndexEntry(index, path, jcrSession);
+                    final int count = loaded.incrementAndGet();
+                    if (count % step == 0) {
+                        LOGGER.info("Preloaded {} of {} access control lists", count, total);
+                    }
+                }
+                return null;
+            } finally {
+                session.expire();
+            }
+        }
+    }
+
+    /**
+     * Names the worker threads.
+     */
+    private static final class WorkerFactory implements java.util.concurrent.ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "rbacl-preload-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * A checkpoint of the ACL index in a local file, so that a restart can load the index from the file and catch up on
+ * later changes instead of reading every rbaclAssignable node. The file is only a checkpoint: lookups are always
+ * served by the index it is loaded into. It holds a header of a magic number, the format version, the date of the
+ * latest event applied to the index and the number of entries; then for each entry its segment keys, from which
+ * its path is rebuilt, and its roles encoded by {@link AclCodec}; then a CRC-32 of everything before it. Strings
+ * are stored as their length followed by their UTF-8 bytes.
+ * <p>
+ * Checkpoints are read as a stream, whatever their size, and written to a temporary file that then replaces the
+ * previous checkpoint, so a crash while writing leaves the previous checkpoint in place.
+ *
+ * @author agent
+ */
+final class AclIndexSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(AclIndexSnapshot.class);
+
+    private static final int MAGIC = 0x5242414c;
+
+    /**
+     * Version of the file format, and of the segment keys of {@link AclPathKeys}; a checkpoint of any other version
+     * is ignored.
+     */
+    static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    private static final int CRC_SIZE = 8;
+
+    private final AclIndex index;
+
+    private final long position;
+
+    private AclIndexSnapshot(final AclIndex index, final long position) {
+        this.index = index;
+        this.position = position;
+    }
+
+    /**
+     * @return the index read from the checkpoint
+     */
+    AclIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the date of the latest event applied to the index, in milliseconds
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @param index the index to checkpoint
+     * @param position the date of the latest event applied to the index, in milliseconds
+     * @param file the checkpoint file
+     * @return the number of entries written
+     * @throws IOException if the checkpoint cannot be written
+     */
+    static int write(final AclIndex index, final long position, final File file) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        final CRC32 crc = new CRC32();
+        final int count;
+        try (final FileOutputStream fileOut = new FileOutputStream(temp);
+                final DataOutputStream out = new DataOutputStream(
+                        new CheckedOutputStream(new BufferedOutputStream(fileOut), crc))) {
+            // hold the index still, so that the count matches the entries visited
+            synchronized (index) {
+                count = index.size();
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(position);
+                out.writeInt(count);
+                try {
+                    index.forEach((keys, entry) -> {
+                        try {
+                            out.writeInt(keys.length);
+                            for (final String key : keys) {
+                                writeString(out, key);
+                            }
+                            writeString(out, AclCodec.encode(entry.getAcl()));
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (final UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * @param file the checkpoint file
+     * @param index an empty index to fill from the checkpoint; it is cleared again if the checkpoint is unusable
+     * @return the checkpoint, or null if there is none or it is corrupt or of another version
+     */
+    static AclIndexSnapshot read(final File file, final AclIndex index) {
+        if (!file.isFile()) {
+            LOGGER.info("No ACL index checkpoint at {}", file);
+            return null;
+        }
+        final long size = file.length();
+        if (size < HEADER_SIZE + CRC_SIZE) {
+            LOGGER.warn("ACL index checkpoint {} has an invalid size of {} bytes", file, size);
+            return null;
+        }
+        final CRC32 crc = new CRC32();
+        try (final CountingInputStream counted = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+                final DataInputStream in = new DataInputStream(new CheckedInputStream(counted, crc))) {
+            if (in.readInt() != MAGIC) {
+                LOGGER.warn("{} is not an ACL index checkpoint", file);
+                return null;
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                LOGGER.warn("ACL index checkpoint {} has version {}, expected {}", file, version, VERSION);
+                return null;
+            }
+            final long end = size - CRC_SIZE;
+            final long position = in.readLong();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String[] keys = new String[checkLength(in.readInt(), counted, end)];
+                for (int j = 0; j < keys.length; j++) {
+                    keys[j] = readString(in, counted, end);
+                }
+                index.put(keys, new AclIndex.Entry(AclPathKeys.toPath(keys),
+                        EffectiveAclCache.immutableCopy(AclCodec.decode(readString(in, counted, end)))));
+            }
+            if (counted.getCount() != end) {
+                LOGGER.warn("ACL index checkpoint {} has trailing data", file);
+                index.clear();
+                return null;
+            }
+            final long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                LOGGER.warn("ACL index checkpoint {} is corrupt", file);
+                index.clear();
+                return null;
+            }
+            return new AclIndexSnapshot(index, position);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn("Unable to read ACL index checkpoint {}: {}", file, e.getMessage());
+            index.clear();
+            return null;
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in, final CountingInputStream counted, final long end)
+            throws IOException {
+        final byte[] bytes = new byte[checkLength(in.readInt(), counted, end)];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static int checkLength(final int length, final CountingInputStream counted, final long end) {
+        if (length < 0 || length > end - counted.getCount()) {
+            throw new IllegalArgumentException("Invalid length " + length + " at offset " + counted.getCount());
+        }
+        return length;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.NameFactory;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+import org.modeshape.jcr.value.ValueFactories;
+
+/**
+ * Converts repository paths to arrays of segment keys, so that ModeShape paths and JCR path strings with
+ * session-specific prefixes address the same entries of the ACL index. A key is the expanded name of a segment,
+ * followed by its same-name-sibling index when that is greater than one.
+ *
+ * @author agent
+ */
+public final class AclPathKeys {
+
+    private static final String[] ROOT = new String[0];
+
+    private static final ValueFactories FACTORIES = new ExecutionContext().getValueFactories();
+
+    private static final PathFactory PATHS = FACTORIES.getPathFactory();
+
+    private static final NameFactory NAMES = FACTORIES.getNameFactory();
+
+    /**
+     * A segment of a JCR path, with its prefix resolved.
+     */
+    private static final class Segment {
+
+        private final String namespaceUri;
+
+        private final String localName;
+
+        private final int index;
+
+        private Segment(final String segment, final Session session) throws RepositoryException {
+            String name = segment;
+            int i = 1;
+            if (name.endsWith("]")) {
+                final int open = name.lastIndexOf('[');
+                i = Integer.parseInt(name.substring(open + 1, name.length() - 1));
+                name = name.substring(0, open);
+            }
+            this.index = i;
+            if (name.startsWith("{")) {
+                final int close = name.indexOf('}');
+                this.namespaceUri = name.substring(1, close);
+                this.localName = name.substring(close + 1);
+            } else {
+                final int colon = name.indexOf(':');
+                this.namespaceUri = colon < 0 ? "" : session.getNamespaceURI(name.substring(0, colon));
+                this.localName = colon < 0 ? name : name.substring(colon + 1);
+            }
+        }
+    }
+
+    /**
+     * No public constructor for utility class
+     */
+    private AclPathKeys() {
+    }
+
+    /**
+     * @param path an absolute ModeShape path
+     * @return the segment keys of the path
+     */
+    public static String[] keys(final Path path) {
+        if (path.isRoot()) {
+            return ROOT;
+        }
+        final String[] keys = new String[path.size()];
+        int i = 0;
+        for (final Path.Segment segment : path) {
+            final Name name = segment.getName();
+            keys[i++] = key(name.getNamespaceUri(), name.getLocalName(), segment.getIndex());
+        }
+        return keys;
+    }
+
+    /**
+     * @param path an absolute JCR path, using prefixes registered in the session or expanded names
+     * @param session session used to resolve namespace prefixes
+     * @return the segment keys of the path
+     * @throws RepositoryException if a prefix cannot be resolved
+     */
+    public static String[] keys(final String path, final Session session) throws RepositoryException {
+        if (path.equals("/")) {
+            return ROOT;
+        }
+        final List<String> segments = split(path);
+        final String[] keys = new String[segments.size()];
+        for (int i = 0; i < keys.length; i++) {
+            final Segment segment = new Segment(segments.get(i), session);
+            keys[i] = key(segment.namespaceUri, segment.localName, segment.index);
+        }
+        return keys;
+    }
+
+    /**
+     * @param path an absolute JCR path, using prefixes registered in the session or expanded names
+     * @param session session used to resolve namespace prefixes
+     * @return the ModeShape path, as permission checks are handed it
+     * @throws RepositoryException if a prefix cannot be resolved
+     */
+    public static Path path(final String path, final Session session) throws RepositoryException {
+        Path result = PATHS.createRootPath();
+        if (path.equals("/")) {
+            return result;
+        }
+        for (final String name : split(path)) {
+            final Segment segment = new Segment(name, session);
+            result = PATHS.create(result, NAMES.create(segment.namespaceUri, segment.localName), segment.index);
+        }
+        return result;
+    }
+
+    /**
+     * @param keys segment keys of a path
+     * @return the path, in expanded names
+     */
+    public static String toPath(final String[] keys) {
+        return keys.length == 0 ? "/" : "/" + String.join("/", keys);
+    }
+
+    /**
+     * @param prefix segment keys of a candidate ancestor
+     * @param keys segment keys of a path
+     * @return true if the first path is the same as or an ancestor of the second
+     */
+    public static boolean isAncestorOrSelf(final String[] prefix, final String[] keys) {
+        if (prefix.length > keys.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (!prefix[i].equals(keys[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split an absolute path into its segments, leaving the slashes of expanded-name namespace URIs in place.
+     */
+    private static List<String> split(final String path) {
+        final List<String> segments = new ArrayList<>();
+        int start = 1;
+        boolean inUri = false;
+        for (int i = 1; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '{') {
+                inUri = true;
+            } else if (c == '}') {
+                inUri = false;
+            } else if (c == '/' && !inUri) {
+                segments.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        segments.add(path.substring(start));
+        return segments;
+    }
+
+    private static String key(final String namespaceUri, final String localName, final int index) {
+        final StringBuilder key = new StringBuilder(namespaceUri.length() + localName.length() + 6);
+        if (!namespaceUri.isEmpty()) {
+            key.append('{').append(namespaceUri).append('}');
+        }
+        key.append(localName);
+        if (index > 1) {
+            key.append('[').append(index).append(']');
+        }
+        return key.toString();
+    }
+}
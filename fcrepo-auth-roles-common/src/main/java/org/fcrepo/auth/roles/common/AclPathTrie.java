@@ -0,0 +1,231 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Path trie holding the access roles assigned at every rbaclAssignable node, keyed by the segment keys of
+ * {@link AclPathKeys}. The effective roles of any path are found by a longest-prefix match in O(depth). Lookups
+ * take no locks; updates are serialized.
+ *
+ * @author agent
+ */
+public class AclPathTrie implements AclIndex {
+
+    private static final class TrieNode {
+
+        private final ConcurrentMap<String, TrieNode> children = new ConcurrentHashMap<>(4);
+
+        private volatile Entry entry;
+    }
+
+    private volatile TrieNode root = new TrieNode();
+
+    private int size = 0;
+
+    /**
+     * @param keys segment keys of a path
+     * @return the entry of the path or of its nearest ancestor holding one, or null if there is none
+     */
+    @Override
+    public Entry findNearest(final String[] keys) {
+        TrieNode node = root;
+        Entry nearest = node.entry;
+        for (final String key : keys) {
+            node = node.children.get(key);
+            if (node == null) {
+                break;
+            }
+            final Entry entry = node.entry;
+            if (entry != null) {
+                nearest = entry;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * @param keys segment keys of a path
+     * @return the entry held at exactly this path, or null
+     */
+    @Override
+    public Entry get(final String[] keys) {
+        TrieNode node = root;
+        for (final String key : keys) {
+            node = node.children.get(key);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.entry;
+    }
+
+    /**
+     * @param keys segment keys of a path
+     * @return true if the path or any of its descendants holds an entry
+     */
+    @Override
+    public boolean containsSubtree(final String[] keys) {
+        TrieNode node = root;
+        for (final String key : keys) {
+            node = node.children.get(key);
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.entry != null || !node.children.isEmpty();
+    }
+
+    /**
+     * @param keys segment keys of an rbaclAssignable node
+     * @param entry the roles assigned at the node
+     */
+    @Override
+    public synchronized void put(final String[] keys, final Entry entry) {
+        TrieNode node = root;
+        for (final String key : keys) {
+            TrieNode child = node.children.get(key);
+            if (child == null) {
+                child = new TrieNode();
+                node.children.put(key, child);
+            }
+            node = child;
+        }
+        if (node.entry == null) {
+            size++;
+        }
+        node.entry = entry;
+    }
+
+    /**
+     * Remove the entry held at a path, leaving entries of its descendants in place.
+     *
+     * @param keys segment keys of the path
+     */
+    @Override
+    public synchronized void remove(final String[] keys) {
+        final Deque<TrieNode> ancestors = new ArrayDeque<>(keys.length + 1);
+        TrieNode node = root;
+        for (final String key : keys) {
+            ancestors.push(node);
+            node = node.children.get(key);
+            if (node == null) {
+                return;
+            }
+        }
+        if (node.entry == null) {
+            return;
+        }
+        node.entry = null;
+        size--;
+        // prune branches left without entries
+        for (int i = keys.length - 1; i >= 0 && node.entry == null && node.children.isEmpty(); i--) {
+            final TrieNode parent = ancestors.pop();
+            parent.children.remove(keys[i], node);
+            node = parent;
+        }
+    }
+
+    /**
+     * Remove the entries held at a path and all of its descendants.
+     *
+     * @param keys segment keys of the path
+     */
+    @Override
+    public synchronized void removeSubtree(final String[] keys) {
+        if (keys.length == 0) {
+            clear();
+            return;
+        }
+        TrieNode parent = root;
+        for (int i = 0; i < keys.length - 1; i++) {
+            parent = parent.children.get(keys[i]);
+            if (parent == null) {
+                return;
+            }
+        }
+        final TrieNode removed = parent.children.remove(keys[keys.length - 1]);
+        if (removed != null) {
+            size -= count(removed);
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    @Override
+    public synchronized void clear() {
+        root = new TrieNode();
+        size = 0;
+    }
+
+    /**
+     * @return the number of entries held
+     */
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Visit every entry. Updates wait until the visit is complete, so the entries visited are a consistent view.
+     *
+     * @param action called with the segment keys of each path holding an entry, and the entry
+     */
+    @Override
+    public synchronized void forEach(final BiConsumer<String[], Entry> action) {
+        forEach(root, new ArrayList<>(), action);
+    }
+
+    /**
+     * The trie is held on the heap.
+     */
+    @Override
+    public long offHeapBytes() {
+        return 0;
+    }
+
+    private static void forEach(final TrieNode node, final List<String> keys,
+            final BiConsumer<String[], Entry> action) {
+        final Entry entry = node.entry;
+        if (entry != null) {
+            action.accept(keys.toArray(new String[keys.size()]), entry);
+        }
+        for (final Map.Entry<String, TrieNode> child : node.children.entrySet()) {
+            keys.add(child.getKey());
+            forEach(child.getValue(), keys, action);
+            keys.remove(keys.size() - 1);
+        }
+    }
+
+    private static int count(final TrieNode node) {
+        int count = node.entry == null ? 0 : 1;
+        for (final TrieNode child : node.children.values()) {
+            count += count(child);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.fcrepo.auth.roles.common.Constants.registerPrefixes;
+import static org.fcrepo.kernel.modeshape.FedoraSessionImpl.getJcrSession;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider.StorageFormat;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rewrites access control lists stored in the legacy layout into the compact one, in the background and in batched
+ * commits, while the repository stays in use. Runs at startup when roles are written in the compact layout; an
+ * interrupted migration resumes at the next start.
+ *
+ * @author agent
+ */
+@Component
+@DependsOn("accessRolesTypes")
+public class AclStorageMigrator {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(AclStorageMigrator.class);
+
+    @Inject
+    private SessionFactory sessionFactory = null;
+
+    @Inject
+    private RbAclAccessRolesProvider accessRolesProvider = null;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private int batchSize = 500;
+
+    private ExecutorService executor;
+
+    /**
+     * @param batchSize the number of access control lists rewritten per commit
+     */
+    @Value("${fcrepo.auth.rbacl.migration.batchSize:500}")
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Start migrating in the background if roles are written in the compact layout.
+     */
+    @PostConstruct
+    public void start() {
+        if (accessRolesProvider.getStorageFormat() != StorageFormat.COMPACT) {
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "rbacl-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.submit(this::migrate);
+    }
+
+    /**
+     * Stop a running migration.
+     */
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Rewrite every access control list still stored in the legacy layout. Before each commit the roles of every
+     * rewritten node are read again in a second session; if a user changed one of them since the rewrite read it,
+     * the batch is discarded and rewritten from the current data, up to {@value #MAX_ATTEMPTS} times, after which
+     * it is left for the next run. A change committed between that check and the save is not detected.
+     *
+     * @return the number of access control lists rewritten
+     */
+    public int migrate() {
+        final FedoraSession session = sessionFactory.getInternalSession();
+        final FedoraSession checkSession = sessionFactory.getInternalSession();
+        int migrated = 0;
+        // roles each rewritten node of the current batch held when it was rewritten
+        final Map<String, Map<String, Set<String>>> batch = new LinkedHashMap<>();
+        try {
+            final Session jcrSession = getJcrSession(session);
+            registerPrefixes(jcrSession);
+            registerPrefixes(getJcrSession(checkSession));
+            final NodeIterator ni = RbAclAccessRolesProvider.queryAssignable(jcrSession, null);
+            while (ni.hasNext() && !Thread.currentThread().isInterrupted()) {
+                final Node node = ni.nextNode();
+                final Map<String, Set<String>> roles = readRoles(node);
+                if (accessRolesProvider.migrateRoles(node)) {
+                    batch.put(node.getPath(), roles);
+                    if (batch.size() >= batchSize) {
+                        migrated += commit(session, checkSession, batch);
+                        batch.clear();
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                migrated += commit(session, checkSession, batch);
+            }
+            LOGGER.info("Migrated {} access control lists to the compact storage format", migrated);
+        } catch (final RepositoryException | RepositoryRuntimeException e) {
+            LOGGER.error("Access control list migration stopped after {} access control lists", migrated, e);
+        } finally {
+            session.expire();
+            checkSession.expire();
+        }
+        return migrated;
+    }
+
+    /**
+     * Save a batch once none of its access control lists changed since it was rewritten.
+     *
+     * @param session the session holding the rewritten batch
+     * @param checkSession the session used to read the stored roles
+     * @param batch the roles each rewritten node held when it was rewritten, by path
+     * @return the number of access control lists saved
+     * @throws RepositoryException if the repository could not be read
+     */
+    private int commit(final FedoraSession session, final FedoraSession checkSession,
+            final Map<String, Map<String, Set<String>>> batch) throws RepositoryException {
+        final Session jcrSession = getJcrSession(session);
+        for (int attempt = 1;; attempt++) {
+            final String conflict = findConflict(getJcrSession(checkSession), batch);
+            if (conflict == null) {
+                return save(session, batch.size());
+            }
+            jcrSession.refresh(false);
+            if (attempt >= MAX_ATTEMPTS) {
+                LOGGER.warn("Skipping a batch of {} access control lists, {} keeps changing", batch.size(), conflict);
+                return 0;
+            }
+            LOGGER.debug("Access control list at {} changed while migrating, rewriting the batch", conflict);
+            for (final Iterator<Map.Entry<String, Map<String, Set<String>>>> it = batch.entrySet().iterator();
+                    it.hasNext();) {
+                final Map.Entry<String, Map<String, Set<String>>> entry = it.next();
+                if (!jcrSession.nodeExists(entry.getKey())) {
+                    it.remove();
+                    continue;
+                }
+                final Node node = jcrSession.getNode(entry.getKey());
+                final Map<String, Set<String>> roles = readRoles(node);
+                if (accessRolesProvider.migrateRoles(node)) {
+                    entry.setValue(roles);
+                } else {
+                    it.remove();
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return the path of the first node of the batch whose stored roles differ from the ones it was rewritten
+     *         from, or null if there is none
+     */
+    private String findConflict(final Session checkSession, final Map<String, Map<String, Set<String>>> batch)
+            throws RepositoryException {
+        checkSession.refresh(false);
+        for (final Map.Entry<String, Map<String, Set<String>>> entry : batch.entrySet()) {
+            if (!checkSession.nodeExists(entry.getKey())
+                    || !entry.getValue().equals(readRoles(checkSession.getNode(entry.getKey())))) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the roles assigned at a node, compared regardless of the layout they are stored in
+     */
+    private Map<String, Set<String>> readRoles(final Node node) {
+        final Map<String, Set<String>> roles = new HashMap<>();
+        final Map<String, Collection<String>> data = accessRolesProvider.getRoles(node, false);
+        if (data != null) {
+            for (final Map.Entry<String, Collection<String>> entry : data.entrySet()) {
+                roles.put(entry.getKey(), new HashSet<>(entry.getValue()));
+            }
+        }
+        return roles;
+    }
+
+    private static int save(final FedoraSession session, final int pending) throws RepositoryException {
+        try {
+            session.commit();
+            LOGGER.debug("Committed {} migrated access control lists", pending);
+            return pending;
+        } catch (final RepositoryRuntimeException e) {
+            LOGGER.warn("Discarding a batch of {} migrated access control lists: {}", pending, e.getMessage());
+            getJcrSession(session).refresh(false);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.modeshape.jcr.value.Path;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Authorization data of one user session, computed on its first permission check and reused by the later ones: the
+ * user principal, the interned names of all of its principals, a fingerprint of that set of names, and the
+ * decisions remembered for the session.
+ *
+ * @author agent
+ */
+final class AuthContext {
+
+    private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Principal userPrincipal;
+
+    private final Set<Principal> principals;
+
+    private final String[] principalNames;
+
+    private final long fingerprint;
+
+    /**
+     * Roots of the subtrees the session has already been granted remove on, with the roles that were granted.
+     */
+    private final Map<Path, Set<String>> removableSubtrees = new ConcurrentHashMap<>();
+
+    /**
+     * Generation of the access roles the removable subtrees were granted on.
+     */
+    private long removableGeneration = -1;
+
+    /**
+     * @param userPrincipal the user principal of the session
+     * @param principals all principals of the session
+     */
+    AuthContext(final Principal userPrincipal, final Set<Principal> principals) {
+        this.userPrincipal = userPrincipal;
+        this.principals = principals;
+        final String[] names = new String[principals.size()];
+        int i = 0;
+        for (final Principal principal : principals) {
+            names[i++] = NAMES.intern(principal.getName());
+        }
+        Arrays.sort(names);
+        this.principalNames = names;
+        this.fingerprint = fingerprint(names);
+    }
+
+    /**
+     * @param names sorted principal names
+     * @return a 64-bit FNV-1a hash of the names, which is the same for every session with the same principals
+     */
+    private static long fingerprint(final String[] names) {
+        long hash = FNV_OFFSET;
+        for (final String name : names) {
+            for (final byte b : name.getBytes(UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= FNV_PRIME;
+            }
+            // separate the names, so that ["ab", "c"] and ["a", "bc"] differ
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the user principal of the session
+     */
+    Principal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    /**
+     * @return all principals of the session
+     */
+    Set<Principal> getPrincipals() {
+        return principals;
+    }
+
+    /**
+     * @return the interned names of all principals of the session, sorted
+     */
+    String[] getPrincipalNames() {
+        return principalNames;
+    }
+
+    /**
+     * @return a fingerprint of the principal names, equal for sessions with the same principals
+     */
+    long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @param generation the current generation of the access roles
+     * @return the subtrees the session was granted remove on, by root path; emptied first if the access roles
+     *         changed since they were granted
+     */
+    synchronized Map<Path, Set<String>> getRemovableSubtrees(final long generation) {
+        if (generation != removableGeneration) {
+            removableSubtrees.clear();
+            removableGeneration = generation;
+        }
+        return removableSubtrees;
+    }
+
+    /**
+     * Remember that the session was granted remove on a subtree.
+     *
+     * @param root root path of the subtree
+     * @param roles the roles that were granted
+     * @param generation the generation of the access roles the grant was decided on
+     */
+    synchronized void grantRemovableSubtree(final Path root, final Set<String> roles, final long generation) {
+        getRemovableSubtrees(generation).put(root, roles);
+    }
+
+    /**
+     * Forget the subtrees the session was granted remove on, as nodes were added below one of them.
+     */
+    void clearRemovableSubtrees() {
+        removableSubtrees.clear();
+    }
+}
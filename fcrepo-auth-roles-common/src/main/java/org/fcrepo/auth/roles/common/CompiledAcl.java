@@ -0,0 +1,169 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.hash.Hashing;
+
+/**
+ * An immutable access control list that also holds the roles of each principal as a mask of {@link RoleIds}, so
+ * that the effective roles of a request are resolved without allocating. Compiled lists are interned: equal lists
+ * share one instance for as long as any of them is in use, so the many nodes carrying a copy of the same template
+ * hold a single list, and caches keyed on a list or its version are shared between them.
+ *
+ * @author agent
+ */
+public final class CompiledAcl extends ForwardingMap<String, Collection<String>> {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    /**
+     * Weak, so that lists no longer assigned anywhere are collected.
+     */
+    private static final Interner<CompiledAcl> INTERNER = Interners.newWeakInterner();
+
+    /**
+     * The access control list without any assignments.
+     */
+    public static final CompiledAcl EMPTY = new CompiledAcl(ImmutableMap.of(), ImmutableMap.of());
+
+    private final ImmutableMap<String, Collection<String>> acl;
+
+    private final ImmutableMap<String, Long> masks;
+
+    private final long version = VERSIONS.incrementAndGet();
+
+    private final int hash;
+
+    private volatile String tag;
+
+    private CompiledAcl(final ImmutableMap<String, Collection<String>> acl, final ImmutableMap<String, Long> masks) {
+        this.acl = acl;
+        this.masks = masks;
+        this.hash = acl.hashCode();
+    }
+
+    /**
+     * Principals and their roles are sorted, and repeated roles are dropped, so that lists assigning the same roles
+     * compile to the same instance.
+     *
+     * @param acl roles assigned to each principal
+     * @return the compiled access control list, which is the argument itself if it is already compiled
+     */
+    public static CompiledAcl of(final Map<String, Collection<String>> acl) {
+        if (acl instanceof CompiledAcl) {
+            return (CompiledAcl) acl;
+        }
+        if (acl.isEmpty()) {
+            return EMPTY;
+        }
+        final ImmutableMap.Builder<String, Collection<String>> copy = ImmutableMap.builder();
+        final ImmutableMap.Builder<String, Long> masks = ImmutableMap.builder();
+        for (final Map.Entry<String, Collection<String>> entry : new TreeMap<>(acl).entrySet()) {
+            copy.put(entry.getKey(), ImmutableList.copyOf(new TreeSet<>(entry.getValue())));
+            masks.put(entry.getKey(), RoleIds.mask(entry.getValue()));
+        }
+        return INTERNER.intern(new CompiledAcl(copy.build(), masks.build()));
+    }
+
+    /**
+     * @return a number identifying this access control list, different for every distinct compiled list
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return a strong entity tag of the assignments, the same for every equal list
+     */
+    public String getTag() {
+        String t = tag;
+        if (t == null) {
+            t = Hashing.sha256().hashString(AclCodec.encode(acl), UTF_8).toString();
+            tag = t;
+        }
+        return t;
+    }
+
+    /**
+     * @param principal a principal name
+     * @return the mask of the roles assigned to the principal
+     */
+    public long roles(final String principal) {
+        final Long mask = masks.get(principal);
+        return mask == null ? 0 : mask;
+    }
+
+    /**
+     * @param principals effective principals of a request
+     * @return the mask of the roles assigned to any of the principals
+     */
+    public long resolve(final Collection<Principal> principals) {
+        long roles = 0;
+        for (final Principal principal : principals) {
+            roles |= roles(principal.getName());
+        }
+        return roles;
+    }
+
+    /**
+     * @param principalNames names of the effective principals of a request
+     * @return the mask of the roles assigned to any of the principals
+     */
+    public long resolve(final String[] principalNames) {
+        long roles = 0;
+        for (final String principal : principalNames) {
+            roles |= roles(principal);
+        }
+        return roles;
+    }
+
+    @Override
+    public boolean equals(final Object object) {
+        if (object == this) {
+            return true;
+        }
+        if (object instanceof CompiledAcl && ((CompiledAcl) object).hash != hash) {
+            return false;
+        }
+        return super.equals(object);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    protected Map<String, Collection<String>> delegate() {
+        return acl;
+    }
+}
@@ -44,7 +44,7 @@ public class Constants {
      */
     public static enum JcrName {
         rbaclAssignable(), Rbacl(), Assignment(), rbacl(), assignment(),
-        principal(), role();
+        principal(), role(), rbaclData();
 
         private String expandedName;
 
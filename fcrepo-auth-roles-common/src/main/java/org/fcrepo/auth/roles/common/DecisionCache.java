@@ -0,0 +1,204 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fcrepo.metrics.RegistryService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of permission decisions shared by all sessions, keyed by the principals of the request, the version
+ * of its effective ACL, the requested actions and whether the node is an ACL node. All paths governed by one ACL
+ * share the decisions made for it, and all sessions with the same principals share them too. Keys also carry the
+ * generation of the cache, so that a decision made before {@link #invalidateAll} is never served after it.
+ *
+ * @author agent
+ */
+final class DecisionCache {
+
+    private static final MetricRegistry metrics = RegistryService.getInstance().getMetrics();
+
+    private static final Counter hits = metrics.counter(name(DecisionCache.class, "hits"));
+
+    private static final Counter misses = metrics.counter(name(DecisionCache.class, "misses"));
+
+    private static final int MAX_ACTIONS = 64;
+
+    /**
+     * Bits of the actions seen so far. Requests with actions beyond the available bits are not cached.
+     */
+    private static final Map<String, Long> ACTIONS = new ConcurrentHashMap<>();
+
+    private final Cache<Key, Boolean> decisions;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maximumSize the maximum number of decisions to hold
+     */
+    DecisionCache(final long maximumSize) {
+        this.decisions = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * @param context the authorization data of the requesting session
+     * @param acl the effective ACL
+     * @param actions the requested actions
+     * @param aclNode whether the node is an ACL node
+     * @return the cached decision, or null if there is none
+     */
+    Boolean get(final AuthContext context, final CompiledAcl acl, final String[] actions, final boolean aclNode) {
+        final long actionMask = actionMask(actions);
+        if (actionMask == 0) {
+            return null;
+        }
+        final Boolean decision = decisions.getIfPresent(new Key(context, acl, actionMask, aclNode,
+                generation.get()));
+        if (decision == null) {
+            misses.inc();
+        } else {
+            hits.inc();
+        }
+        return decision;
+    }
+
+    /**
+     * Take a stamp before making a decision, to be handed back to {@link #put}.
+     *
+     * @return the current generation
+     */
+    long stamp() {
+        return generation.get();
+    }
+
+    /**
+     * @param context the authorization data of the requesting session
+     * @param acl the effective ACL
+     * @param actions the requested actions
+     * @param aclNode whether the node is an ACL node
+     * @param decision the decision made
+     * @param stamp the stamp taken before the decision was made; a decision made before an invalidation is stored
+     *        under the old generation, where it is never found
+     */
+    void put(final AuthContext context, final CompiledAcl acl, final String[] actions, final boolean aclNode,
+            final boolean decision, final long stamp) {
+        final long actionMask = actionMask(actions);
+        if (actionMask != 0 && stamp == generation.get()) {
+            decisions.put(new Key(context, acl, actionMask, aclNode, stamp), decision);
+        }
+    }
+
+    /**
+     * Drop all cached decisions. Decisions being made concurrently are not served once made.
+     */
+    void invalidateAll() {
+        generation.incrementAndGet();
+        decisions.invalidateAll();
+    }
+
+    /**
+     * @return the approximate number of cached decisions
+     */
+    long size() {
+        return decisions.size();
+    }
+
+    /**
+     * @param actions the requested actions
+     * @return the mask of the actions, or 0 if they cannot all be given a bit
+     */
+    private static long actionMask(final String[] actions) {
+        long mask = 0;
+        for (final String action : actions) {
+            Long bit = ACTIONS.get(action);
+            if (bit == null) {
+                bit = register(action);
+                if (bit == null) {
+                    return 0;
+                }
+            }
+            mask |= bit;
+        }
+        return mask;
+    }
+
+    private static synchronized Long register(final String action) {
+        Long bit = ACTIONS.get(action);
+        if (bit == null && ACTIONS.size() < MAX_ACTIONS) {
+            bit = 1L << ACTIONS.size();
+            ACTIONS.put(action, bit);
+        }
+        return bit;
+    }
+
+    /**
+     * Key of a decision. The principal names are compared as well as their fingerprint, so that a fingerprint
+     * collision can never share a decision between different principals.
+     */
+    private static final class Key {
+
+        private final long fingerprint;
+
+        private final String[] principalNames;
+
+        private final long aclVersion;
+
+        private final long actions;
+
+        private final boolean aclNode;
+
+        private final long generation;
+
+        private Key(final AuthContext context, final CompiledAcl acl, final long actions, final boolean aclNode,
+                final long generation) {
+            this.fingerprint = context.getFingerprint();
+            this.principalNames = context.getPrincipalNames();
+            this.aclVersion = acl.getVersion();
+            this.actions = actions;
+            this.aclNode = aclNode;
+            this.generation = generation;
+        }
+
+        @Override
+        public int hashCode() {
+            final long hash = fingerprint * 31 + aclVersion * 17 + actions * 7 + generation * 3 + (aclNode ? 1 : 0);
+            return (int) (hash ^ hash >>> 32);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return fingerprint == other.fingerprint && aclVersion == other.aclVersion && actions == other.actions &&
+                    aclNode == other.aclNode && generation == other.generation &&
+                    (principalNames == other.principalNames || Arrays.equals(principalNames, other.principalNames));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET;
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static org.fcrepo.kernel.modeshape.utils.FedoraTypesUtils.getJcrNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.fcrepo.http.commons.AbstractResource;
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.http.commons.session.HttpSession;
+import org.fcrepo.kernel.api.exception.PathNotFoundRuntimeException;
+import org.fcrepo.kernel.api.identifiers.IdentifierConverter;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.fcrepo.kernel.api.models.FedoraResource;
+
+import org.jvnet.hk2.annotations.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Scope;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.jena.rdf.model.Resource;
+
+/**
+ * RESTful interface to read the effective access roles of many resources in one request, such as the children
+ * listed on one page.
+ *
+ * @author agent
+ */
+@Scope("request")
+@Path("/{path: .*}/fcr:accessroles/effective")
+public class EffectiveAccessRoles extends AbstractResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EffectiveAccessRoles.class);
+
+    private static final JsonFactory JSON = new JsonFactory().disable(AUTO_CLOSE_TARGET);
+
+    protected IdentifierConverter<Resource, FedoraResource> identifierTranslator;
+
+    @Inject
+    protected HttpSession session;
+
+    @Inject
+    @Optional
+    private AccessRolesProvider accessRolesProvider;
+
+    @Context protected UriInfo uriInfo;
+
+    @PathParam("path") protected String externalPath;
+
+    /**
+     * Default JAX-RS entry point
+     */
+    public EffectiveAccessRoles() {
+        super();
+    }
+
+    /**
+     * Create a new instance for a given path
+     * @param externalPath external path
+     */
+    @VisibleForTesting
+    public EffectiveAccessRoles(final String externalPath) {
+        this.externalPath = externalPath;
+    }
+
+    /**
+     * Retrieve the effective roles of each of the given resources. Paths are relative to the resource of the request
+     * URI, and the response is a JSON object holding the roles of each path found, keyed by the path as given.
+     * Paths that are not found are left out.
+     *
+     * @param paths paths of the resources below this one
+     * @return JSON object of the effective roles of each path
+     */
+    @POST
+    @Consumes(APPLICATION_JSON)
+    @Produces(APPLICATION_JSON)
+    @Timed
+    public Response post(final List<String> paths) {
+        final List<String> found = new ArrayList<>();
+        final List<Map<String, Collection<String>>> roles;
+        try {
+            if (paths == null) {
+                return Response.status(Status.BAD_REQUEST).build();
+            }
+            LOGGER.debug("Get effective access roles of {} paths below {}", paths.size(), externalPath);
+            if (accessRolesProvider == null) {
+                LOGGER.debug("accessRolesProvider is null");
+                return Response.status(Status.NOT_FOUND).build();
+            }
+            final List<Node> nodes = new ArrayList<>(paths.size());
+            for (final String path : new LinkedHashSet<>(paths)) {
+                final Node node = findNode(path);
+                if (node != null) {
+                    found.add(path);
+                    nodes.add(node);
+                }
+            }
+            roles = accessRolesProvider.getEffectiveRoles(nodes);
+        } finally {
+            session.expire();
+        }
+        final StreamingOutput stream = out -> {
+            final JsonGenerator json = JSON.createGenerator(out);
+            json.writeStartObject();
+            for (int i = 0; i < found.size(); i++) {
+                json.writeFieldName(found.get(i));
+                writeRoles(json, roles.get(i));
+            }
+            json.writeEndObject();
+            json.flush();
+        };
+        return Response.ok(stream).build();
+    }
+
+    private Node findNode(final String path) {
+        final String relative = path.startsWith("/") ? path.substring(1) : path;
+        try {
+            final FedoraResource resource = translator().convert(translator().toDomain(externalPath + "/" + relative));
+            if (resource instanceof FedoraBinary) {
+                return getJcrNode(((FedoraBinary) resource).getDescription());
+            }
+            return getJcrNode(resource);
+        } catch (final PathNotFoundRuntimeException e) {
+            LOGGER.debug("Cannot find {} below {}", path, externalPath);
+            return null;
+        }
+    }
+
+    /**
+     * @param json the generator to write to
+     * @param roles the roles of each principal, or null
+     * @throws IOException if the roles could not be written
+     */
+    static void writeRoles(final JsonGenerator json, final Map<String, Collection<String>> roles)
+            throws IOException {
+        if (roles == null) {
+            json.writeNull();
+            return;
+        }
+        json.writeStartObject();
+        for (final Map.Entry<String, Collection<String>> entry : roles.entrySet()) {
+            json.writeArrayFieldStart(entry.getKey());
+            for (final String role : entry.getValue()) {
+                json.writeString(role);
+            }
+            json.writeEndArray();
+        }
+        json.writeEndObject();
+    }
+
+    protected IdentifierConverter<Resource, FedoraResource> translator() {
+        if (identifierTranslator == null) {
+            identifierTranslator = new HttpResourceConverter(session,
+                    uriInfo.getBaseUriBuilder().clone().path("{path: .*}"));
+        }
+
+        return identifierTranslator;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Session;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of the access roles assigned at rbaclAssignable nodes, keyed by the path of the assignable node.
+ * Lookups never block. Entries are dropped synchronously when the roles at a path are written, and a load that
+ * raced with a write is never stored.
+ *
+ * @author agent
+ */
+public class EffectiveAclCache {
+
+    private final Cache<String, Map<String, Collection<String>>> acls;
+
+    /**
+     * Number of pending writes above which those of writers no longer live are swept out on the next write.
+     */
+    private static final int PENDING_SWEEP_SIZE = 1024;
+
+    /**
+     * Sessions holding uncommitted role changes, by path. No entry is cached for a path while its writer is live, and
+     * the generation moves on once it is not, since a load may have read the roles before the write was saved.
+     */
+    private final ConcurrentMap<String, WeakReference<Session>> pendingWrites = new ConcurrentHashMap<>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maximumSize the maximum number of access control lists to hold
+     * @param expireAfterWriteSeconds seconds after which an entry is reloaded, or 0 to never expire entries
+     */
+    public EffectiveAclCache(final long maximumSize, final long expireAfterWriteSeconds) {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(maximumSize);
+        if (expireAfterWriteSeconds > 0) {
+            builder.expireAfterWrite(expireAfterWriteSeconds, SECONDS);
+        }
+        this.acls = builder.build();
+    }
+
+    /**
+     * @param path path of an rbaclAssignable node
+     * @return the cached roles assigned at the path, or null if not cached
+     */
+    public Map<String, Collection<String>> get(final String path) {
+        return acls.getIfPresent(path);
+    }
+
+    /**
+     * Take a stamp before loading roles from the repository, to be handed back to {@link #put}.
+     *
+     * @return the current invalidation generation
+     */
+    public long stamp() {
+        return generation.get();
+    }
+
+    /**
+     * Cache the roles loaded for a path, unless they were invalidated while loading or a write to the path was
+     * pending while loading. The first load to find that the writer of a pending write is gone is not cached either.
+     *
+     * @param path path of an rbaclAssignable node
+     * @param acl the roles assigned at the path
+     * @param stamp the stamp taken before loading
+     * @return an immutable, compiled copy of the roles
+     */
+    public Map<String, Collection<String>> put(final String path, final Map<String, Collection<String>> acl,
+            final long stamp) {
+        final Map<String, Collection<String>> copy = immutableCopy(acl);
+        final WeakReference<Session> pending = pendingWrites.get(path);
+        if (pending != null && (isLive(pending) || retire(path, pending))) {
+            return copy;
+        }
+        if (stamp == generation.get()) {
+            acls.put(path, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Drop the roles cached for a path that is being written.
+     *
+     * @param path path of an rbaclAssignable node
+     * @param writer the session holding the change; the path is not cached again until it is no longer live
+     */
+    public void invalidate(final String path, final Session writer) {
+        generation.incrementAndGet();
+        if (writer != null) {
+            pendingWrites.put(path, new WeakReference<>(writer));
+            if (pendingWrites.size() > PENDING_SWEEP_SIZE) {
+                pendingWrites.forEach((pendingPath, pending) -> {
+                    if (!isLive(pending)) {
+                        retire(pendingPath, pending);
+                    }
+                });
+            }
+        }
+        acls.invalidate(path);
+    }
+
+    /**
+     * Forget a pending write whose writer is no longer live, moving the generation on so that no load stamped while
+     * it was pending is stored.
+     *
+     * @param path path of an rbaclAssignable node
+     * @param pending the pending write
+     * @return true, as a load stamped before now must not be stored
+     */
+    private boolean retire(final String path, final WeakReference<Session> pending) {
+        if (pendingWrites.remove(path, pending)) {
+            generation.incrementAndGet();
+        }
+        return true;
+    }
+
+    private static boolean isLive(final WeakReference<Session> pending) {
+        final Session writer = pending.get();
+        return writer != null && writer.isLive();
+    }
+
+    /**
+     * Drop the roles cached for a path and all of its descendants.
+     *
+     * @param path path of a removed or moved subtree
+     */
+    public void invalidateSubtree(final String path) {
+        invalidateSubtrees(singleton(path));
+    }
+
+    /**
+     * Drop the roles cached for several paths and all of their descendants, in one pass over the cache.
+     *
+     * @param paths paths of removed or moved subtrees
+     */
+    public void invalidateSubtrees(final Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        final Set<String> roots = new HashSet<>(paths);
+        if (roots.contains("/")) {
+            invalidateAll();
+            return;
+        }
+        generation.incrementAndGet();
+        for (final String key : acls.asMap().keySet()) {
+            if (subtreeOf(key, roots) != null) {
+                acls.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * @param paths paths of removed or moved subtrees
+     * @return those of the paths at or below which roles are cached
+     */
+    public Set<String> cachedSubtrees(final Collection<String> paths) {
+        final Set<String> roots = new HashSet<>(paths);
+        final Set<String> cached = new HashSet<>();
+        if (roots.contains("/") && acls.size() > 0) {
+            cached.add("/");
+        }
+        for (final String key : acls.asMap().keySet()) {
+            if (cached.size() == roots.size()) {
+                break;
+            }
+            final String root = subtreeOf(key, roots);
+            if (root != null) {
+                cached.add(root);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Drop all cached roles.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        acls.invalidateAll();
+    }
+
+    /**
+     * @return the approximate number of cached access control lists
+     */
+    public long size() {
+        return acls.size();
+    }
+
+    /**
+     * @param path a path
+     * @param roots paths of subtrees, other than the root
+     * @return the root of the subtree holding the path, or null if there is none
+     */
+    private static String subtreeOf(final String path, final Set<String> roots) {
+        for (String ancestor = path; !ancestor.isEmpty(); ancestor = ancestor.substring(0,
+                ancestor.lastIndexOf('/'))) {
+            if (roots.contains(ancestor)) {
+                return ancestor;
+            }
+        }
+        return null;
+    }
+
+    static Map<String, Collection<String>> immutableCopy(final Map<String, Collection<String>> acl) {
+        return CompiledAcl.of(acl);
+    }
+}
@@ -0,0 +1,885 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import org.fcrepo.metrics.RegistryService;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * ACL index holding its entries in direct buffers outside of the Java heap, for repositories with millions of access
+ * control lists. The index is a hashed trie: every path segment is a node, identified by the address of a record
+ * holding its parent node and its own segment key, and a hash table maps each parent node and segment key to the
+ * node. Paths sharing a prefix share its records, so every segment key is stored once per distinct prefix. Each
+ * record also links its first child and its siblings, so that removing a subtree visits only the subtree.
+ * <p>
+ * Access control lists are stored once per distinct list, with principal and role names replaced by interned ids,
+ * and are decoded into on-heap maps only when looked up; recently decoded lists are kept in a small cache, so a
+ * list shared by many nodes is usually decoded once. Space left by changed and removed entries is reclaimed by
+ * compacting the index once it exceeds the space in use. Lookups share a read lock; updates are serialized.
+ *
+ * @author agent
+ */
+public class OffHeapAclIndex implements AclIndex {
+
+    private static final MetricRegistry metrics = RegistryService.getInstance().getMetrics();
+
+    private static final Counter allocatedBytes = metrics.counter(name(OffHeapAclIndex.class, "bytes",
+            "allocated"));
+
+    private static final Counter entryCount = metrics.counter(name(OffHeapAclIndex.class, "entries"));
+
+    private static final Counter aclCount = metrics.counter(name(OffHeapAclIndex.class, "acls"));
+
+    private static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+
+    private static final int DECODED_ACLS = 10000;
+
+    /**
+     * Node id of the root, which has no record.
+     */
+    private static final long ROOT = -1;
+
+    private static final long NONE = -1;
+
+    private static final int SLOT_SIZE = 32;
+
+    private static final int SLOT_HASH = 0;
+
+    private static final int SLOT_NODE = 8;
+
+    private static final int SLOT_ACL = 16;
+
+    private static final int SLOT_ENTRIES = 24;
+
+    private static final int SLOT_STATE = 28;
+
+    private static final int NODE_PARENT = 0;
+
+    private static final int NODE_HASH = 8;
+
+    private static final int NODE_CHILD = 16;
+
+    private static final int NODE_PREVIOUS = 24;
+
+    private static final int NODE_NEXT = 32;
+
+    private static final int NODE_LENGTH = 40;
+
+    private static final int NODE_KEY = 44;
+
+    private static final int EMPTY = 0;
+
+    private static final int LIVE = 1;
+
+    private static final int DELETED = 2;
+
+    private static final double LOAD_FACTOR = 0.6;
+
+    private final int segmentSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Principal and role names by id, and ids by name.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final Cache<Long, Map<String, Collection<String>>> decoded = CacheBuilder.newBuilder()
+            .maximumSize(DECODED_ACLS).build();
+
+    /**
+     * Node records: the parent node id, the hash of its slot, its first child, its previous and next siblings, then
+     * the segment key as its UTF-8 length and bytes. Only the links change once a record is written.
+     */
+    private Store nodes;
+
+    /**
+     * Access control list records: a reference count, the length of the list, then the number of principals and
+     * for each principal its id, its number of roles and their ids.
+     */
+    private Store acls;
+
+    /**
+     * Address of each stored access control list, keyed by a view of its record without the reference count.
+     */
+    private Map<ByteBuffer, Long> aclAddresses;
+
+    private ByteBuffer table;
+
+    private int capacity;
+
+    /**
+     * Number of slots live or deleted.
+     */
+    private int used;
+
+    private int live;
+
+    private long rootAcl;
+
+    private long rootChild;
+
+    private int size;
+
+    private long garbage;
+
+    /**
+     * Create an index with the default segment size.
+     */
+    public OffHeapAclIndex() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize the size of each direct buffer holding node and access control list records
+     */
+    public OffHeapAclIndex(final int segmentSize) {
+        this.segmentSize = segmentSize;
+        reset();
+    }
+
+    private void reset() {
+        if (nodes != null) {
+            allocatedBytes.dec(offHeapBytes());
+            entryCount.dec(size);
+            aclCount.dec(aclAddresses.size());
+        }
+        nodes = new Store(segmentSize);
+        acls = new Store(segmentSize);
+        aclAddresses = new HashMap<>();
+        capacity = 1024;
+        table = allocate(capacity * SLOT_SIZE);
+        used = 0;
+        live = 0;
+        rootAcl = NONE;
+        rootChild = NONE;
+        size = 0;
+        garbage = 0;
+        decoded.invalidateAll();
+    }
+
+    @Override
+    public Entry findNearest(final String[] keys) {
+        lock.readLock().lock();
+        try {
+            long acl = rootAcl;
+            int depth = 0;
+            long node = ROOT;
+            for (int i = 0; i < keys.length; i++) {
+                final int slot = findSlot(node, keys[i]);
+                if (slot < 0) {
+                    break;
+                }
+                node = table.getLong(slot + SLOT_NODE);
+                final long slotAcl = table.getLong(slot + SLOT_ACL);
+                if (slotAcl != NONE) {
+                    acl = slotAcl;
+                    depth = i + 1;
+                }
+            }
+            return acl == NONE ? null : entry(keys, depth, acl);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Entry get(final String[] keys) {
+        lock.readLock().lock();
+        try {
+            long acl = rootAcl;
+            long node = ROOT;
+            for (final String key : keys) {
+                final int slot = findSlot(node, key);
+                if (slot < 0) {
+                    return null;
+                }
+                node = table.getLong(slot + SLOT_NODE);
+                acl = table.getLong(slot + SLOT_ACL);
+            }
+            return acl == NONE ? null : entry(keys, keys.length, acl);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsSubtree(final String[] keys) {
+        lock.readLock().lock();
+        try {
+            if (keys.length == 0) {
+                return size > 0;
+            }
+            final int[] slots = findSlots(keys);
+            return slots != null && table.getInt(slots[keys.length - 1] + SLOT_ENTRIES) > 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized void put(final String[] keys, final Entry entry) {
+        lock.writeLock().lock();
+        try {
+            final long acl = storeAcl(entry.getAcl());
+            if (keys.length == 0) {
+                if (rootAcl == NONE) {
+                    size++;
+                    entryCount.inc();
+                } else {
+                    releaseAcl(rootAcl);
+                }
+                rootAcl = acl;
+                return;
+            }
+            ensureCapacity(keys.length);
+            final int[] slots = new int[keys.length];
+            long node = ROOT;
+            for (int i = 0; i < keys.length; i++) {
+                int slot = findSlot(node, keys[i]);
+                if (slot < 0) {
+                    slot = insertSlot(node, keys[i]);
+                }
+                slots[i] = slot;
+                node = table.getLong(slot + SLOT_NODE);
+            }
+            final int target = slots[keys.length - 1];
+            final long previous = table.getLong(target + SLOT_ACL);
+            if (previous == NONE) {
+                for (final int slot : slots) {
+                    table.putInt(slot + SLOT_ENTRIES, table.getInt(slot + SLOT_ENTRIES) + 1);
+                }
+                size++;
+                entryCount.inc();
+            } else {
+                releaseAcl(previous);
+            }
+            table.putLong(target + SLOT_ACL, acl);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfWasteful();
+    }
+
+    @Override
+    public synchronized void remove(final String[] keys) {
+        lock.writeLock().lock();
+        try {
+            if (keys.length == 0) {
+                if (rootAcl != NONE) {
+                    releaseAcl(rootAcl);
+                    rootAcl = NONE;
+                    size--;
+                    entryCount.dec();
+                }
+                return;
+            }
+            final int[] slots = findSlots(keys);
+            if (slots == null) {
+                return;
+            }
+            final int target = slots[keys.length - 1];
+            final long acl = table.getLong(target + SLOT_ACL);
+            if (acl == NONE) {
+                return;
+            }
+            releaseAcl(acl);
+            table.putLong(target + SLOT_ACL, NONE);
+            removeFromAncestors(slots, keys.length, 1);
+            size--;
+            entryCount.dec();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfWasteful();
+    }
+
+    @Override
+    public synchronized void removeSubtree(final String[] keys) {
+        if (keys.length == 0) {
+            clear();
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            final int[] slots = findSlots(keys);
+            if (slots == null) {
+                return;
+            }
+            final int target = slots[keys.length - 1];
+            final int entries = table.getInt(target + SLOT_ENTRIES);
+            if (entries > 1 || table.getLong(target + SLOT_ACL) == NONE) {
+                // entries below the path: delete every node of the subtree, leaving the path itself to the
+                // ancestors' bookkeeping
+                deleteDescendants(table.getLong(target + SLOT_NODE));
+            }
+            final long acl = table.getLong(target + SLOT_ACL);
+            if (acl != NONE) {
+                releaseAcl(acl);
+                table.putLong(target + SLOT_ACL, NONE);
+            }
+            removeFromAncestors(slots, keys.length, entries);
+            size -= entries;
+            entryCount.dec(entries);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfWasteful();
+    }
+
+    @Override
+    public synchronized void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void forEach(final BiConsumer<String[], Entry> action) {
+        lock.readLock().lock();
+        try {
+            if (rootAcl != NONE) {
+                action.accept(new String[0], entry(new String[0], 0, rootAcl));
+            }
+            for (int slot = 0; slot < capacity * SLOT_SIZE; slot += SLOT_SIZE) {
+                if (table.getInt(slot + SLOT_STATE) == LIVE) {
+                    final long acl = table.getLong(slot + SLOT_ACL);
+                    if (acl != NONE) {
+                        final String[] keys = keys(table.getLong(slot + SLOT_NODE));
+                        action.accept(keys, entry(keys, keys.length, acl));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes held in direct buffers, including space not yet reclaimed
+     */
+    @Override
+    public long offHeapBytes() {
+        return (long) capacity * SLOT_SIZE + nodes.allocated() + acls.allocated();
+    }
+
+    /**
+     * @return the number of distinct access control lists held
+     */
+    public synchronized int distinctAcls() {
+        return aclAddresses.size();
+    }
+
+    /**
+     * @param parent id of the parent node
+     * @param key segment key of the node
+     * @return offset of the live slot of the node, or -1 if there is none
+     */
+    private int findSlot(final long parent, final String key) {
+        final long hash = hash(parent, key);
+        final int mask = capacity - 1;
+        for (int i = (int) hash & mask;; i = (i + 1) & mask) {
+            final int slot = i * SLOT_SIZE;
+            final int state = table.getInt(slot + SLOT_STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == LIVE && table.getLong(slot + SLOT_HASH) == hash &&
+                    isNode(table.getLong(slot + SLOT_NODE), parent, key)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @param keys segment keys of a path
+     * @return offsets of the slots of the path and its ancestors, or null if the path is not in the index
+     */
+    private int[] findSlots(final String[] keys) {
+        final int[] slots = new int[keys.length];
+        long node = ROOT;
+        for (int i = 0; i < keys.length; i++) {
+            slots[i] = findSlot(node, keys[i]);
+            if (slots[i] < 0) {
+                return null;
+            }
+            node = table.getLong(slots[i] + SLOT_NODE);
+        }
+        return slots;
+    }
+
+    private int insertSlot(final long parent, final String key) {
+        final long hash = hash(parent, key);
+        final int mask = capacity - 1;
+        int i = (int) hash & mask;
+        while (table.getInt(i * SLOT_SIZE + SLOT_STATE) == LIVE) {
+            i = (i + 1) & mask;
+        }
+        final int slot = i * SLOT_SIZE;
+        if (table.getInt(slot + SLOT_STATE) == EMPTY) {
+            used++;
+        }
+        live++;
+        final byte[] bytes = key.getBytes(UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(NODE_KEY + bytes.length);
+        record.putLong(parent).putLong(hash).putLong(NONE).putLong(NONE).putLong(NONE).putInt(bytes.length).put(bytes);
+        final long node = nodes.append(record.array());
+        link(parent, node);
+        table.putLong(slot + SLOT_HASH, hash);
+        table.putLong(slot + SLOT_NODE, node);
+        table.putLong(slot + SLOT_ACL, NONE);
+        table.putInt(slot + SLOT_ENTRIES, 0);
+        table.putInt(slot + SLOT_STATE, LIVE);
+        return slot;
+    }
+
+    private void deleteSlot(final int slot) {
+        final long node = table.getLong(slot + SLOT_NODE);
+        unlink(node);
+        garbage += NODE_KEY + nodes.buffer(node).getInt(Store.offset(node) + NODE_LENGTH);
+        table.putInt(slot + SLOT_STATE, DELETED);
+        live--;
+    }
+
+    /**
+     * Delete every node below a node, following the child and sibling links.
+     */
+    private void deleteDescendants(final long root) {
+        final Deque<Long> pending = new ArrayDeque<>();
+        for (long child = firstChild(root); child != NONE; child = nodeField(child, NODE_NEXT)) {
+            pending.push(child);
+        }
+        while (!pending.isEmpty()) {
+            final long node = pending.pop();
+            for (long child = firstChild(node); child != NONE; child = nodeField(child, NODE_NEXT)) {
+                pending.push(child);
+            }
+            final int slot = slotOf(node);
+            final long acl = table.getLong(slot + SLOT_ACL);
+            if (acl != NONE) {
+                releaseAcl(acl);
+            }
+            deleteSlot(slot);
+        }
+    }
+
+    /**
+     * @return offset of the live slot of a node
+     */
+    private int slotOf(final long node) {
+        final int mask = capacity - 1;
+        for (int i = (int) nodeField(node, NODE_HASH) & mask;; i = (i + 1) & mask) {
+            final int slot = i * SLOT_SIZE;
+            final int state = table.getInt(slot + SLOT_STATE);
+            if (state == EMPTY) {
+                throw new IllegalStateException("No slot for node " + node);
+            }
+            if (state == LIVE && table.getLong(slot + SLOT_NODE) == node) {
+                return slot;
+            }
+        }
+    }
+
+    private long firstChild(final long node) {
+        return node == ROOT ? rootChild : nodeField(node, NODE_CHILD);
+    }
+
+    private void setFirstChild(final long node, final long child) {
+        if (node == ROOT) {
+            rootChild = child;
+        } else {
+            setNodeField(node, NODE_CHILD, child);
+        }
+    }
+
+    /**
+     * Make a node the first child of its parent.
+     */
+    private void link(final long parent, final long node) {
+        final long first = firstChild(parent);
+        setNodeField(node, NODE_NEXT, first);
+        if (first != NONE) {
+            setNodeField(first, NODE_PREVIOUS, node);
+        }
+        setFirstChild(parent, node);
+    }
+
+    /**
+     * Take a node out of the children of its parent.
+     */
+    private void unlink(final long node) {
+        final long previous = nodeField(node, NODE_PREVIOUS);
+        final long next = nodeField(node, NODE_NEXT);
+        if (previous == NONE) {
+            setFirstChild(nodeField(node, NODE_PARENT), next);
+        } else {
+            setNodeField(previous, NODE_NEXT, next);
+        }
+        if (next != NONE) {
+            setNodeField(next, NODE_PREVIOUS, previous);
+        }
+    }
+
+    private long nodeField(final long node, final int field) {
+        return nodes.buffer(node).getLong(Store.offset(node) + field);
+    }
+
+    private void setNodeField(final long node, final int field, final long value) {
+        nodes.buffer(node).putLong(Store.offset(node) + field, value);
+    }
+
+    /**
+     * Take entries away from the counts of a path and its ancestors, deleting the nodes left without entries.
+     */
+    private void removeFromAncestors(final int[] slots, final int length, final int entries) {
+        for (int i = length - 1; i >= 0; i--) {
+            final int remaining = table.getInt(slots[i] + SLOT_ENTRIES) - entries;
+            table.putInt(slots[i] + SLOT_ENTRIES, remaining);
+            if (remaining == 0) {
+                deleteSlot(slots[i]);
+            }
+        }
+    }
+
+    /**
+     * Grow the table if inserting a number of slots would exceed its load factor, dropping deleted slots.
+     */
+    private void ensureCapacity(final int inserts) {
+        if (used + inserts <= capacity * LOAD_FACTOR) {
+            return;
+        }
+        int newCapacity = capacity;
+        while ((live + inserts) > newCapacity * LOAD_FACTOR / 2) {
+            newCapacity <<= 1;
+        }
+        final ByteBuffer newTable = allocate(newCapacity * SLOT_SIZE);
+        final int mask = newCapacity - 1;
+        for (int slot = 0; slot < capacity * SLOT_SIZE; slot += SLOT_SIZE) {
+            if (table.getInt(slot + SLOT_STATE) == LIVE) {
+                int i = (int) table.getLong(slot + SLOT_HASH) & mask;
+                while (newTable.getInt(i * SLOT_SIZE + SLOT_STATE) != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                final int target = i * SLOT_SIZE;
+                for (int b = 0; b < SLOT_SIZE; b += 4) {
+                    newTable.putInt(target + b, table.getInt(slot + b));
+                }
+            }
+        }
+        allocatedBytes.dec((long) capacity * SLOT_SIZE);
+        table = newTable;
+        capacity = newCapacity;
+        used = live;
+    }
+
+    /**
+     * Rebuild the index once the space taken by changed and removed entries exceeds the space in use.
+     */
+    private void compactIfWasteful() {
+        final long inUse = nodes.used() + acls.used() - garbage;
+        if (garbage < 2L * segmentSize || garbage < inUse) {
+            return;
+        }
+        final OffHeapAclIndex compacted = new OffHeapAclIndex(segmentSize);
+        forEach(compacted::put);
+        lock.writeLock().lock();
+        try {
+            allocatedBytes.dec(offHeapBytes());
+            entryCount.dec(size);
+            aclCount.dec(aclAddresses.size());
+            nodes = compacted.nodes;
+            acls = compacted.acls;
+            aclAddresses = compacted.aclAddresses;
+            table = compacted.table;
+            capacity = compacted.capacity;
+            used = compacted.used;
+            live = compacted.live;
+            rootAcl = compacted.rootAcl;
+            rootChild = compacted.rootChild;
+            size = compacted.size;
+            garbage = compacted.garbage;
+            names.clear();
+            names.addAll(compacted.names);
+            ids.clear();
+            ids.putAll(compacted.ids);
+            decoded.invalidateAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the node of a record is the child of a parent with a segment key
+     */
+    private boolean isNode(final long node, final long parent, final String key) {
+        final ByteBuffer buffer = nodes.buffer(node);
+        final int offset = Store.offset(node);
+        if (buffer.getLong(offset) != parent) {
+            return false;
+        }
+        final int length = buffer.getInt(offset + NODE_LENGTH);
+        final int start = offset + NODE_KEY;
+        if (length == key.length()) {
+            // compare ASCII keys in place
+            boolean ascii = true;
+            for (int i = 0; i < length && ascii; i++) {
+                final char c = key.charAt(i);
+                if (c >= 0x80) {
+                    ascii = false;
+                } else if (buffer.get(start + i) != c) {
+                    return false;
+                }
+            }
+            if (ascii) {
+                return true;
+            }
+        }
+        final byte[] bytes = key.getBytes(UTF_8);
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the segment keys of the path of a node
+     */
+    private String[] keys(final long node) {
+        final List<String> keys = new ArrayList<>();
+        for (long n = node; n != ROOT; n = nodeField(n, NODE_PARENT)) {
+            final ByteBuffer buffer = nodes.buffer(n);
+            final int offset = Store.offset(n);
+            final byte[] bytes = new byte[buffer.getInt(offset + NODE_LENGTH)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(offset + NODE_KEY + i);
+            }
+            keys.add(new String(bytes, UTF_8));
+        }
+        final String[] path = new String[keys.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = keys.get(path.length - 1 - i);
+        }
+        return path;
+    }
+
+    /**
+     * The path of an entry is built from its segment keys, so it uses expanded names.
+     */
+    private Entry entry(final String[] keys, final int depth, final long acl) {
+        final StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            path.append('/').append(keys[i]);
+        }
+        return new Entry(depth == 0 ? "/" : path.toString(), decode(acl));
+    }
+
+    private Map<String, Collection<String>> decode(final long acl) {
+        final Map<String, Collection<String>> hit = decoded.getIfPresent(acl);
+        if (hit != null) {
+            return hit;
+        }
+        final ByteBuffer buffer = acls.buffer(acl);
+        int offset = Store.offset(acl) + 8;
+        final int principals = buffer.getInt(offset);
+        offset += 4;
+        final Map<String, Collection<String>> map = new HashMap<>(principals * 2);
+        for (int p = 0; p < principals; p++) {
+            final String principal = names.get(buffer.getInt(offset));
+            final int roles = buffer.getInt(offset + 4);
+            offset += 8;
+            final List<String> list = new ArrayList<>(roles);
+            for (int r = 0; r < roles; r++) {
+                list.add(names.get(buffer.getInt(offset)));
+                offset += 4;
+            }
+            map.put(principal, list);
+        }
+        final Map<String, Collection<String>> compiled = CompiledAcl.of(map);
+        decoded.put(acl, compiled);
+        return compiled;
+    }
+
+    /**
+     * Store an access control list, or take another reference to an equal one already stored.
+     *
+     * @return the address of the record
+     */
+    private long storeAcl(final Map<String, Collection<String>> acl) {
+        final Map<String, TreeSet<String>> sorted = new TreeMap<>();
+        int length = 4;
+        for (final Map.Entry<String, Collection<String>> entry : acl.entrySet()) {
+            final TreeSet<String> roles = new TreeSet<>(entry.getValue());
+            sorted.put(entry.getKey(), roles);
+            length += 8 + 4 * roles.size();
+        }
+        final ByteBuffer body = ByteBuffer.allocate(length);
+        body.putInt(sorted.size());
+        for (final Map.Entry<String, TreeSet<String>> entry : sorted.entrySet()) {
+            body.putInt(id(entry.getKey())).putInt(entry.getValue().size());
+            for (final String role : entry.getValue()) {
+                body.putInt(id(role));
+            }
+        }
+        body.flip();
+        final Long existing = aclAddresses.get(body);
+        if (existing != null) {
+            final ByteBuffer buffer = acls.buffer(existing);
+            final int offset = Store.offset(existing);
+            buffer.putInt(offset, buffer.getInt(offset) + 1);
+            return existing;
+        }
+        final ByteBuffer record = ByteBuffer.allocate(8 + length);
+        record.putInt(1).putInt(length).put(body);
+        final long address = acls.append(record.array());
+        aclAddresses.put(view(address), address);
+        aclCount.inc();
+        return address;
+    }
+
+    private void releaseAcl(final long acl) {
+        final ByteBuffer buffer = acls.buffer(acl);
+        final int offset = Store.offset(acl);
+        final int references = buffer.getInt(offset) - 1;
+        buffer.putInt(offset, references);
+        if (references == 0) {
+            aclAddresses.remove(view(acl));
+            garbage += 8 + buffer.getInt(offset + 4);
+            decoded.invalidate(acl);
+            aclCount.dec();
+        }
+    }
+
+    /**
+     * @return a view of the body of an access control list record, comparable by content
+     */
+    private ByteBuffer view(final long acl) {
+        final ByteBuffer view = acls.buffer(acl).duplicate();
+        final int offset = Store.offset(acl);
+        view.limit(offset + 8 + view.getInt(offset + 4));
+        view.position(offset + 8);
+        return view.slice();
+    }
+
+    private int id(final String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    private static long hash(final long parent, final String key) {
+        long h = parent * 0x9E3779B97F4A7C15L + key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static ByteBuffer allocate(final int bytes) {
+        allocatedBytes.inc(bytes);
+        return ByteBuffer.allocateDirect(bytes);
+    }
+
+    /**
+     * Append-only records in direct buffer segments. The address of a record is the index of its segment in the
+     * upper half and its offset in the lower half.
+     */
+    private static final class Store {
+
+        private final int segmentSize;
+
+        private final List<ByteBuffer> segments = new ArrayList<>();
+
+        private long allocated;
+
+        private long used;
+
+        private Store(final int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        private long append(final byte[] record) {
+            ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.remaining() < record.length) {
+                final int size = Math.max(segmentSize, record.length);
+                segment = allocate(size);
+                segments.add(segment);
+                allocated += size;
+            }
+            final long address = (long) (segments.size() - 1) << 32 | segment.position();
+            segment.put(record);
+            used += record.length;
+            return address;
+        }
+
+        private ByteBuffer buffer(final long address) {
+            return segments.get((int) (address >>> 32));
+        }
+
+        private static int offset(final long address) {
+            return (int) address;
+        }
+
+        private long allocated() {
+            return allocated;
+        }
+
+        private long used() {
+            return used;
+        }
+    }
+}
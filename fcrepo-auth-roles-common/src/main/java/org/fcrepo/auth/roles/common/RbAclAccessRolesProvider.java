@@ -17,19 +17,35 @@
  */
 package org.fcrepo.auth.roles.common;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
 import javax.jcr.Value;
+import javax.jcr.observation.EventJournal;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
 
 import org.fcrepo.auth.roles.common.Constants.JcrName;
 import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
@@ -37,7 +53,15 @@ import org.modeshape.jcr.value.Path;
 import org.slf4j.Logger;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+
 import static com.google.common.collect.Iterables.toArray;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static javax.jcr.query.Query.JCR_SQL2;
+import static org.fcrepo.auth.roles.common.AclPathKeys.keys;
 import static org.fcrepo.auth.roles.common.Constants.registerPrefixes;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.Assignment;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.Rbacl;
@@ -45,6 +69,7 @@ import static org.fcrepo.auth.roles.common.Constants.JcrName.assignment;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.principal;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclAssignable;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclData;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.role;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -59,25 +84,324 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
 
     private static final Logger LOGGER = getLogger(RbAclAccessRolesProvider.class);
 
+    /**
+     * Milliseconds before the position of a checkpoint from which its events are replayed, to cover events that
+     * were delivered, or committed by another cluster member, out of date order. Replaying an event twice is
+     * harmless.
+     */
+    private static final long CATCH_UP_OVERLAP = 60000;
+
+    /**
+     * Number of pending index writes above which the writes of sessions no longer live are swept on each write.
+     */
+    private static final int PENDING_SWEEP_SIZE = 1024;
+
+    private long aclCacheSize = 10000;
+
+    private long aclCacheTtl = 300;
+
+    private volatile EffectiveAclCache aclCache = new EffectiveAclCache(aclCacheSize, aclCacheTtl);
+
+    /**
+     * Layouts in which the roles assigned at a node are stored.
+     */
+    public enum StorageFormat {
+        /**
+         * One authz:assignment node per principal below the authz:rbacl node.
+         */
+        LEGACY,
+        /**
+         * A single authz:rbaclData property of the authz:rbacl node, encoded by {@link AclCodec}.
+         */
+        COMPACT
+    }
+
+    private volatile StorageFormat storageFormat = StorageFormat.LEGACY;
+
+    /**
+     * Where the entries of the ACL index are held.
+     */
+    public enum IndexStorage {
+        /**
+         * In a trie of objects on the heap.
+         */
+        HEAP,
+        /**
+         * In direct buffers outside of the heap, by {@link OffHeapAclIndex}.
+         */
+        OFF_HEAP
+    }
+
+    private volatile boolean aclIndexEnabled = false;
+
+    private volatile IndexStorage indexStorage = IndexStorage.HEAP;
+
+    private volatile boolean aclIndexLoaded = false;
+
+    private volatile boolean aclIndexPreloading = false;
+
+    /**
+     * Paths whose roles changed while the index was being preloaded, applied once the preloaded index is in place.
+     * Guarded by the index lock.
+     */
+    private Set<String> preloadChanges;
+
+    private volatile AclIndex aclIndex = new AclPathTrie();
+
+    private volatile File snapshotFile;
+
+    /**
+     * Date of the latest event whose changes are known to be in the index.
+     */
+    private volatile long indexPosition = 0;
+
+    private volatile long checkpointPosition = 0;
+
+    private long preloadStart = 0;
+
+    private final Object indexLock = new Object();
+
+    /**
+     * Uncommitted writes to indexed roles, by the segment keys of the written path, so that a lookup only probes
+     * the ancestors of the path it resolves.
+     */
+    private final ConcurrentMap<List<String>, PendingWrite> pendingIndexWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Loads the index in the background, set by {@link AclIndexPreloader}. Without it the index is never loaded.
+     */
+    private volatile Runnable indexLoader;
+
+    private final AtomicBoolean indexLoadRequested = new AtomicBoolean();
+
+    /**
+     * Paths found not to exist by the lookups made for each user session, so that probing for the nearest existing
+     * ancestor of new nodes does not look them up again. Lookups are made with pooled sessions shared by all users,
+     * so entries are kept per user session rather than per reading session. All entries of a user session expire
+     * together; entries that nodes added since may have made exist are forgotten earlier.
+     */
+    private volatile Cache<Session, Set<String>> missingPaths = missingPathsCache(1000);
+
+    @Inject
+    private RbAclSettings settings = null;
+
+    /**
+     * Apply the configured settings, if any.
+     */
+    @PostConstruct
+    public void configure() {
+        if (settings != null) {
+            settings.applyTo(this);
+        }
+    }
+
+    /**
+     * @param aclCacheSize the maximum number of access control lists held by the ACL cache
+     */
+    public void setAclCacheSize(final long aclCacheSize) {
+        this.aclCacheSize = aclCacheSize;
+        this.aclCache = new EffectiveAclCache(aclCacheSize, aclCacheTtl);
+    }
+
+    /**
+     * @param aclCacheTtl seconds after which a cached access control list is reloaded, or 0 for no expiry
+     */
+    public void setAclCacheTtl(final long aclCacheTtl) {
+        this.aclCacheTtl = aclCacheTtl;
+        this.aclCache = new EffectiveAclCache(aclCacheSize, aclCacheTtl);
+    }
+
+    /**
+     * @param missingPathsTtl milliseconds for which paths found not to exist are remembered per user session, or 0 to
+     *        look them up every time
+     */
+    public void setMissingPathsTtl(final long missingPathsTtl) {
+        this.missingPaths = missingPathsTtl > 0 ? missingPathsCache(missingPathsTtl) : null;
+    }
+
+    private static Cache<Session, Set<String>> missingPathsCache(final long ttl) {
+        return CacheBuilder.newBuilder().weakKeys().expireAfterWrite(ttl, MILLISECONDS).build();
+    }
+
+    /**
+     * Forget all paths found not to exist.
+     */
+    private void forgetMissingPaths() {
+        final Cache<Session, Set<String>> missing = missingPaths;
+        if (missing != null) {
+            missing.invalidateAll();
+        }
+    }
+
+    /**
+     * Forget the paths found not to exist at or below nodes that were added or moved into place, as they may now
+     * exist and hold roles. Writing roles needs no such step, since roles are only ever held by existing nodes.
+     *
+     * @param paths JCR paths of the added or moved nodes
+     * @param session session used to resolve namespace prefixes
+     * @throws RepositoryException if a prefix cannot be resolved
+     */
+    public void forgetMissingPaths(final Collection<String> paths, final Session session)
+            throws RepositoryException {
+        final Cache<Session, Set<String>> missing = missingPaths;
+        if (missing == null || paths.isEmpty() || missing.size() == 0) {
+            return;
+        }
+        // missing paths are remembered in expanded names, as segment keys render them
+        final List<String> added = new ArrayList<>(paths.size());
+        for (final String path : paths) {
+            added.add(AclPathKeys.toPath(keys(path, session)));
+        }
+        for (final Set<String> remembered : missing.asMap().values()) {
+            remembered.removeIf(path -> isAtOrBelowAny(path, added));
+        }
+    }
+
+    private static boolean isAtOrBelowAny(final String path, final List<String> ancestors) {
+        for (final String ancestor : ancestors) {
+            if (ancestor.equals("/") || path.startsWith(ancestor) &&
+                    (path.length() == ancestor.length() || path.charAt(ancestor.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param storageFormat the layout in which roles are written; both layouts are always read
+     */
+    public void setStorageFormat(final StorageFormat storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    /**
+     * @return the layout in which roles are written
+     */
+    public StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    /**
+     * @param aclIndexEnabled if true then effective roles are resolved from an in-memory index of every
+     *        rbaclAssignable node, loaded in the background by {@link AclIndexPreloader}
+     */
+    public void setAclIndexEnabled(final boolean aclIndexEnabled) {
+        this.aclIndexEnabled = aclIndexEnabled;
+    }
+
+    /**
+     * @param indexStorage where the entries of the index are held; takes effect when the index is next loaded
+     */
+    public void setIndexStorage(final IndexStorage indexStorage) {
+        this.indexStorage = indexStorage;
+    }
+
+    /**
+     * @return a new, empty index of the configured storage
+     */
+    AclIndex newIndex() {
+        return indexStorage == IndexStorage.OFF_HEAP ? new OffHeapAclIndex() : new AclPathTrie();
+    }
+
+    /**
+     * @param snapshotFile file in which the index is checkpointed, and from which it is loaded and caught up on
+     *        restart, or an empty string to always load the index from the repository
+     */
+    public void setIndexSnapshot(final String snapshotFile) {
+        this.snapshotFile = snapshotFile.isEmpty() ? null : new File(snapshotFile);
+    }
+
+    /**
+     * @return true if effective roles are resolved from the in-memory index
+     */
+    public boolean isAclIndexEnabled() {
+        return aclIndexEnabled;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Map<String, Collection<String>> getRoles(final Node node, final boolean effective) {
+        return getRoles(node, effective, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Collection<String>> getCachedRoles(final Node node, final boolean effective) {
+        return getRoles(node, effective, true);
+    }
+
+    /**
+     * {@inheritDoc} Nodes are grouped by their nearest rbaclAssignable ancestor: the ancestor of the children of one
+     * parent is looked up once, and the roles held by each ancestor are read once.
+     */
+    @Override
+    public List<Map<String, Collection<String>>> getEffectiveRoles(final List<Node> nodes) {
+        final List<Map<String, Collection<String>>> roles = new ArrayList<>(nodes.size());
+        // effective roles of every path walked so far
+        final Map<String, Map<String, Collection<String>>> resolved = new HashMap<>();
+        try {
+            for (final Node node : nodes) {
+                registerPrefixes(node.getSession());
+                roles.add(effectiveRoles(node, resolved));
+            }
+        } catch (final RepositoryException e) {
+            throw new RepositoryRuntimeException(e);
+        }
+        return roles;
+    }
+
+    private Map<String, Collection<String>> effectiveRoles(final Node node,
+            final Map<String, Map<String, Collection<String>>> resolved) throws RepositoryException {
+        final Session session = node.getSession();
+        if (aclIndexEnabled) {
+            final String[] keys = keys(node.getPath(), session);
+            if (indexCovers(keys, session)) {
+                final AclIndex.Entry entry = aclIndex.findNearest(keys);
+                return entry == null ? DEFAULT_ACCESS_ROLES : entry.getAcl();
+            }
+        }
+        final List<String> walked = new ArrayList<>();
+        Map<String, Collection<String>> data = null;
+        try {
+            for (Node n = node; n != null && data == null; n = n.getParent()) {
+                final String path = n.getPath();
+                if (resolved.containsKey(path)) {
+                    data = resolved.get(path);
+                    break;
+                }
+                walked.add(path);
+                if (n.isNodeType(rbaclAssignable.getQualified())) {
+                    data = readAssignments(n, true);
+                }
+            }
+        } catch (final ItemNotFoundException e) {
+            LOGGER.debug("No roles assigned above {}, using default access roles", node.getPath());
+            data = DEFAULT_ACCESS_ROLES;
+        }
+        for (final String path : walked) {
+            resolved.put(path, data);
+        }
+        return data;
+    }
+
+    private Map<String, Collection<String>> getRoles(final Node node, final boolean effective,
+            final boolean cached) {
         try {
             LOGGER.debug("Finding roles for: {}, effective={}", node.getPath(), effective);
         } catch (final RepositoryException e) {
             LOGGER.debug("Unable to get path! {}", e.getMessage());
         }
 
-        final Map<String, Collection<String>> data = new HashMap<>();
         try {
 
             final Session session = node.getSession();
             registerPrefixes(session);
             if (node.isNodeType(rbaclAssignable.getQualified())) {
-                getAssignments(node, data);
-                return data;
+                return readAssignments(node, cached);
             }
             if (effective) { // look up the tree
                 try {
@@ -86,7 +410,7 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
                             if (LOGGER.isDebugEnabled()) {
                                 LOGGER.debug("effective roles are assigned at node: {}", n.getPath());
                             }
-                            getAssignments(n, data);
+                            final Map<String, Collection<String>> data = readAssignments(n, cached);
                             if (LOGGER.isDebugEnabled()) {
                                 for (final Map.Entry<String, Collection<String>> entry : data.entrySet()) {
                                     LOGGER.debug("{} has role(s) {}", entry.getKey(), entry.getValue());
@@ -106,6 +430,33 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
         return null;
     }
 
+    /**
+     * Read the roles assigned at an rbaclAssignable node, optionally through the ACL cache.
+     *
+     * @param node an rbaclAssignable node
+     * @param cached if true then serve and store the roles through the ACL cache
+     * @return the roles assigned to each principal
+     * @throws RepositoryException
+     */
+    private Map<String, Collection<String>> readAssignments(final Node node, final boolean cached)
+            throws RepositoryException {
+        final Map<String, Collection<String>> data = new HashMap<>();
+        if (!cached) {
+            getAssignments(node, data);
+            return data;
+        }
+        final EffectiveAclCache cache = aclCache;
+        final String path = node.getPath();
+        final Map<String, Collection<String>> hit = cache.get(path);
+        if (hit != null) {
+            LOGGER.trace("ACL cache hit for {}", path);
+            return hit;
+        }
+        final long stamp = cache.stamp();
+        getAssignments(node, data);
+        return cache.put(path, data, stamp);
+    }
+
     /**
      * @param node
      * @param data
@@ -118,6 +469,10 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
             try {
                 final Node rbacl = node.getNode(JcrName.rbacl.getQualified());
                 LOGGER.debug("got rbacl: {}", rbacl);
+                if (rbacl.hasProperty(rbaclData.getQualified())) {
+                    data.putAll(AclCodec.decode(rbacl.getProperty(rbaclData.getQualified()).getString()));
+                    return;
+                }
                 for (final NodeIterator ni = rbacl.getNodes(); ni.hasNext();) {
                     final Node assign = ni.nextNode();
                     final String principalName =
@@ -156,31 +511,273 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
      * {@inheritDoc}
      */
     @Override
-    public void postRoles(final Node node, final Map<String, Set<String>> data)
+    public void postRoles(final Node node, final Map<String, Set<String>> data) throws RepositoryException {
+        postRolesIfChanged(node, data);
+    }
+
+    /**
+     * {@inheritDoc} Only what differs from the stored roles is written.
+     */
+    @Override
+    public boolean postRolesIfChanged(final Node node, final Map<String, Set<String>> data)
             throws RepositoryException {
         final Session session = node.getSession();
         registerPrefixes(session);
+        boolean changed = false;
         if (!node.isNodeType(rbaclAssignable.getQualified())) {
             node.addMixin(rbaclAssignable.getQualified());
             LOGGER.debug("added rbaclAssignable type");
+            changed = true;
         }
 
-        Node acl;
-
         if (node.hasNode(rbacl.getQualified())) {
-            acl = node.getNode(rbacl.getQualified());
-            for (final NodeIterator ni = acl.getNodes(); ni.hasNext();) {
-                ni.nextNode().remove();
+            final Node acl = node.getNode(rbacl.getQualified());
+            if (storageFormat == StorageFormat.COMPACT) {
+                changed |= updateCompact(acl, data);
+            } else {
+                changed |= updateAssignments(acl, data);
+            }
+        } else {
+            final Node acl = node.addNode(rbacl.getQualified(), Rbacl.getQualified());
+            if (storageFormat == StorageFormat.COMPACT) {
+                acl.setProperty(rbaclData.getQualified(), AclCodec.encode(data));
+            } else {
+                for (final Map.Entry<String, Set<String>> entry : data.entrySet()) {
+                    addAssignment(acl, entry.getKey(), entry.getValue());
+                }
+            }
+            changed = true;
+        }
+
+        if (changed) {
+            aclCache.invalidate(node.getPath(), session);
+            markIndexPending(node, session);
+        } else {
+            LOGGER.debug("Roles posted to {} are unchanged", node.getPath());
+        }
+        return changed;
+    }
+
+    /**
+     * {@inheritDoc} In the legacy layout only the assignments of the named principals are written. A patch that
+     * leaves no principal with roles deletes the ACL, as {@link #deleteRoles} does, since an empty ACL would hide the
+     * roles inherited from the ancestors.
+     */
+    @Override
+    public boolean patchRoles(final Node node, final Map<String, Set<String>> add,
+            final Map<String, Set<String>> remove) throws RepositoryException {
+        final Session session = node.getSession();
+        registerPrefixes(session);
+        final boolean changed;
+        if (!node.isNodeType(rbaclAssignable.getQualified()) || !node.hasNode(rbacl.getQualified())) {
+            final Map<String, Set<String>> data = patch(new HashMap<String, Set<String>>(), add, remove);
+            return !data.isEmpty() && postRolesIfChanged(node, data);
+        }
+        final Node acl = node.getNode(rbacl.getQualified());
+        if (storageFormat == StorageFormat.COMPACT || acl.hasProperty(rbaclData.getQualified())) {
+            final Map<String, Collection<String>> data = new HashMap<>();
+            getAssignments(node, data);
+            final Map<String, Set<String>> patched = patch(data, add, remove);
+            if (patched.isEmpty() && !data.isEmpty()) {
+                LOGGER.debug("Roles patched at {} leave no assignments, deleting the ACL", node.getPath());
+                deleteRoles(node);
+                changed = true;
+            } else {
+                changed = updateCompact(acl, patched);
             }
         } else {
-            acl = node.addNode(rbacl.getQualified(), Rbacl.getQualified());
+            changed = patchAssignments(acl, add, remove);
+        }
+        if (changed) {
+            aclCache.invalidate(node.getPath(), session);
+            markIndexPending(node, session);
+        } else {
+            LOGGER.debug("Roles patched at {} are unchanged", node.getPath());
+        }
+        return changed;
+    }
+
+    /**
+     * @param data the roles assigned to each principal
+     * @param add the roles to add to each principal
+     * @param remove the roles to remove from each principal
+     * @return the roles of each principal after the change, without principals left without roles
+     */
+    private static Map<String, Set<String>> patch(final Map<String, ? extends Collection<String>> data,
+            final Map<String, Set<String>> add, final Map<String, Set<String>> remove) {
+        final Map<String, Set<String>> patched = new HashMap<>();
+        data.forEach((principalName, roles) -> patched.put(principalName, new HashSet<>(roles)));
+        add.forEach((principalName, roles) -> patched.computeIfAbsent(principalName, p -> new HashSet<>())
+                .addAll(roles));
+        remove.forEach((principalName, roles) -> {
+            final Set<String> kept = patched.get(principalName);
+            if (kept != null) {
+                kept.removeAll(roles);
+                if (kept.isEmpty()) {
+                    patched.remove(principalName);
+                }
+            }
+        });
+        return patched;
+    }
+
+    /**
+     * Apply role changes to an existing ACL node in the legacy layout, touching only the assignments of the named
+     * principals. Several assignments of one principal are merged into the first. If no assignment is left, the ACL
+     * is deleted.
+     *
+     * @param acl the authz:rbacl node
+     * @param add the roles to add to each principal
+     * @param remove the roles to remove from each principal
+     * @return true if anything was written
+     * @throws RepositoryException
+     */
+    private boolean patchAssignments(final Node acl, final Map<String, Set<String>> add,
+            final Map<String, Set<String>> remove) throws RepositoryException {
+        final Map<String, List<Node>> assigns = new HashMap<>();
+        final Map<String, Set<String>> assigned = new HashMap<>();
+        boolean othersAssigned = false;
+        for (final NodeIterator ni = acl.getNodes(); ni.hasNext();) {
+            final Node assign = ni.nextNode();
+            final String principalName = assign.getProperty(principal.getQualified()).getString();
+            if (add.containsKey(principalName) || remove.containsKey(principalName)) {
+                assigns.computeIfAbsent(principalName, p -> new ArrayList<>()).add(assign);
+                assigned.computeIfAbsent(principalName, p -> new HashSet<>()).addAll(assignedRoles(assign));
+            } else {
+                othersAssigned = true;
+            }
+        }
+        final Map<String, Set<String>> patched = patch(assigned, add, remove);
+        if (patched.isEmpty() && !othersAssigned && !assigns.isEmpty()) {
+            LOGGER.debug("Roles patched at {} leave no assignments, deleting the ACL", acl.getParent().getPath());
+            deleteRoles(acl.getParent());
+            return true;
+        }
+        boolean changed = false;
+        for (final Map.Entry<String, List<Node>> entry : assigns.entrySet()) {
+            final Set<String> roles = patched.get(entry.getKey());
+            final List<Node> nodes = entry.getValue();
+            for (int i = roles == null ? 0 : 1; i < nodes.size(); i++) {
+                nodes.get(i).remove();
+                changed = true;
+            }
+            if (roles != null && !roles.equals(assignedRoles(nodes.get(0)))) {
+                nodes.get(0).setProperty(role.getQualified(), toArray(roles, String.class));
+                changed = true;
+            }
         }
+        for (final Map.Entry<String, Set<String>> entry : patched.entrySet()) {
+            if (!assigns.containsKey(entry.getKey())) {
+                addAssignment(acl, entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+        return changed;
+    }
 
+    /**
+     * Bring an existing ACL node in the legacy layout in line with the given roles, touching only the assignments
+     * of principals whose roles changed.
+     *
+     * @param acl the authz:rbacl node
+     * @param data the roles to assign
+     * @return true if anything was written
+     * @throws RepositoryException
+     */
+    private static boolean updateAssignments(final Node acl, final Map<String, Set<String>> data)
+            throws RepositoryException {
+        boolean changed = false;
+        if (acl.hasProperty(rbaclData.getQualified())) {
+            acl.getProperty(rbaclData.getQualified()).remove();
+            changed = true;
+        }
+        final Set<String> kept = new HashSet<>();
+        for (final NodeIterator ni = acl.getNodes(); ni.hasNext();) {
+            final Node assign = ni.nextNode();
+            final String principalName = assign.getProperty(principal.getQualified()).getString();
+            final Set<String> roles = data.get(principalName);
+            if (roles == null || !kept.add(principalName)) {
+                assign.remove();
+                changed = true;
+            } else if (!roles.equals(assignedRoles(assign))) {
+                assign.setProperty(role.getQualified(), toArray(roles, String.class));
+                changed = true;
+            }
+        }
         for (final Map.Entry<String, Set<String>> entry : data.entrySet()) {
-            final Node assign = acl.addNode(assignment.getQualified(), Assignment.getQualified());
-            assign.setProperty(principal.getQualified(), entry.getKey());
-            assign.setProperty(role.getQualified(), toArray(entry.getValue(), String.class));
+            if (!kept.contains(entry.getKey())) {
+                addAssignment(acl, entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Bring an existing ACL node in line with the given roles in the compact layout.
+     *
+     * @param acl the authz:rbacl node
+     * @param data the roles to assign
+     * @return true if anything was written
+     * @throws RepositoryException
+     */
+    private static boolean updateCompact(final Node acl, final Map<String, Set<String>> data)
+            throws RepositoryException {
+        boolean changed = false;
+        for (final NodeIterator ni = acl.getNodes(); ni.hasNext();) {
+            ni.nextNode().remove();
+            changed = true;
+        }
+        final String encoded = AclCodec.encode(data);
+        if (!acl.hasProperty(rbaclData.getQualified()) ||
+                !encoded.equals(acl.getProperty(rbaclData.getQualified()).getString())) {
+            acl.setProperty(rbaclData.getQualified(), encoded);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private static Set<String> assignedRoles(final Node assign) throws RepositoryException {
+        final Set<String> roles = new HashSet<>();
+        if (assign.hasProperty(role.getQualified())) {
+            for (final Value v : assign.getProperty(role.getQualified()).getValues()) {
+                roles.add(v.getString());
+            }
+        }
+        return roles;
+    }
+
+    private static void addAssignment(final Node acl, final String principalName, final Set<String> roles)
+            throws RepositoryException {
+        final Node assign = acl.addNode(assignment.getQualified(), Assignment.getQualified());
+        assign.setProperty(principal.getQualified(), principalName);
+        assign.setProperty(role.getQualified(), toArray(roles, String.class));
+    }
+
+    /**
+     * Rewrite the roles assigned at a node from the legacy layout into the compact one. The roles themselves are
+     * unchanged, so cached and indexed roles stay valid.
+     *
+     * @param node an rbaclAssignable node
+     * @return true if the node held roles in the legacy layout and was rewritten
+     * @throws RepositoryException if the roles could not be read or written
+     */
+    public boolean migrateRoles(final Node node) throws RepositoryException {
+        registerPrefixes(node.getSession());
+        if (!node.isNodeType(rbaclAssignable.getQualified()) || !node.hasNode(rbacl.getQualified())) {
+            return false;
+        }
+        final Node acl = node.getNode(rbacl.getQualified());
+        if (acl.hasProperty(rbaclData.getQualified())) {
+            return false;
         }
+        final Map<String, Collection<String>> data = new HashMap<>();
+        getAssignments(node, data);
+        for (final NodeIterator ni = acl.getNodes(); ni.hasNext();) {
+            ni.nextNode().remove();
+        }
+        acl.setProperty(rbaclData.getQualified(), AclCodec.encode(data));
+        return true;
     }
 
     /**
@@ -191,6 +788,8 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
         final Session session = node.getSession();
         registerPrefixes(session);
         if (node.isNodeType(rbaclAssignable.getQualified())) {
+            aclCache.invalidate(node.getPath(), session);
+            markIndexPending(node, session);
             // remove rbacl child
             try {
                 final Node rbacl = node.getNode(JcrName.rbacl.getQualified());
@@ -203,26 +802,614 @@ public class RbAclAccessRolesProvider implements AccessRolesProvider {
         }
     }
 
+    /**
+     * {@inheritDoc} The descendants are found with one query, and their roles are read past the ACL cache.
+     */
+    @Override
+    public Iterator<AccessRolesEntry> exportRoles(final Node node) throws RepositoryException {
+        final Session session = node.getSession();
+        registerPrefixes(session);
+        final boolean assignable = node.isNodeType(rbaclAssignable.getQualified());
+        final NodeIterator descendants = queryAssignable(session, node.getPath());
+        return new AbstractIterator<AccessRolesEntry>() {
+
+            private boolean self = assignable;
+
+            @Override
+            protected AccessRolesEntry computeNext() {
+                try {
+                    if (self) {
+                        self = false;
+                        return exportEntry(node);
+                    }
+                    return descendants.hasNext() ? exportEntry(descendants.nextNode()) : endOfData();
+                } catch (final RepositoryException e) {
+                    throw new RepositoryRuntimeException(e);
+                }
+            }
+        };
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Map<String, Collection<String>> findRolesForPath(final Path absPath,
             final Session session) throws RepositoryException {
+        return findRolesForPath(absPath, session, null);
+    }
+
+    /**
+     * Finds effective roles assigned to a path on behalf of a user session, as {@link #findRolesForPath(Path,
+     * Session)} does, skipping the paths that earlier lookups for the same user session found missing.
+     *
+     * @param absPath the real or potential node path
+     * @param session session used to read the repository
+     * @param userSession the user session the lookup is made for, or null to not remember missing paths
+     * @return the roles assigned to each principal
+     * @throws RepositoryException if PathNotFoundException can not handle
+     */
+    public Map<String, Collection<String>> findRolesForPath(final Path absPath, final Session session,
+            final Session userSession) throws RepositoryException {
+        if (aclIndexEnabled) {
+            final String[] keys = keys(absPath);
+            if (indexCovers(keys, session)) {
+                final AclIndex.Entry entry = aclIndex.findNearest(keys);
+                LOGGER.trace("ACL index resolved {} to {}", absPath, entry == null ? null : entry.getPath());
+                return entry == null ? DEFAULT_ACCESS_ROLES : entry.getAcl();
+            }
+        }
+        final Cache<Session, Set<String>> missingCache = missingPaths;
+        final Set<String> missing = missingCache == null || userSession == null ? null :
+                missingCache.asMap().computeIfAbsent(userSession, s -> ConcurrentHashMap.newKeySet());
         Node node = null;
         for (Path p = absPath; p != null; p = p.getParent()) {
-            try {
-                if (p.isRoot()) {
-                    node = session.getRootNode();
-                } else {
-                    node = session.getNode(p.getString());
-                }
+            if (p.isRoot()) {
+                node = session.getRootNode();
                 break;
-            } catch (final PathNotFoundException e) {
-                LOGGER.trace("Cannot find node: {}, trying parent.", p, e);
             }
+            final String path = p.getString();
+            if (missing != null && missing.contains(path)) {
+                continue;
+            }
+            if (session.nodeExists(path)) {
+                node = session.getNode(path);
+                break;
+            }
+            LOGGER.trace("Cannot find node: {}, trying parent.", p);
+            if (missing != null) {
+                missing.add(path);
+            }
+        }
+        return this.getRoles(node, true, true);
+    }
+
+    /**
+     * Request the index be loaded on first use, and bring entries written by this provider up to date once their
+     * changes are committed. The index is never loaded on the calling thread: until it is in place lookups are
+     * resolved from the repository.
+     *
+     * @param keys segment keys of the path being resolved
+     * @param session session used to read the repository
+     * @return false if the index is not loaded yet, or if an uncommitted write may change the effective roles of
+     *         the path
+     * @throws RepositoryException
+     */
+    private boolean indexCovers(final String[] keys, final Session session) throws RepositoryException {
+        if (!aclIndexLoaded) {
+            if (!aclIndexPreloading) {
+                requestIndexLoad();
+            }
+            return false;
+        }
+        if (pendingIndexWrites.isEmpty()) {
+            return true;
+        }
+        final List<String> path = Arrays.asList(keys);
+        boolean covered = true;
+        for (int i = 0; i <= keys.length; i++) {
+            final List<String> ancestor = path.subList(0, i);
+            final PendingWrite pending = pendingIndexWrites.get(ancestor);
+            if (pending == null) {
+                continue;
+            }
+            if (pending.writer.isLive()) {
+                covered = false;
+            } else {
+                refreshIndexEntry(pending.path, pending.keys, session);
+                pendingIndexWrites.remove(ancestor, pending);
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Have the index loaded in the background, once, unless a load is already running.
+     */
+    private void requestIndexLoad() {
+        final Runnable loader = indexLoader;
+        if (loader != null && indexLoadRequested.compareAndSet(false, true)) {
+            LOGGER.info("Loading the ACL index in the background, lookups use the repository until it is loaded");
+            loader.run();
+        }
+    }
+
+    /**
+     * @param loader loads the index in the background when it is first needed
+     */
+    void setIndexLoader(final Runnable loader) {
+        this.indexLoader = loader;
+    }
+
+    /**
+     * Build a new index from the repository and swap it in. Callers must hold the index lock.
+     *
+     * @param session session used to query the repository
+     * @throws RepositoryException
+     */
+    private void buildIndex(final Session session) throws RepositoryException {
+        registerPrefixes(session);
+        final long start = System.currentTimeMillis();
+        final AclIndex index = newIndex();
+        for (final NodeIterator ni = queryAssignable(session, null); ni.hasNext();) {
+            final Node node = ni.nextNode();
+            index.put(keys(node.getPath(), session), indexEntry(node));
+        }
+        aclIndex = index;
+        aclIndexLoaded = true;
+        indexCaughtUp(start);
+        LOGGER.info("Loaded {} access control lists into the ACL index in {} ms, holding {} bytes off the heap",
+                index.size(), System.currentTimeMillis() - start, index.offHeapBytes());
+    }
+
+    /**
+     * @param session session used to query the repository
+     * @param ancestor path below which to search, or null to search the whole repository
+     * @return the rbaclAssignable nodes found
+     * @throws RepositoryException
+     */
+    static NodeIterator queryAssignable(final Session session, final String ancestor)
+            throws RepositoryException {
+        return queryNodes(session, rbaclAssignable, ancestor);
+    }
+
+    /**
+     * @param session session used to query the repository
+     * @param ancestor path below which to search
+     * @return the rbacl nodes holding the access control lists found
+     * @throws RepositoryException
+     */
+    static NodeIterator queryAcls(final Session session, final String ancestor) throws RepositoryException {
+        return queryNodes(session, Rbacl, ancestor);
+    }
+
+    private static NodeIterator queryNodes(final Session session, final JcrName type, final String ancestor)
+            throws RepositoryException {
+        final StringBuilder sql = new StringBuilder("SELECT [jcr:path] FROM [")
+                .append(type.getQualified()).append("] AS n");
+        if (ancestor != null) {
+            sql.append(" WHERE ISDESCENDANTNODE(n, '").append(ancestor.replace("'", "''")).append("')");
+        }
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final Query query = queryManager.createQuery(sql.toString(), JCR_SQL2);
+        return query.execute().getNodes();
+    }
+
+    /**
+     * Re-read the committed roles at a path into the index.
+     *
+     * @param path JCR path of a node whose roles were written
+     * @param keys segment keys of the path
+     * @param session session used to read the repository
+     * @throws RepositoryException
+     */
+    private void refreshIndexEntry(final String path, final String[] keys, final Session session)
+            throws RepositoryException {
+        synchronized (indexLock) {
+            refreshIndexEntry(aclIndex, path, keys, session);
+        }
+    }
+
+    private void refreshIndexEntry(final AclIndex index, final String path, final String[] keys,
+            final Session session) throws RepositoryException {
+        if (session.nodeExists(path)) {
+            final Node node = session.getNode(path);
+            if (node.isNodeType(rbaclAssignable.getQualified())) {
+                index.put(keys, indexEntry(node));
+                return;
+            }
+        }
+        index.remove(keys);
+    }
+
+    /**
+     * Read the index from its checkpoint, and bring it up to date with the changes recorded in the event journal
+     * since. The journal must keep events for longer than the repository may be down, as changes no longer in the
+     * journal are missed.
+     *
+     * @param session session used to read the repository
+     * @return the caught up index, or null if there is no usable checkpoint or the journal cannot be read
+     */
+    AclIndex restoreIndex(final Session session) {
+        final File file = snapshotFile;
+        if (file == null) {
+            return null;
+        }
+        final long start = System.currentTimeMillis();
+        final AclIndexSnapshot snapshot = AclIndexSnapshot.read(file, newIndex());
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            registerPrefixes(session);
+            final EventJournal journal = session.getWorkspace().getObservationManager()
+                    .getEventJournal(AclChanges.EVENT_TYPES, "/", true, null, null);
+            if (journal == null) {
+                LOGGER.warn("The event journal is not enabled, unable to catch up on ACL index checkpoint {}", file);
+                return null;
+            }
+            journal.skipTo(snapshot.getPosition() - CATCH_UP_OVERLAP);
+            final AclChanges changes = new AclChanges();
+            int events = 0;
+            while (journal.hasNext()) {
+                changes.collect(journal.nextEvent());
+                events++;
+            }
+            final AclIndex index = snapshot.getIndex();
+            applyChanges(index, changes, session);
+            checkpointPosition = snapshot.getPosition();
+            indexPosition = Math.max(snapshot.getPosition(), changes.getLatestEventDate());
+            LOGGER.info("Loaded {} access control lists from ACL index checkpoint {} and caught up on {} events"
+                    + " in {} ms", index.size(), file, events, System.currentTimeMillis() - start);
+            return index;
+        } catch (final UnsupportedRepositoryOperationException e) {
+            LOGGER.warn("The event journal is not supported, unable to catch up on ACL index checkpoint {}", file);
+        } catch (final RepositoryException | RuntimeException e) {
+            LOGGER.warn("Unable to catch up on ACL index checkpoint " + file + ", rebuilding the index", e);
+        }
+        return null;
+    }
+
+    /**
+     * Bring an index up to date with collected changes.
+     *
+     * @param index the index
+     * @param changes the changes
+     * @param session session used to read the repository
+     * @throws RepositoryException
+     */
+    private void applyChanges(final AclIndex index, final AclChanges changes, final Session session)
+            throws RepositoryException {
+        for (final String path : changes.drainRemoved()) {
+            index.removeSubtree(keys(path, session));
+        }
+        for (final String path : changes.drainMoved()) {
+            final String[] keys = keys(path, session);
+            index.removeSubtree(keys);
+            refreshIndexEntry(index, path, keys, session);
+            for (final NodeIterator ni = queryAssignable(session, path); ni.hasNext();) {
+                final Node node = ni.nextNode();
+                refreshIndexEntry(index, node.getPath(), keys(node.getPath(), session), session);
+            }
+        }
+        for (final String path : changes.drainChanged()) {
+            refreshIndexEntry(index, path, keys(path, session), session);
+        }
+    }
+
+    /**
+     * Record that the changes of all events up to a date are in the index.
+     *
+     * @param eventDate date of the latest event applied, in milliseconds
+     */
+    public void indexCaughtUp(final long eventDate) {
+        synchronized (indexLock) {
+            if (eventDate > indexPosition) {
+                indexPosition = eventDate;
+            }
+        }
+    }
+
+    /**
+     * Write the index to its checkpoint file, if checkpoints are enabled and the index changed since the last one.
+     */
+    public void checkpointIndex() {
+        final File file = snapshotFile;
+        if (file == null || !aclIndexLoaded) {
+            return;
+        }
+        final long position = indexPosition;
+        if (position == checkpointPosition) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            final int count = AclIndexSnapshot.write(aclIndex, position, file);
+            checkpointPosition = position;
+            LOGGER.info("Wrote {} access control lists to ACL index checkpoint {} in {} ms", count, file,
+                    System.currentTimeMillis() - start);
+        } catch (final IOException e) {
+            LOGGER.warn("Unable to write ACL index checkpoint {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Checkpoint the index on shutdown.
+     */
+    @PreDestroy
+    public void close() {
+        checkpointIndex();
+    }
+
+    /**
+     * Re-read the roles at a path that were changed outside of this provider, such as by an import or by another
+     * cluster member.
+     *
+     * @param path JCR path of a node whose roles or mixin types changed
+     * @param session session used to read the repository
+     * @throws RepositoryException if repository exception occurred
+     */
+    public void refreshRoles(final String path, final Session session) throws RepositoryException {
+        aclCache.invalidate(path, null);
+        if (!deferIndexChange(path) && aclIndexLoaded) {
+            refreshIndexEntry(path, keys(path, session), session);
+        }
+    }
+
+    /**
+     * The generation of the ACL cache, which changes whenever roles are written, removed or reloaded.
+     */
+    @Override
+    public long getRolesGeneration() {
+        return aclCache.stamp();
+    }
+
+    /**
+     * Forget the roles at a path and at all of its descendants, after the subtree was removed or moved away.
+     *
+     * @param path JCR path of the removed subtree
+     * @param session session used to resolve the path
+     * @throws RepositoryException if repository exception occurred
+     */
+    public void removeRolesSubtree(final String path, final Session session) throws RepositoryException {
+        removeRolesSubtrees(singletonList(path), session);
+    }
+
+    /**
+     * Forget the roles at several paths and at all of their descendants, after the subtrees were removed or moved
+     * away. The cache is swept once for all of the paths.
+     *
+     * @param paths JCR paths of the removed subtrees
+     * @param session session used to resolve the paths
+     * @throws RepositoryException if repository exception occurred
+     */
+    public void removeRolesSubtrees(final Collection<String> paths, final Session session)
+            throws RepositoryException {
+        aclCache.invalidateSubtrees(paths);
+        for (final String path : paths) {
+            if (!deferIndexChange(path) && aclIndexLoaded) {
+                synchronized (indexLock) {
+                    aclIndex.removeSubtree(keys(path, session));
+                }
+            }
+        }
+    }
+
+    /**
+     * Select the removed subtrees whose removal may change access roles: those holding cached or indexed roles.
+     * While an index preload is running every path is selected, since the preloaded index may hold any of them.
+     *
+     * @param paths JCR paths of removed subtrees
+     * @param session session used to resolve the paths
+     * @return those of the paths at or below which roles are cached or indexed
+     * @throws RepositoryException if repository exception occurred
+     */
+    public List<String> aclSubtrees(final Collection<String> paths, final Session session)
+            throws RepositoryException {
+        if (aclIndexPreloading) {
+            return new ArrayList<>(paths);
+        }
+        final Set<String> cached = aclCache.cachedSubtrees(paths);
+        final List<String> selected = new ArrayList<>();
+        for (final String path : paths) {
+            if (cached.contains(path) || aclIndexLoaded && aclIndex.containsSubtree(keys(path, session))) {
+                selected.add(path);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Select the nodes whose change of mixin types may change access roles: those that are rbaclAssignable now, or
+     * whose roles are cached or indexed because they were. While an index preload is running every path is
+     * selected, since the preloaded index may hold any of them.
+     *
+     * @param paths JCR paths of nodes whose mixin types changed
+     * @param session session used to read the repository
+     * @return those of the paths that are or were rbaclAssignable
+     * @throws RepositoryException if repository exception occurred
+     */
+    public List<String> assignableNodes(final Collection<String> paths, final Session session)
+            throws RepositoryException {
+        if (aclIndexPreloading) {
+            return new ArrayList<>(paths);
+        }
+        final List<String> selected = new ArrayList<>();
+        for (final String path : paths) {
+            if (aclCache.get(path) != null || aclIndexLoaded && aclIndex.get(keys(path, session)) != null ||
+                    session.nodeExists(path) && session.getNode(path).isNodeType(rbaclAssignable.getQualified())) {
+                selected.add(path);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Re-read the roles at a path and at all of its descendants, after the subtree was moved into place.
+     *
+     * @param path JCR path of the subtree
+     * @param session session used to read the repository
+     * @throws RepositoryException if repository exception occurred
+     */
+    public void rescanRolesSubtree(final String path, final Session session) throws RepositoryException {
+        removeRolesSubtree(path, session);
+        refreshRoles(path, session);
+        if (!deferIndexChange(path) && aclIndexLoaded) {
+            registerPrefixes(session);
+            for (final NodeIterator ni = queryAssignable(session, path); ni.hasNext();) {
+                final Node node = ni.nextNode();
+                refreshIndexEntry(node.getPath(), keys(node.getPath(), session), session);
+            }
+        }
+    }
+
+    /**
+     * Drop all cached roles and rebuild the index, if it is in use. Lookups are served from the previous index
+     * until the new one is complete.
+     *
+     * @param session session used to read the repository
+     * @throws RepositoryException if repository exception occurred
+     */
+    public void reloadRoles(final Session session) throws RepositoryException {
+        aclCache.invalidateAll();
+        forgetMissingPaths();
+        if (!deferIndexChange("/") && aclIndexLoaded) {
+            synchronized (indexLock) {
+                buildIndex(session);
+            }
+        }
+    }
+
+    /**
+     * Serve lookups without the index until {@link #completeIndexPreload} installs a preloaded one, recording the
+     * paths whose roles change in the meantime.
+     */
+    void beginIndexPreload() {
+        synchronized (indexLock) {
+            preloadStart = System.currentTimeMillis();
+            preloadChanges = new HashSet<>();
+            aclIndexPreloading = true;
+        }
+    }
+
+    /**
+     * Read the roles at a path into an index being preloaded.
+     *
+     * @param index the index being preloaded
+     * @param path path of an rbaclAssignable node
+     * @param session session used to read the repository
+     * @throws RepositoryException if repository exception occurred
+     */
+    void preloadIndexEntry(final AclIndex index, final String path, final Session session)
+            throws RepositoryException {
+        if (session.nodeExists(path)) {
+            final Node node = session.getNode(path);
+            if (node.isNodeType(rbaclAssignable.getQualified())) {
+                index.put(keys(path, session), indexEntry(node));
+            }
+        }
+    }
+
+    /**
+     * Install a preloaded index and bring the paths changed while it was loading up to date.
+     *
+     * @param index the preloaded index
+     * @param session session used to read the repository
+     * @throws RepositoryException if repository exception occurred
+     */
+    void completeIndexPreload(final AclIndex index, final Session session) throws RepositoryException {
+        synchronized (indexLock) {
+            final Set<String> changed = preloadChanges;
+            preloadChanges = null;
+            aclIndex = index;
+            aclIndexLoaded = true;
+            aclIndexPreloading = false;
+            registerPrefixes(session);
+            for (final String path : changed) {
+                rescanRolesSubtree(path, session);
+            }
+            indexCaughtUp(preloadStart);
+            LOGGER.debug("Applied {} access roles changes made while the ACL index was preloaded", changed.size());
+        }
+    }
+
+    /**
+     * Give up a preload; the index is then loaded again when next used.
+     */
+    void abortIndexPreload() {
+        synchronized (indexLock) {
+            preloadChanges = null;
+            aclIndexPreloading = false;
+            indexLoadRequested.set(false);
+        }
+    }
+
+    /**
+     * @param path path whose roles changed
+     * @return true if an index preload is running and the change was recorded for when it completes
+     */
+    private boolean deferIndexChange(final String path) {
+        synchronized (indexLock) {
+            if (preloadChanges == null) {
+                return false;
+            }
+            preloadChanges.add(path);
+            return true;
+        }
+    }
+
+    private AclIndex.Entry indexEntry(final Node node) throws RepositoryException {
+        final Map<String, Collection<String>> data = new HashMap<>();
+        getAssignments(node, data);
+        return new AclIndex.Entry(node.getPath(), EffectiveAclCache.immutableCopy(data));
+    }
+
+    private AccessRolesEntry exportEntry(final Node node) throws RepositoryException {
+        final AclIndex.Entry entry = indexEntry(node);
+        return new AccessRolesEntry(entry.getPath(), entry.getAcl());
+    }
+
+    /**
+     * Record a write to the roles at a node, to be applied to the index once the writing session is done.
+     *
+     * @param node the node whose roles are written
+     * @param session the writing session
+     * @throws RepositoryException
+     */
+    private void markIndexPending(final Node node, final Session session) throws RepositoryException {
+        if (aclIndexEnabled) {
+            final String path = node.getPath();
+            final String[] keys = keys(path, session);
+            pendingIndexWrites.put(Arrays.asList(keys), new PendingWrite(path, keys, session));
+            if (pendingIndexWrites.size() > PENDING_SWEEP_SIZE && aclIndexLoaded) {
+                // writes no lookup went through are otherwise kept until one does
+                for (final Map.Entry<List<String>, PendingWrite> entry : pendingIndexWrites.entrySet()) {
+                    final PendingWrite pending = entry.getValue();
+                    if (!pending.writer.isLive()) {
+                        refreshIndexEntry(pending.path, pending.keys, session);
+                        pendingIndexWrites.remove(entry.getKey(), pending);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An uncommitted write to the roles at a path.
+     */
+    private static final class PendingWrite {
+
+        private final String path;
+
+        private final String[] keys;
+
+        private final Session writer;
+
+        private PendingWrite(final String path, final String[] keys, final Session writer) {
+            this.path = path;
+            this.keys = keys;
+            this.writer = writer;
         }
-        return this.getRoles(node, true);
     }
 
 }
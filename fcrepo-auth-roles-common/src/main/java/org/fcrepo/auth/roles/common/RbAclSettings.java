@@ -0,0 +1,117 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider.IndexStorage;
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider.StorageFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The configured settings of {@link RbAclAccessRolesProvider}, applied to it once it is constructed.
+ *
+ * @author agent
+ */
+@Component
+public class RbAclSettings {
+
+    private long aclCacheSize = 10000;
+
+    private long aclCacheTtl = 300;
+
+    private long missingPathsTtl = 1000;
+
+    private StorageFormat storageFormat = StorageFormat.LEGACY;
+
+    private boolean aclIndexEnabled = false;
+
+    private IndexStorage indexStorage = IndexStorage.HEAP;
+
+    private String indexSnapshot = "";
+
+    /**
+     * @param aclCacheSize the maximum number of access control lists held by the ACL cache
+     */
+    @Value("${fcrepo.auth.rbacl.cache.size:10000}")
+    public void setAclCacheSize(final long aclCacheSize) {
+        this.aclCacheSize = aclCacheSize;
+    }
+
+    /**
+     * @param aclCacheTtl seconds after which a cached access control list is reloaded, or 0 for no expiry
+     */
+    @Value("${fcrepo.auth.rbacl.cache.ttl:300}")
+    public void setAclCacheTtl(final long aclCacheTtl) {
+        this.aclCacheTtl = aclCacheTtl;
+    }
+
+    /**
+     * @param missingPathsTtl milliseconds for which paths found not to exist are remembered per user session, or 0 to
+     *        look them up every time
+     */
+    @Value("${fcrepo.auth.rbacl.missingPaths.ttl:1000}")
+    public void setMissingPathsTtl(final long missingPathsTtl) {
+        this.missingPathsTtl = missingPathsTtl;
+    }
+
+    /**
+     * @param storageFormat the layout in which roles are written; both layouts are always read
+     */
+    @Value("${fcrepo.auth.rbacl.storage.format:LEGACY}")
+    public void setStorageFormat(final StorageFormat storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    /**
+     * @param aclIndexEnabled if true then effective roles are resolved from an in-memory index of every
+     *        rbaclAssignable node
+     */
+    @Value("${fcrepo.auth.rbacl.index:false}")
+    public void setAclIndexEnabled(final boolean aclIndexEnabled) {
+        this.aclIndexEnabled = aclIndexEnabled;
+    }
+
+    /**
+     * @param indexStorage where the entries of the index are held
+     */
+    @Value("${fcrepo.auth.rbacl.index.storage:HEAP}")
+    public void setIndexStorage(final IndexStorage indexStorage) {
+        this.indexStorage = indexStorage;
+    }
+
+    /**
+     * @param indexSnapshot file in which the index is checkpointed, or an empty string for none
+     */
+    @Value("${fcrepo.auth.rbacl.index.snapshot:}")
+    public void setIndexSnapshot(final String indexSnapshot) {
+        this.indexSnapshot = indexSnapshot;
+    }
+
+    /**
+     * @param provider the provider to configure
+     */
+    void applyTo(final RbAclAccessRolesProvider provider) {
+        provider.setAclCacheSize(aclCacheSize);
+        provider.setAclCacheTtl(aclCacheTtl);
+        provider.setMissingPathsTtl(missingPathsTtl);
+        provider.setStorageFormat(storageFormat);
+        provider.setAclIndexEnabled(aclIndexEnabled);
+        provider.setIndexStorage(indexStorage);
+        provider.setIndexSnapshot(indexSnapshot);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Interns role names to small integer ids, so that a set of effective roles can be held as the bits of a long. Ids
+ * are assigned on first use and never reused. Once every bit is taken, further role names map to {@link #UNMAPPED},
+ * and decisions on masks holding that bit must fall back to role names.
+ *
+ * @author agent
+ */
+public final class RoleIds {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoleIds.class);
+
+    /**
+     * Bit set in a mask that holds at least one role without an id of its own.
+     */
+    public static final long UNMAPPED = 1L << 63;
+
+    private static final int CAPACITY = 63;
+
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+
+    private static final String[] NAMES = new String[CAPACITY];
+
+    private static int count = 0;
+
+    private static boolean exhausted = false;
+
+    /**
+     * No public constructor for utility class
+     */
+    private RoleIds() {
+    }
+
+    /**
+     * @param role a role name
+     * @return the mask holding only the role, or {@link #UNMAPPED} if no id is left for it
+     */
+    public static long bit(final String role) {
+        final Integer id = IDS.get(role);
+        return id != null ? 1L << id : register(role);
+    }
+
+    /**
+     * @param roles role names
+     * @return the mask holding the roles
+     */
+    public static long mask(final Collection<String> roles) {
+        long mask = 0;
+        for (final String role : roles) {
+            mask |= bit(role);
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask a mask of roles
+     * @return the names of the roles in the mask, leaving out any {@link #UNMAPPED} roles
+     */
+    public static Set<String> names(final long mask) {
+        final Set<String> names = new HashSet<>(Long.bitCount(mask) * 2);
+        for (long bits = mask & ~UNMAPPED; bits != 0; bits &= bits - 1) {
+            names.add(NAMES[Long.numberOfTrailingZeros(bits)]);
+        }
+        return names;
+    }
+
+    private static synchronized long register(final String role) {
+        Integer id = IDS.get(role);
+        if (id == null) {
+            if (count == CAPACITY) {
+                if (!exhausted) {
+                    exhausted = true;
+                    LOGGER.warn("All {} role ids are taken, permission checks with further roles such as {} will"
+                            + " use role names", CAPACITY, role);
+                }
+                return UNMAPPED;
+            }
+            id = count++;
+            NAMES[id] = role;
+            IDS.put(role, id);
+        }
+        return 1L << id;
+    }
+}
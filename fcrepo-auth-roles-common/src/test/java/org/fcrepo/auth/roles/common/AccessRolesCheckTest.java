@@ -0,0 +1,180 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.FORBIDDEN;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.fcrepo.auth.common.ServletContainerAuthenticationProvider.FEDORA_ADMIN_ROLE;
+import static org.fcrepo.http.commons.test.util.TestHelpers.mockSession;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.security.Principal;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.SecurityContext;
+
+import org.fcrepo.auth.roles.common.AccessRolesCheck.Check;
+import org.fcrepo.auth.roles.common.AccessRolesCheck.Checks;
+import org.fcrepo.http.commons.session.HttpSession;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.kernel.api.models.FedoraResource;
+import org.fcrepo.kernel.api.services.NodeService;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AccessRolesCheckTest {
+
+    @Mock
+    private AbstractRolesAuthorizationDelegate authorizationDelegate;
+
+    @Mock
+    private SecurityContext securityContext;
+
+    @Mock
+    private NodeService nodeService;
+
+    @Mock
+    private FedoraResource fedoraResource;
+
+    @Mock
+    private FedoraSessionImpl fedoraSession;
+
+    @Mock
+    private HttpSession session;
+
+    @Mock
+    private Node mockNode;
+
+    @Mock
+    private Principal everyone;
+
+    private Session jcrSession;
+
+    private AccessRolesCheck accessRolesCheck;
+
+    private Checks checks;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        accessRolesCheck = new AccessRolesCheck("/some/path");
+        setField(accessRolesCheck, "authorizationDelegate", authorizationDelegate);
+        setField(accessRolesCheck, "securityContext", securityContext);
+        setField(accessRolesCheck, "nodeService", nodeService);
+        jcrSession = mockSession(accessRolesCheck);
+        setField(accessRolesCheck, "session", session);
+
+        when(session.getFedoraSession()).thenReturn(fedoraSession);
+        when(fedoraSession.getJcrSession()).thenReturn(jcrSession);
+        when(jcrSession.getNode(anyString())).thenReturn(mockNode);
+        when(nodeService.find(any(FedoraSession.class), anyString())).thenReturn(fedoraResource);
+        when(securityContext.isUserInRole(FEDORA_ADMIN_ROLE)).thenReturn(true);
+        when(everyone.getName()).thenReturn("EVERYONE");
+        when(authorizationDelegate.getEveryonePrincipal()).thenReturn(everyone);
+
+        checks = new Checks();
+        checks.setPrincipals(asList("user1", "group1", "user1"));
+        checks.setChecks(asList(new Check("hit1", "read"), new Check("hit2", "read"),
+                new Check("/hit3", "add_node,set_property")));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Test
+    public void testPostDecidesEachCheck() {
+        when(authorizationDelegate.checkAccess(any(Session.class), anySetOf(Principal.class),
+                anyListOf(Node.class), anyListOf(String[].class))).thenReturn(BitSet.valueOf(new long[] {0b101}));
+
+        final Response response = accessRolesCheck.post(checks);
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertEquals(asList(true, false, true), response.getEntity());
+        final ArgumentCaptor<Set> principals = ArgumentCaptor.forClass(Set.class);
+        final ArgumentCaptor<List> actions = ArgumentCaptor.forClass(List.class);
+        verify(authorizationDelegate).checkAccess(any(Session.class), principals.capture(), anyListOf(Node.class),
+                actions.capture());
+        assertEquals("The named principals and EVERYONE are expected", 3, principals.getValue().size());
+        assertArrayEquals(new String[] {"add_node", "set_property"}, (String[]) actions.getValue().get(2));
+        verify(session).expire();
+    }
+
+    @Test
+    public void testPostDecidesForEveryone() {
+        // only EVERYONE holds reader on the checked paths
+        when(authorizationDelegate.checkAccess(any(Session.class), anySetOf(Principal.class),
+                anyListOf(Node.class), anyListOf(String[].class))).thenAnswer(invocation -> {
+                    final Set<?> principals = (Set<?>) invocation.getArguments()[1];
+                    final BitSet permitted = new BitSet();
+                    if (principals.contains(everyone)) {
+                        permitted.set(0, 2);
+                    }
+                    return permitted;
+                });
+
+        final Response response = accessRolesCheck.post(checks);
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        assertEquals(asList(true, true, false), response.getEntity());
+    }
+
+    @Test
+    public void testPostRequiresAdmin() {
+        when(securityContext.isUserInRole(FEDORA_ADMIN_ROLE)).thenReturn(false);
+
+        final Response response = accessRolesCheck.post(checks);
+
+        assertEquals(FORBIDDEN.getStatusCode(), response.getStatus());
+        verify(authorizationDelegate, never()).checkAccess(any(Session.class), anySetOf(Principal.class),
+                anyListOf(Node.class), anyListOf(String[].class));
+        verify(session).expire();
+    }
+
+    @Test
+    public void testPostWithoutChecks() {
+        checks.setChecks(null);
+
+        final Response response = accessRolesCheck.post(checks);
+
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        verify(session).expire();
+    }
+}
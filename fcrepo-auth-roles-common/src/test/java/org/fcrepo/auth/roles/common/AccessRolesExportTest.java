@@ -0,0 +1,208 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyIterator;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.fcrepo.http.commons.test.util.TestHelpers.mockSession;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.http.commons.session.HttpSession;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.kernel.api.exception.PathNotFoundRuntimeException;
+import org.fcrepo.kernel.api.exception.RepositoryRuntimeException;
+import org.fcrepo.kernel.api.models.FedoraResource;
+import org.fcrepo.kernel.api.services.NodeService;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.glassfish.jersey.server.CloseableService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AccessRolesExportTest {
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private NodeService nodeService;
+
+    @Mock
+    private FedoraResource fedoraResource;
+
+    @Mock
+    private FedoraResource childResource;
+
+    @Mock
+    private FedoraSessionImpl fedoraSession;
+
+    @Mock
+    private CloseableService closeableService;
+
+    @Captor
+    private ArgumentCaptor<Closeable> releaseCaptor;
+
+    @Mock
+    private HttpSession session;
+
+    @Mock
+    private Node mockNode;
+
+    private AccessRolesExport accessRolesExport;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        accessRolesExport = new AccessRolesExport("/some/path");
+        setField(accessRolesExport, "accessRolesProvider", accessRolesProvider);
+        setField(accessRolesExport, "nodeService", nodeService);
+        final Session jcrSession = mockSession(accessRolesExport);
+        setField(accessRolesExport, "session", session);
+
+        when(session.getFedoraSession()).thenReturn(fedoraSession);
+        when(fedoraSession.getJcrSession()).thenReturn(jcrSession);
+        when(jcrSession.getNode("/some/path")).thenReturn(mockNode);
+        when(nodeService.find(any(FedoraSession.class), anyString())).thenReturn(fedoraResource);
+        when(nodeService.find(any(FedoraSession.class), eq("/some/path/child"))).thenReturn(childResource);
+        when(fedoraResource.getPath()).thenReturn("/some/path");
+        when(childResource.getPath()).thenReturn("/some/path/child");
+        setField(accessRolesExport, "closeableService", closeableService);
+        when(closeableService.add(releaseCaptor.capture())).thenReturn(true);
+    }
+
+    @Test
+    public void testExportWritesOneLinePerAcl() throws IOException, RepositoryException {
+        final Map<String, Collection<String>> readers = singletonMap("user1", singletonList("reader"));
+        final Map<String, Collection<String>> writers = singletonMap("user2", asList("reader", "writer"));
+        when(accessRolesProvider.exportRoles(any(Node.class))).thenReturn(asList(
+                new AccessRolesEntry("/some/path", readers), new AccessRolesEntry("/some/path/child", writers))
+                .iterator());
+
+        final Response response = accessRolesExport.get();
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        // the session is needed until the roles are written
+        verify(session, never()).expire();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        assertEquals("{\"id\":\"http://localhost/fcrepo/some/path\",\"roles\":{\"user1\":[\"reader\"]}}\n" +
+                "{\"id\":\"http://localhost/fcrepo/some/path/child\",\"roles\":{\"user2\":[\"reader\",\"writer\"]}}\n",
+                new String(out.toByteArray(), UTF_8));
+        verify(session).expire();
+
+        // the request completes after the roles are written
+        releaseCaptor.getValue().close();
+        verify(session).expire();
+    }
+
+    @Test
+    public void testExportSkipsRemovedNodes() throws IOException, RepositoryException {
+        when(nodeService.find(any(FedoraSession.class), eq("/some/path/removed")))
+                .thenThrow(new PathNotFoundRuntimeException("expected"));
+        when(accessRolesProvider.exportRoles(any(Node.class))).thenReturn(singletonList(new AccessRolesEntry(
+                "/some/path/removed", singletonMap("user1", singletonList("reader")))).iterator());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) accessRolesExport.get().getEntity()).write(out);
+
+        assertEquals(0, out.size());
+        verify(session).expire();
+    }
+
+    @Test
+    public void testExportSkipsUnreadableNodes() throws IOException, RepositoryException {
+        when(nodeService.find(any(FedoraSession.class), eq("/some/path/secret")))
+                .thenThrow(new RepositoryRuntimeException(new AccessDeniedException("/some/path/secret")));
+        final Map<String, Collection<String>> readers = singletonMap("user1", singletonList("reader"));
+        when(accessRolesProvider.exportRoles(any(Node.class))).thenReturn(asList(
+                new AccessRolesEntry("/some/path/secret", readers), new AccessRolesEntry("/some/path/child", readers))
+                .iterator());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) accessRolesExport.get().getEntity()).write(out);
+
+        assertEquals("{\"id\":\"http://localhost/fcrepo/some/path/child\",\"roles\":{\"user1\":[\"reader\"]}}\n",
+                new String(out.toByteArray(), UTF_8));
+        verify(session).expire();
+    }
+
+    @Test
+    public void testExportNeverWritten() throws IOException, RepositoryException {
+        when(accessRolesProvider.exportRoles(any(Node.class))).thenReturn(emptyIterator());
+
+        accessRolesExport.get();
+        verify(session, never()).expire();
+
+        releaseCaptor.getValue().close();
+        verify(session).expire();
+    }
+
+    @Test
+    public void testExportWithoutProvider() throws RepositoryException {
+        setField(accessRolesExport, "accessRolesProvider", null);
+
+        final Response response = accessRolesExport.get();
+
+        assertEquals(NOT_FOUND.getStatusCode(), response.getStatus());
+        verify(session).expire();
+    }
+
+    @Test(expected = RepositoryException.class)
+    public void testExportQueryFailure() throws RepositoryException {
+        when(accessRolesProvider.exportRoles(any(Node.class))).thenThrow(new RepositoryException("expected"));
+
+        try {
+            accessRolesExport.get();
+        } finally {
+            verify(session).expire();
+            verify(closeableService).add(any(Closeable.class));
+        }
+    }
+}
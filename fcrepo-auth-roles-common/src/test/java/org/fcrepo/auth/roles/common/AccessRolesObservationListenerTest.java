@@ -0,0 +1,143 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static javax.jcr.observation.Event.PROPERTY_ADDED;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclAssignable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AccessRolesObservationListenerTest {
+
+    @Mock
+    private FedoraSessionImpl fedoraSession;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private AccessRolesReader accessRolesReader;
+
+    @Mock
+    private ScheduledExecutorService flusher;
+
+    @Mock
+    private EventIterator events;
+
+    @Mock
+    private Event event;
+
+    @Mock
+    private Node node;
+
+    private RbAclAccessRolesProvider accessRolesProvider;
+
+    private AccessRolesObservationListener listener;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        accessRolesProvider = new RbAclAccessRolesProvider();
+        listener = new AccessRolesObservationListener();
+        setField(listener, "accessRolesProvider", accessRolesProvider);
+        setField(listener, "accessRolesReader", accessRolesReader);
+        setField(listener, "flusher", flusher);
+        setField(listener, "session", fedoraSession);
+        when(fedoraSession.getJcrSession()).thenReturn(session);
+
+        when(events.hasNext()).thenReturn(true, false);
+        when(events.nextEvent()).thenReturn(event);
+        when(event.getType()).thenReturn(PROPERTY_ADDED);
+        when(event.getPath()).thenReturn("/resource/jcr:mixinTypes");
+        when(session.nodeExists("/resource")).thenReturn(true);
+        when(session.getNode("/resource")).thenReturn(node);
+    }
+
+    @Test
+    public void testMixinChangeOfOrdinaryNodeLeavesCachesAlone() {
+        final long generation = accessRolesProvider.getRolesGeneration();
+
+        listener.onEvent(events);
+        listener.flush();
+
+        assertEquals("Should not invalidate roles for a node that is not rbaclAssignable", generation,
+                accessRolesProvider.getRolesGeneration());
+    }
+
+    @Test
+    public void testMixinChangeOfAssignableNodeRefreshesRoles() throws RepositoryException {
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        final long generation = accessRolesProvider.getRolesGeneration();
+
+        listener.onEvent(events);
+        listener.flush();
+
+        assertNotEquals("Should invalidate roles for an rbaclAssignable node", generation,
+                accessRolesProvider.getRolesGeneration());
+    }
+
+    @Test
+    public void testNodeAdditionForgetsMissingPaths() throws RepositoryException {
+        final Path path = mock(Path.class);
+        when(path.getString()).thenReturn("/resource");
+        final Path rootPath = mock(Path.class);
+        when(rootPath.isRoot()).thenReturn(true);
+        when(path.getParent()).thenReturn(rootPath);
+        when(session.getRootNode()).thenReturn(node);
+        when(session.nodeExists("/resource")).thenReturn(false);
+        final Session userSession = mock(Session.class);
+        accessRolesProvider.findRolesForPath(path, session, userSession);
+        accessRolesProvider.findRolesForPath(path, session, userSession);
+        verify(session, times(1)).nodeExists("/resource");
+
+        when(event.getType()).thenReturn(NODE_ADDED);
+        when(event.getPath()).thenReturn("/resource");
+        listener.onEvent(events);
+        listener.flush();
+        accessRolesProvider.findRolesForPath(path, session, userSession);
+
+        verify(session, times(2)).nodeExists("/resource");
+        verify(accessRolesReader, never()).refresh();
+    }
+}
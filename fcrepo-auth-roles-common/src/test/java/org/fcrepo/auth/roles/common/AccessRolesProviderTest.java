@@ -17,17 +17,29 @@
  */
 package org.fcrepo.auth.roles.common;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.Assignment;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.Rbacl;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.assignment;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.principal;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbacl;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclAssignable;
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclData;
 import static org.fcrepo.auth.roles.common.Constants.JcrName.role;
 import static org.fcrepo.kernel.modeshape.testutilities.TestNodeIterator.nodeIterator;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -36,11 +48,16 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
@@ -50,10 +67,20 @@ import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
+import javax.jcr.Workspace;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventJournal;
+import javax.jcr.observation.ObservationManager;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
 
 import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.fcrepo.auth.roles.common.RbAclAccessRolesProvider.StorageFormat;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.modeshape.jcr.value.Path;
 
@@ -63,6 +90,9 @@ import org.modeshape.jcr.value.Path;
  */
 public class AccessRolesProviderTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     private Session session;
 
@@ -86,6 +116,7 @@ public class AccessRolesProviderTest {
     public void setUp() throws RepositoryException {
         initMocks(this);
         when(node.getSession()).thenReturn(session);
+        when(node.getPath()).thenReturn("/node");
 
         provider = new RbAclAccessRolesProvider();
 
@@ -111,7 +142,9 @@ public class AccessRolesProviderTest {
         final Property roleProperty = mock(Property.class);
         final Value roleValue = mock(Value.class);
         when(roleValue.toString()).thenReturn(roleName);
+        when(roleValue.getString()).thenReturn(roleName);
         when(roleProperty.getValues()).thenReturn(new Value[] {roleValue});
+        when(principalNode.hasProperty(eq(role.getQualified()))).thenReturn(true);
         when(principalNode.getProperty(eq(role.getQualified())))
                 .thenReturn(roleProperty);
     }
@@ -268,6 +301,42 @@ public class AccessRolesProviderTest {
                 "principal").contains("role"));
     }
 
+    @Test
+    public void testGetEffectiveRolesGroupsByAncestor() throws RepositoryException {
+        final Node parentNode1 = mock(Node.class);
+        when(parentNode1.getPath()).thenReturn("/parent");
+        when(parentNode1.isNodeType(anyString())).thenReturn(true);
+        when(parentNode1.getNode(anyString())).thenReturn(rbaclNode);
+
+        final Node parentNode2 = mock(Node.class);
+        when(parentNode2.getPath()).thenReturn("/parent/container");
+        when(parentNode2.getSession()).thenReturn(session);
+        when(parentNode2.isNodeType(anyString())).thenReturn(false);
+        when(parentNode2.getParent()).thenReturn(parentNode1);
+
+        final Node child1 = mock(Node.class);
+        final Node child2 = mock(Node.class);
+        for (final Node child : asList(child1, child2, node)) {
+            when(child.getSession()).thenReturn(session);
+            when(child.isNodeType(anyString())).thenReturn(false);
+            when(child.getParent()).thenReturn(parentNode2);
+        }
+        when(child1.getPath()).thenReturn("/parent/container/child1");
+        when(child2.getPath()).thenReturn("/parent/container/child2");
+
+        final List<Map<String, Collection<String>>> roles =
+                provider.getEffectiveRoles(asList(child1, child2, node, parentNode2));
+
+        assertEquals(4, roles.size());
+        for (final Map<String, Collection<String>> data : roles) {
+            assertEquals(singleton("principal"), data.keySet());
+            assertTrue("Role for principal did not match", data.get("principal").contains("role"));
+        }
+        verify(parentNode2).getParent();
+        verify(parentNode1).getNode(anyString());
+        verify(rbaclNode).getNodes();
+    }
+
     @Test
     public void testGetRolesEffectiveAssignableParentsSamePrincipal()
             throws RepositoryException {
@@ -504,6 +573,41 @@ public class AccessRolesProviderTest {
         verify(node, never()).addNode(anyString(), anyString());
     }
 
+    @Test
+    public void testPostRolesUnchanged() throws RepositoryException {
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(rbaclNode);
+
+        assertFalse("Re-posting the stored roles should change nothing",
+                provider.postRolesIfChanged(node, singletonMap("principal", singleton("role"))));
+
+        verify(principalNode1, never()).remove();
+        verify(principalNode1, never()).setProperty(anyString(), any(String[].class));
+        verify(rbaclNode, never()).addNode(anyString(), anyString());
+    }
+
+    @Test
+    public void testPostRolesChangesOnlyChangedAssignments() throws RepositoryException {
+        final Node principalNode2 = mock(Node.class);
+        setupPrincipalNode(principalNode2, mock(Property.class), "other", "reader");
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator(principalNode1, principalNode2));
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(rbaclNode);
+
+        final Map<String, Set<String>> data = new HashMap<>();
+        data.put("principal", singleton("role"));
+        data.put("other", singleton("writer"));
+        assertTrue(provider.postRolesIfChanged(node, data));
+
+        // The unchanged assignment is left alone, the changed one is updated in place
+        verify(principalNode1, never()).setProperty(anyString(), any(String[].class));
+        verify(principalNode2).setProperty(eq(role.getQualified()), any(String[].class));
+        verify(principalNode2, never()).remove();
+        verify(rbaclNode, never()).addNode(anyString(), anyString());
+    }
+
     @Test
     public void testDeleteRolesNonAssignable() throws RepositoryException {
 
@@ -582,6 +686,7 @@ public class AccessRolesProviderTest {
         final String pathString = "path";
         when(path.getString()).thenReturn(pathString);
 
+        when(session.nodeExists(eq(pathString))).thenReturn(true);
         when(session.getNode(eq(pathString))).thenReturn(node);
 
         // Not assignable, but with parent that is assignable
@@ -589,6 +694,7 @@ public class AccessRolesProviderTest {
                 .thenReturn(false);
 
         final Node parentNode = mock(Node.class);
+        when(parentNode.getPath()).thenReturn("/parent");
         when(parentNode.isNodeType(anyString())).thenReturn(true);
         when(parentNode.getNode(anyString())).thenReturn(rbaclNode);
 
@@ -613,7 +719,7 @@ public class AccessRolesProviderTest {
         final String pathString = "path";
         when(path.getString()).thenReturn(pathString);
 
-        when(session.getNode(eq(pathString))).thenThrow(new PathNotFoundException());
+        when(session.nodeExists(eq(pathString))).thenReturn(false);
 
         // Paths parent, the root, is found and is assignable
         final Path rootPath = mock(Path.class);
@@ -630,13 +736,100 @@ public class AccessRolesProviderTest {
         final Map<String, Collection<String>> data =
                 provider.findRolesForPath(path, session);
 
-        // Verify lookup of node by path
+        // Verify the path was probed without being looked up
         verify(session).getRootNode();
-        verify(session).getNode(eq(pathString));
+        verify(session).nodeExists(eq(pathString));
+        verify(session, never()).getNode(anyString());
 
         assertEquals("One principal should be retrieved", 1, data.size());
     }
 
+    @Test
+    public void testFindRolesForPathRemembersMissingPaths() throws RepositoryException {
+        final Path path = mock(Path.class);
+        when(path.getString()).thenReturn("/missing");
+        final Path rootPath = mock(Path.class);
+        when(rootPath.isRoot()).thenReturn(true);
+        when(path.getParent()).thenReturn(rootPath);
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        final Session userSession = mock(Session.class);
+        final RbAclAccessRolesProvider rbProvider = (RbAclAccessRolesProvider) provider;
+        rbProvider.findRolesForPath(path, session, userSession);
+        rbProvider.findRolesForPath(path, session, userSession);
+
+        verify(session, times(1)).nodeExists("/missing");
+    }
+
+    @Test
+    public void testRefreshRolesKeepsMissingPaths() throws RepositoryException {
+        final Path path = mock(Path.class);
+        when(path.getString()).thenReturn("/missing");
+        final Path rootPath = mock(Path.class);
+        when(rootPath.isRoot()).thenReturn(true);
+        when(path.getParent()).thenReturn(rootPath);
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        final Session userSession = mock(Session.class);
+        final RbAclAccessRolesProvider rbProvider = (RbAclAccessRolesProvider) provider;
+        rbProvider.findRolesForPath(path, session, userSession);
+        // roles written elsewhere cannot make a missing path exist
+        rbProvider.refreshRoles("/", session);
+        rbProvider.findRolesForPath(path, session, userSession);
+        verify(session, times(1)).nodeExists("/missing");
+
+        rbProvider.forgetMissingPaths(singletonList("/other"), session);
+        rbProvider.findRolesForPath(path, session, userSession);
+        verify(session, times(1)).nodeExists("/missing");
+
+        rbProvider.forgetMissingPaths(singletonList("/missing"), session);
+        rbProvider.findRolesForPath(path, session, userSession);
+        verify(session, times(2)).nodeExists("/missing");
+    }
+
+    @Test
+    public void testFindRolesForPathMissingPathsArePerUserSession() throws RepositoryException {
+        final Path path = mock(Path.class);
+        when(path.getString()).thenReturn("/missing");
+        final Path rootPath = mock(Path.class);
+        when(rootPath.isRoot()).thenReturn(true);
+        when(path.getParent()).thenReturn(rootPath);
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        final RbAclAccessRolesProvider rbProvider = (RbAclAccessRolesProvider) provider;
+        rbProvider.findRolesForPath(path, session, mock(Session.class));
+        rbProvider.findRolesForPath(path, session, mock(Session.class));
+        provider.findRolesForPath(path, session);
+
+        verify(session, times(3)).nodeExists("/missing");
+    }
+
+    @Test
+    public void testFindRolesForPathMissingPathsDisabled() throws RepositoryException {
+        ((RbAclAccessRolesProvider) provider).setMissingPathsTtl(0);
+        final Path path = mock(Path.class);
+        when(path.getString()).thenReturn("/missing");
+        final Path rootPath = mock(Path.class);
+        when(rootPath.isRoot()).thenReturn(true);
+        when(path.getParent()).thenReturn(rootPath);
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        final Session userSession = mock(Session.class);
+        final RbAclAccessRolesProvider rbProvider = (RbAclAccessRolesProvider) provider;
+        rbProvider.findRolesForPath(path, session, userSession);
+        rbProvider.findRolesForPath(path, session, userSession);
+
+        verify(session, times(2)).nodeExists("/missing");
+    }
+
     @Test(expected = NullPointerException.class)
     public void testFindRolesForPathNullPath() throws RepositoryException {
 
@@ -650,15 +843,15 @@ public class AccessRolesProviderTest {
         }
     }
 
-    @Test(expected = NullPointerException.class)
+    @Test(expected = PathNotFoundException.class)
     public void testFindRolesForPathAllNotFound() throws RepositoryException {
 
         when(session.getRootNode()).thenThrow(new PathNotFoundException());
-        when(session.getNode(anyString())).thenThrow(
-                new PathNotFoundException());
 
         final Path path1 = mock(Path.class);
         final Path path2 = mock(Path.class);
+        when(path1.getString()).thenReturn("/path1");
+        when(path2.getString()).thenReturn("/path1/path2");
 
         final Path rootPath = mock(Path.class);
         when(rootPath.isRoot()).thenReturn(true);
@@ -668,9 +861,327 @@ public class AccessRolesProviderTest {
         try {
             provider.findRolesForPath(path2, session);
         } finally {
-            // It should have checked each node before NPE
+            // It should have probed each node before reaching the root
             verify(session).getRootNode();
-            verify(session, times(2)).getNode(anyString());
+            verify(session, times(2)).nodeExists(anyString());
+            verify(session, never()).getNode(anyString());
         }
     }
+
+    @Test
+    public void testFindRolesForPathCachesAssignments() throws RepositoryException {
+        final Path path = mock(Path.class);
+        when(path.isRoot()).thenReturn(true);
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        final Map<String, Collection<String>> first = provider.findRolesForPath(path, session);
+        final Map<String, Collection<String>> second = provider.findRolesForPath(path, session);
+
+        assertEquals("One principal should be retrieved", 1, first.size());
+        assertEquals("Cached roles should match the roles first read", first, second);
+        verify(node, times(1)).getNode(anyString());
+    }
+
+    @Test
+    public void testPostRolesInvalidatesCachedAssignments() throws RepositoryException {
+        final Path path = mock(Path.class);
+        when(path.isRoot()).thenReturn(true);
+        when(session.getRootNode()).thenReturn(node);
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+
+        provider.findRolesForPath(path, session);
+        provider.postRoles(node, new HashMap<String, Set<String>>());
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator());
+
+        final Map<String, Collection<String>> data = provider.findRolesForPath(path, session);
+
+        assertTrue("Roles should be re-read after they were posted", data.isEmpty());
+        verify(node, times(2)).getNode(anyString());
+    }
+
+    @Test
+    public void testFindRolesForPathFromIndex() throws RepositoryException {
+        when(node.getPath()).thenReturn("/");
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        when(session.nodeExists("/")).thenReturn(true);
+        when(session.getNode("/")).thenReturn(node);
+        when(session.getRootNode()).thenReturn(node);
+
+        final Path path = mock(Path.class);
+        when(path.isRoot()).thenReturn(true);
+
+        final RbAclAccessRolesProvider rbaclProvider = (RbAclAccessRolesProvider) provider;
+        final AtomicInteger loads = new AtomicInteger();
+        rbaclProvider.setAclIndexEnabled(true);
+        rbaclProvider.setIndexLoader(loads::incrementAndGet);
+        // Lookups request the index once and walk the nodes until it is loaded
+        assertEquals("One principal should be retrieved", 1, provider.findRolesForPath(path, session).size());
+        provider.findRolesForPath(path, session);
+        assertEquals("The index should be requested once", 1, loads.get());
+        verify(session, times(2)).getRootNode();
+
+        rbaclProvider.beginIndexPreload();
+        final AclPathTrie index = new AclPathTrie();
+        rbaclProvider.preloadIndexEntry(index, "/", session);
+        rbaclProvider.completeIndexPreload(index, session);
+
+        assertEquals("One principal should be retrieved", 1, provider.findRolesForPath(path, session).size());
+        // Roles are served from the index without resolving the node
+        verify(session, times(2)).getRootNode();
+    }
+
+    @Test
+    public void testFindRolesForPathFromIndexWithoutAcl() throws RepositoryException {
+        final Path path = mock(Path.class);
+        when(path.isRoot()).thenReturn(true);
+
+        final RbAclAccessRolesProvider rbaclProvider = (RbAclAccessRolesProvider) provider;
+        rbaclProvider.setAclIndexEnabled(true);
+        rbaclProvider.beginIndexPreload();
+        rbaclProvider.completeIndexPreload(new AclPathTrie(), session);
+        final Map<String, Collection<String>> data = provider.findRolesForPath(path, session);
+
+        assertTrue("Default access roles expected when no ancestor holds an ACL",
+                AccessRolesProvider.DEFAULT_ACCESS_ROLES == data);
+        verify(session, never()).getRootNode();
+    }
+
+    @Test
+    public void testExportRoles() throws RepositoryException {
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final Query query = mock(Query.class);
+        final QueryResult result = mock(QueryResult.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+
+        final Node child = mock(Node.class);
+        when(child.getPath()).thenReturn("/node/child");
+        when(child.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(child.getNode(anyString())).thenReturn(rbaclNode);
+        when(result.getNodes()).thenReturn(nodeIterator(child));
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator(principalNode1), nodeIterator(principalNode1));
+
+        final Iterator<AccessRolesEntry> entries = provider.exportRoles(node);
+
+        assertEquals("/node", entries.next().getPath());
+        final AccessRolesEntry entry = entries.next();
+        assertEquals("/node/child", entry.getPath());
+        assertEquals(singleton("role"), new HashSet<>(entry.getRoles().get("principal")));
+        assertFalse(entries.hasNext());
+        verify(queryManager).createQuery(contains("ISDESCENDANTNODE(n, '/node')"), anyString());
+    }
+
+    @Test
+    public void testFindRolesForPathDuringIndexPreload() throws RepositoryException {
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+
+        when(node.getPath()).thenReturn("/");
+        when(node.isNodeType(eq(rbaclAssignable.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        when(session.nodeExists("/")).thenReturn(true);
+        when(session.getNode("/")).thenReturn(node);
+        when(session.getRootNode()).thenReturn(node);
+
+        final Path path = mock(Path.class);
+        when(path.isRoot()).thenReturn(true);
+
+        final RbAclAccessRolesProvider rbaclProvider = (RbAclAccessRolesProvider) provider;
+        rbaclProvider.setAclIndexEnabled(true);
+        rbaclProvider.beginIndexPreload();
+        // Lookups walk the nodes until the preloaded index is installed
+        assertEquals("One principal should be retrieved", 1, provider.findRolesForPath(path, session).size());
+
+        final AclPathTrie index = new AclPathTrie();
+        rbaclProvider.preloadIndexEntry(index, "/", session);
+        rbaclProvider.completeIndexPreload(index, session);
+
+        assertEquals("One principal should be retrieved", 1, provider.findRolesForPath(path, session).size());
+        // The index is never loaded on first use
+        verify(queryManager, never()).createQuery(anyString(), anyString());
+    }
+
+    @Test
+    public void testRestoreIndexFromCheckpoint() throws IOException, RepositoryException {
+        final AclPathTrie checkpointed = new AclPathTrie();
+        checkpointed.put(new String[0], new AclIndex.Entry("/", singletonMap("principal", asList("reader"))));
+        checkpointed.put(new String[] {"a"}, new AclIndex.Entry("/a", singletonMap("principal", asList("writer"))));
+        final File file = new File(folder.getRoot(), "acl-index");
+        AclIndexSnapshot.write(checkpointed, 100000L, file);
+
+        final Workspace workspace = mock(Workspace.class);
+        final ObservationManager observationManager = mock(ObservationManager.class);
+        final EventJournal journal = mock(EventJournal.class);
+        final Event event = mock(Event.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getObservationManager()).thenReturn(observationManager);
+        when(observationManager.getEventJournal(anyInt(), anyString(), anyBoolean(), any(String[].class),
+                any(String[].class))).thenReturn(journal);
+        when(journal.hasNext()).thenReturn(true, false);
+        when(journal.nextEvent()).thenReturn(event);
+        when(event.getType()).thenReturn(Event.NODE_REMOVED);
+        when(event.getPath()).thenReturn("/a");
+        when(event.getDate()).thenReturn(150000L);
+
+        ((RbAclAccessRolesProvider) provider).setIndexSnapshot(file.getPath());
+        final AclIndex restored = ((RbAclAccessRolesProvider) provider).restoreIndex(session);
+
+        assertNotNull("The checkpoint should be restored", restored);
+        assertEquals("The removal since the checkpoint should be applied", 1, restored.size());
+        // Events are replayed from shortly before the checkpoint
+        verify(journal).skipTo(40000L);
+    }
+
+    @Test
+    public void testPatchRolesChangesOnlyNamedAssignments() throws RepositoryException {
+        final Node principalNode2 = mock(Node.class);
+        setupPrincipalNode(principalNode2, mock(Property.class), "other", "reader");
+        final Node principalNode3 = mock(Node.class);
+        setupPrincipalNode(principalNode3, mock(Property.class), "untouched", "admin");
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator(principalNode1, principalNode2, principalNode3));
+        when(rbaclNode.addNode(anyString(), anyString())).thenReturn(mock(Node.class));
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(rbaclNode);
+
+        final Map<String, Set<String>> add = new HashMap<>();
+        add.put("other", singleton("writer"));
+        add.put("newcomer", singleton("reader"));
+        assertTrue(provider.patchRoles(node, add, singletonMap("principal", singleton("role"))));
+
+        verify(principalNode1).remove();
+        verify(principalNode2).setProperty(eq(role.getQualified()), any(String[].class));
+        verify(principalNode2, never()).remove();
+        verify(principalNode3, never()).hasProperty(role.getQualified());
+        verify(principalNode3, never()).remove();
+        verify(rbaclNode).addNode(assignment.getQualified(), Assignment.getQualified());
+    }
+
+    @Test
+    public void testPatchRolesUnchanged() throws RepositoryException {
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(rbaclNode);
+
+        assertFalse("Adding a role already held should change nothing", provider.patchRoles(node,
+                singletonMap("principal", singleton("role")), new HashMap<String, Set<String>>()));
+
+        verify(principalNode1, never()).remove();
+        verify(principalNode1, never()).setProperty(anyString(), any(String[].class));
+        verify(rbaclNode, never()).addNode(anyString(), anyString());
+    }
+
+    @Test
+    public void testPatchRolesRemovingLastRoleDeletesAcl() throws RepositoryException {
+        when(node.isNodeType(rbaclAssignable.getQualified())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(eq(rbacl.getQualified()))).thenReturn(rbaclNode);
+        when(rbaclNode.getParent()).thenReturn(node);
+
+        assertTrue(provider.patchRoles(node, new HashMap<String, Set<String>>(),
+                singletonMap("principal", singleton("role"))));
+
+        // an empty ACL would block the roles inherited from the ancestors
+        verify(rbaclNode).remove();
+        verify(node).removeMixin(rbaclAssignable.getQualified());
+        verify(rbaclNode, never()).addNode(anyString(), anyString());
+    }
+
+    @Test
+    public void testPatchRolesCompactRemovingLastRoleDeletesAcl() throws RepositoryException {
+        when(node.isNodeType(anyString())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        final Property data = mock(Property.class);
+        when(data.getString()).thenReturn("1\nprincipal\treader");
+        when(rbaclNode.hasProperty(rbaclData.getQualified())).thenReturn(true);
+        when(rbaclNode.getProperty(rbaclData.getQualified())).thenReturn(data);
+
+        assertTrue(provider.patchRoles(node, new HashMap<String, Set<String>>(),
+                singletonMap("principal", singleton("reader"))));
+
+        verify(rbaclNode).remove();
+        verify(node).removeMixin(rbaclAssignable.getQualified());
+        verify(rbaclNode, never()).setProperty(eq(rbaclData.getQualified()), anyString());
+    }
+
+    @Test
+    public void testPatchRolesCompact() throws RepositoryException {
+        when(node.isNodeType(anyString())).thenReturn(true);
+        when(node.hasNode(eq(rbacl.getQualified()))).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator());
+        final Property data = mock(Property.class);
+        when(data.getString()).thenReturn("1\nprincipal\treader\twriter");
+        when(rbaclNode.hasProperty(rbaclData.getQualified())).thenReturn(true);
+        when(rbaclNode.getProperty(rbaclData.getQualified())).thenReturn(data);
+
+        assertTrue(provider.patchRoles(node, singletonMap("other", singleton("reader")),
+                singletonMap("principal", singleton("writer"))));
+
+        verify(rbaclNode).setProperty(rbaclData.getQualified(), "1\nother\treader\nprincipal\treader");
+    }
+
+    @Test
+    public void testGetRolesCompact() throws RepositoryException {
+        when(node.isNodeType(anyString())).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        final Property data = mock(Property.class);
+        when(data.getString()).thenReturn("1\nprincipal\treader\twriter");
+        when(rbaclNode.hasProperty(rbaclData.getQualified())).thenReturn(true);
+        when(rbaclNode.getProperty(rbaclData.getQualified())).thenReturn(data);
+
+        final Map<String, Collection<String>> roles = provider.getRoles(node, false);
+
+        assertEquals("Both roles should be decoded", 2, roles.get("principal").size());
+        // Assignment nodes are not read
+        verify(rbaclNode, never()).getNodes();
+    }
+
+    @Test
+    public void testPostRolesCompact() throws RepositoryException {
+        final Node aclNode = mock(Node.class);
+        when(node.addNode(anyString(), anyString())).thenReturn(aclNode);
+
+        ((RbAclAccessRolesProvider) provider).setStorageFormat(StorageFormat.COMPACT);
+        provider.postRoles(node, singletonMap("principal", singleton("reader")));
+
+        verify(aclNode).setProperty(rbaclData.getQualified(), "1\nprincipal\treader");
+        verify(aclNode, never()).addNode(anyString(), anyString());
+    }
+
+    @Test
+    public void testMigrateRoles() throws RepositoryException {
+        when(node.isNodeType(anyString())).thenReturn(true);
+        when(node.hasNode(rbacl.getQualified())).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        when(rbaclNode.getNodes()).thenReturn(nodeIterator(principalNode1), nodeIterator(principalNode1));
+
+        assertTrue(((RbAclAccessRolesProvider) provider).migrateRoles(node));
+
+        verify(principalNode1).remove();
+        verify(rbaclNode).setProperty(rbaclData.getQualified(), "1\nprincipal\trole");
+    }
+
+    @Test
+    public void testMigrateRolesAlreadyCompact() throws RepositoryException {
+        when(node.isNodeType(anyString())).thenReturn(true);
+        when(node.hasNode(rbacl.getQualified())).thenReturn(true);
+        when(node.getNode(anyString())).thenReturn(rbaclNode);
+        when(rbaclNode.hasProperty(rbaclData.getQualified())).thenReturn(true);
+
+        assertFalse(((RbAclAccessRolesProvider) provider).migrateRoles(node));
+        verify(rbaclNode, never()).setProperty(anyString(), anyString());
+    }
 }
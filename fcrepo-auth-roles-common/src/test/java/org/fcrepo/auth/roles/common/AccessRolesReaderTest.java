@@ -0,0 +1,121 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AccessRolesReaderTest {
+
+    private static final Map<String, Collection<String>> ACL = singletonMap("user", asList("reader"));
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private FedoraSessionImpl fedoraSession;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private Path path;
+
+    private AccessRolesReader reader;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        when(sessionFactory.getInternalSession()).thenReturn(fedoraSession);
+        when(fedoraSession.getJcrSession()).thenReturn(session);
+        when(session.isLive()).thenReturn(true);
+        when(accessRolesProvider.findRolesForPath(path, session)).thenReturn(ACL);
+        reader = new AccessRolesReader(sessionFactory, accessRolesProvider);
+    }
+
+    @Test
+    public void testSessionIsReused() throws RepositoryException {
+        assertEquals(ACL, reader.findRolesForPath(path));
+        assertEquals(ACL, reader.findRolesForPath(path));
+        verify(sessionFactory, times(1)).getInternalSession();
+        verify(fedoraSession, never()).expire();
+    }
+
+    @Test
+    public void testSessionIsRefreshedAfterChange() throws RepositoryException {
+        reader.findRolesForPath(path);
+        reader.findRolesForPath(path);
+        verify(session, never()).refresh(false);
+
+        reader.refresh();
+        reader.findRolesForPath(path);
+        reader.findRolesForPath(path);
+        verify(session, times(1)).refresh(false);
+    }
+
+    @Test
+    public void testExpiredSessionIsReplaced() throws RepositoryException {
+        reader.findRolesForPath(path);
+        when(session.isLive()).thenReturn(false);
+        reader.findRolesForPath(path);
+        verify(sessionFactory, times(2)).getInternalSession();
+    }
+
+    @Test(expected = RepositoryException.class)
+    public void testSessionIsExpiredAfterFailure() throws RepositoryException {
+        when(accessRolesProvider.findRolesForPath(path, session)).thenThrow(new RepositoryException());
+        try {
+            reader.findRolesForPath(path);
+        } finally {
+            verify(fedoraSession).expire();
+        }
+    }
+
+    @Test
+    public void testCloseExpiresIdleSessions() throws RepositoryException {
+        reader.findRolesForPath(path);
+        reader.close();
+        verify(fedoraSession).expire();
+    }
+}
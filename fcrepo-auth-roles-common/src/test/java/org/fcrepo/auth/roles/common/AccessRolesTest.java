@@ -17,12 +17,26 @@
  */
 package org.fcrepo.auth.roles.common;
 
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static javax.ws.rs.core.HttpHeaders.CACHE_CONTROL;
+import static javax.ws.rs.core.HttpHeaders.ETAG;
+import static javax.ws.rs.core.Response.Status.NOT_MODIFIED;
+import static javax.ws.rs.core.Response.Status.NO_CONTENT;
+import static javax.ws.rs.core.Response.Status.OK;
+import static javax.ws.rs.core.Response.Status.PRECONDITION_FAILED;
 import static org.fcrepo.http.commons.test.util.TestHelpers.mockSession;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -36,11 +50,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.PathSegment;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
@@ -56,6 +77,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.runners.MockitoJUnitRunner;
 
 /**
@@ -117,7 +140,7 @@ public class AccessRolesTest {
     @Test
     public void testGetNoData() throws RepositoryException {
 
-        when(accessRolesProvider.getRoles(any(Node.class), anyBoolean()))
+        when(accessRolesProvider.getCachedRoles(any(Node.class), anyBoolean()))
                 .thenReturn(null);
 
         final Response response = accessRoles.get(null);
@@ -137,7 +160,7 @@ public class AccessRolesTest {
     @Test
     public void testGetData() throws RepositoryException {
 
-        when(accessRolesProvider.getRoles(any(Node.class), anyBoolean()))
+        when(accessRolesProvider.getCachedRoles(any(Node.class), anyBoolean()))
                 .thenReturn(rolesData);
 
         final Response response = accessRoles.get("");
@@ -152,7 +175,38 @@ public class AccessRolesTest {
         verify(session).expire();
 
         // Ensure that it attempted to retrieve roles
-        verify(accessRolesProvider).getRoles(any(Node.class), anyBoolean());
+        verify(accessRolesProvider).getCachedRoles(any(Node.class), anyBoolean());
+    }
+
+    @Test
+    public void testGetDataTagged() {
+        final Map<String, Collection<String>> data = singletonMap("user1", singletonList("reader"));
+        when(accessRolesProvider.getCachedRoles(any(Node.class), anyBoolean())).thenReturn(data);
+
+        final Response response = accessRoles.get(null);
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        final EntityTag etag = (EntityTag) response.getMetadata().getFirst(ETAG);
+        assertEquals(CompiledAcl.of(data).getTag(), etag.getValue());
+        assertFalse("Tag should be strong", etag.isWeak());
+        final CacheControl cacheControl = (CacheControl) response.getMetadata().getFirst(CACHE_CONTROL);
+        assertTrue(cacheControl.isNoCache());
+        assertTrue(cacheControl.isMustRevalidate());
+    }
+
+    @Test
+    public void testGetNotModified() {
+        final Map<String, Collection<String>> data = singletonMap("user1", singletonList("reader"));
+        final EntityTag etag = new EntityTag(CompiledAcl.of(data).getTag());
+        when(accessRolesProvider.getCachedRoles(any(Node.class), anyBoolean())).thenReturn(data);
+        when(request.evaluatePreconditions(etag)).thenReturn(Response.notModified());
+
+        final Response response = accessRoles.get(null);
+
+        assertEquals(NOT_MODIFIED.getStatusCode(), response.getStatus());
+        assertNull("Not modified response should not carry the roles", response.getEntity());
+        assertEquals(etag, response.getMetadata().getFirst(ETAG));
+        verify(session).expire();
     }
 
     @Test(expected = RepositoryRuntimeException.class)
@@ -166,7 +220,7 @@ public class AccessRolesTest {
         } finally {
             // Verify that session logout occurred and no work happened
             verify(session).expire();
-            verify(accessRolesProvider, never()).getRoles(any(Node.class),
+            verify(accessRolesProvider, never()).getCachedRoles(any(Node.class),
                     anyBoolean());
         }
     }
@@ -236,7 +290,7 @@ public class AccessRolesTest {
             accessRoles.post(data);
         } finally {
             // Verify that no work with the provider happened
-            verify(accessRolesProvider, never()).postRoles(any(Node.class),
+            verify(accessRolesProvider, never()).postRolesIfChanged(any(Node.class),
                     Matchers.<Map<String, Set<String>>>any());
             // Verify no changes saved
             verify(session, never()).commit();
@@ -244,6 +298,143 @@ public class AccessRolesTest {
         }
     }
 
+    @Test
+    public void testPatchRoles() throws RepositoryException {
+        final Map<String, Map<String, Set<String>>> data = new HashMap<>();
+        data.put("add", singletonMap("user2", singleton("writer")));
+        data.put("remove", singletonMap("user1", singleton("reader")));
+        final Map<String, Collection<String>> before = singletonMap("user1", singletonList("reader"));
+        final Map<String, Collection<String>> after = singletonMap("user2", singletonList("writer"));
+        when(accessRolesProvider.getRoles(any(Node.class), eq(false))).thenReturn(before, after);
+        when(accessRolesProvider.patchRoles(any(Node.class), eq(data.get("add")), eq(data.get("remove"))))
+                .thenReturn(true);
+
+        final Response response = accessRoles.patch(data);
+
+        assertEquals(NO_CONTENT.getStatusCode(), response.getStatus());
+        assertEquals(new EntityTag(CompiledAcl.of(after).getTag()), response.getMetadata().getFirst(ETAG));
+        verify(request).evaluatePreconditions(new EntityTag(CompiledAcl.of(before).getTag()));
+        verify(session).commit();
+        verify(session).expire();
+    }
+
+    @Test
+    public void testPatchRolesPreconditionFailed() throws RepositoryException {
+        final Map<String, Map<String, Set<String>>> data =
+                singletonMap("add", singletonMap("user2", singleton("writer")));
+        when(accessRolesProvider.getRoles(any(Node.class), eq(false)))
+                .thenReturn(singletonMap("user1", singletonList("reader")));
+        when(request.evaluatePreconditions(any(EntityTag.class)))
+                .thenReturn(Response.status(PRECONDITION_FAILED));
+
+        final Response response = accessRoles.patch(data);
+
+        assertEquals(PRECONDITION_FAILED.getStatusCode(), response.getStatus());
+        verify(accessRolesProvider, never()).patchRoles(any(Node.class), Matchers.<Map<String, Set<String>>>any(),
+                Matchers.<Map<String, Set<String>>>any());
+        verify(session, never()).commit();
+        verify(session).expire();
+    }
+
+    @Test
+    public void testConcurrentPatchesWithSameTag() throws Exception {
+        final Map<String, Map<String, Set<String>>> data =
+                singletonMap("add", singletonMap("user2", singleton("writer")));
+        final Map<String, Collection<String>> before = singletonMap("user1", singletonList("reader"));
+        final Map<String, Collection<String>> after = singletonMap("user2", singletonList("writer"));
+        final EntityTag tag = new EntityTag(CompiledAcl.of(before).getTag());
+        final AtomicReference<Map<String, Collection<String>>> roles = new AtomicReference<>(before);
+        final CountDownLatch patching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(accessRolesProvider.getRoles(any(Node.class), eq(false))).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                return roles.get();
+            }
+        });
+        when(request.evaluatePreconditions(any(EntityTag.class))).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                return tag.equals(invocation.getArguments()[0]) ? null : Response.status(PRECONDITION_FAILED);
+            }
+        });
+        when(accessRolesProvider.patchRoles(any(Node.class), eq(data.get("add")),
+                Matchers.<Map<String, Set<String>>>any())).thenAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws InterruptedException {
+                patching.countDown();
+                release.await();
+                roles.set(after);
+                return true;
+            }
+        });
+
+        final AccessRoles other = new AccessRoles("some/path");
+        setField(other, "accessRolesProvider", accessRolesProvider);
+        setField(other, "request", request);
+        setField(other, "nodeService", nodeService);
+        mockSession(other);
+        setField(other, "session", session);
+
+        final ExecutorService executor = newFixedThreadPool(2);
+        try {
+            final Future<Response> first = executor.submit(new Callable<Response>() {
+
+                @Override
+                public Response call() {
+                    return accessRoles.patch(data);
+                }
+            });
+            assertTrue(patching.await(5, SECONDS));
+            final Future<Response> second = executor.submit(new Callable<Response>() {
+
+                @Override
+                public Response call() {
+                    return other.patch(data);
+                }
+            });
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals(NO_CONTENT.getStatusCode(), first.get(5, SECONDS).getStatus());
+            assertEquals("The second patch must see the roles written by the first",
+                    PRECONDITION_FAILED.getStatusCode(), second.get(5, SECONDS).getStatus());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+        verify(accessRolesProvider).patchRoles(any(Node.class), eq(data.get("add")),
+                Matchers.<Map<String, Set<String>>>any());
+        verify(session).commit();
+    }
+
+    @Test
+    public void testPatchRolesWithoutAssignments() throws RepositoryException {
+        final Map<String, Map<String, Set<String>>> data =
+                singletonMap("add", singletonMap("user1", singleton("reader")));
+        when(request.evaluatePreconditions()).thenReturn(Response.status(PRECONDITION_FAILED));
+
+        final Response response = accessRoles.patch(data);
+
+        assertEquals("If-Match must fail without assigned roles", PRECONDITION_FAILED.getStatusCode(),
+                response.getStatus());
+        verify(session).expire();
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testPatchRolesUnknownOperation() throws RepositoryException {
+        try {
+            accessRoles.patch(singletonMap("replace", singletonMap("user1", singleton("reader"))));
+        } finally {
+            verify(accessRolesProvider, never()).patchRoles(any(Node.class),
+                    Matchers.<Map<String, Set<String>>>any(), Matchers.<Map<String, Set<String>>>any());
+            verify(session).expire();
+        }
+    }
+
     @Test
     public void testApplyNewRoles() throws RepositoryException {
 
@@ -254,10 +445,13 @@ public class AccessRolesTest {
 
         data.put("principalName", roles);
 
+        when(accessRolesProvider.postRolesIfChanged(any(Node.class), Matchers.<Map<String, Set<String>>>any()))
+                .thenReturn(true);
+
         final Response response = accessRoles.post(data);
 
         // Check that work was called
-        verify(accessRolesProvider).postRoles(any(Node.class),
+        verify(accessRolesProvider).postRolesIfChanged(any(Node.class),
                 Matchers.<Map<String, Set<String>>>any());
         verify(session).commit();
         verify(session).expire();
@@ -268,6 +462,26 @@ public class AccessRolesTest {
                         .getFirst("Location")).getPath());
     }
 
+    @Test
+    public void testApplyUnchangedRoles() throws RepositoryException {
+
+        final Map<String, Set<String>> data = new HashMap<>();
+        final Set<String> roles = new HashSet<>();
+        roles.add("role1");
+        data.put("principalName", roles);
+
+        when(accessRolesProvider.postRolesIfChanged(any(Node.class), Matchers.<Map<String, Set<String>>>any()))
+                .thenReturn(false);
+
+        final Response response = accessRoles.post(data);
+
+        // Nothing changed, so nothing is committed
+        verify(session, never()).commit();
+        verify(session).expire();
+
+        assertEquals("Status code must be CREATED", 201, response.getStatus());
+    }
+
     @Test(expected = RepositoryException.class)
     public void testApplyRolesException() throws RepositoryException {
 
@@ -276,13 +490,13 @@ public class AccessRolesTest {
         roles.add("role");
         data.put("principalName", roles);
 
-        doThrow(new RepositoryException()).when(accessRolesProvider).postRoles(
+        doThrow(new RepositoryException()).when(accessRolesProvider).postRolesIfChanged(
                 any(Node.class), Matchers.<Map<String, Set<String>>>any());
 
         try {
             accessRoles.post(data);
         } finally {
-            verify(accessRolesProvider).postRoles(any(Node.class),
+            verify(accessRolesProvider).postRolesIfChanged(any(Node.class),
                     Matchers.<Map<String, Set<String>>>any());
             verify(session, never()).commit();
             verify(session).expire();
@@ -0,0 +1,76 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static org.fcrepo.auth.roles.common.AclCodec.decode;
+import static org.fcrepo.auth.roles.common.AclCodec.encode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class AclCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("user", asList("reader", "writer"));
+        acl.put("group:admins", asList("admin"));
+        assertEquals(acl, decode(encode(acl)));
+    }
+
+    @Test
+    public void testEncodingIsOrderIndependent() {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("b", asList("writer", "reader"));
+        acl.put("a", asList("admin"));
+        assertEquals("1\na\tadmin\nb\treader\twriter", encode(acl));
+    }
+
+    @Test
+    public void testSeparatorsAreEscaped() {
+        final Map<String, Collection<String>> acl = new HashMap<>();
+        acl.put("odd\tname\n100%", asList("role\twith\ttabs"));
+        assertEquals(acl, decode(encode(acl)));
+    }
+
+    @Test
+    public void testEmptyNamesAreSkipped() {
+        final Map<String, Collection<String>> acl = decode("1\n\treader\nuser\t\treader");
+        assertEquals(1, acl.size());
+        assertEquals(asList("reader"), acl.get("user"));
+    }
+
+    @Test
+    public void testEmptyAcl() {
+        assertTrue(decode(encode(new HashMap<String, Collection<String>>())).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownVersion() {
+        decode("2\nuser\treader");
+    }
+}
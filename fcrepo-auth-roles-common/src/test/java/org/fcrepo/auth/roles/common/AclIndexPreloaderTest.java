@@ -0,0 +1,152 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static org.fcrepo.auth.roles.common.Constants.JcrName.rbaclAssignable;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+
+import org.fcrepo.auth.roles.common.AclIndexPreloader.PreloadMode;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/**
+ * @author agent
+ */
+public class AclIndexPreloaderTest {
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private RbAclAccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private FedoraSessionImpl fedoraSession;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Workspace workspace;
+
+    @Mock
+    private QueryManager queryManager;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private QueryResult result;
+
+    @Mock
+    private NodeIterator nodes;
+
+    @Mock
+    private Node node1;
+
+    @Mock
+    private Node node2;
+
+    private AclIndexPreloader preloader;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+        when(sessionFactory.getInternalSession()).thenReturn(fedoraSession);
+        when(fedoraSession.getJcrSession()).thenReturn(session);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getNodes()).thenReturn(nodes);
+        when(nodes.hasNext()).thenReturn(true, true, false);
+        when(nodes.nextNode()).thenReturn(node1, node2);
+        when(node1.getPath()).thenReturn("/a");
+        when(node2.getPath()).thenReturn("/b");
+        when(accessRolesProvider.isAclIndexEnabled()).thenReturn(true);
+        when(accessRolesProvider.newIndex()).thenReturn(new AclPathTrie());
+
+        preloader = new AclIndexPreloader();
+        setField(preloader, "sessionFactory", sessionFactory);
+        setField(preloader, "accessRolesProvider", accessRolesProvider);
+        preloader.setThreads(2);
+    }
+
+    @Test
+    public void testPreload() throws RepositoryException {
+        preloader.setMode(PreloadMode.SYNC);
+        preloader.start();
+
+        verify(accessRolesProvider).beginIndexPreload();
+        verify(accessRolesProvider).preloadIndexEntry(any(AclIndex.class), eq("/a"), eq(session));
+        verify(accessRolesProvider).preloadIndexEntry(any(AclIndex.class), eq("/b"), eq(session));
+        verify(accessRolesProvider).completeIndexPreload(any(AclIndex.class), eq(session));
+        verify(queryManager).createQuery(eq("SELECT [jcr:path] FROM [" + rbaclAssignable.getQualified() + "] AS n"),
+                anyString());
+    }
+
+    @Test
+    public void testPreloadFailure() throws RepositoryException {
+        doThrow(new RepositoryException("broken")).when(accessRolesProvider)
+                .preloadIndexEntry(any(AclIndex.class), eq("/b"), eq(session));
+
+        assertEquals(-1, preloader.preload());
+
+        verify(accessRolesProvider).abortIndexPreload();
+        verify(accessRolesProvider, never()).completeIndexPreload(any(AclIndex.class), eq(session));
+    }
+
+    @Test
+    public void testNoPreloadWithoutIndex() throws RepositoryException {
+        when(accessRolesProvider.isAclIndexEnabled()).thenReturn(false);
+        preloader.setMode(PreloadMode.SYNC);
+        preloader.start();
+
+        verify(accessRolesProvider, never()).beginIndexPreload();
+        verify(queryManager, never()).createQuery(anyString(), anyString());
+    }
+
+    @Test
+    public void testNoPreloadByDefault() throws RepositoryException {
+        preloader.start();
+
+        verify(accessRolesProvider, never()).beginIndexPreload();
+        verify(queryManager, never()).createQuery(anyString(), anyString());
+    }
+}
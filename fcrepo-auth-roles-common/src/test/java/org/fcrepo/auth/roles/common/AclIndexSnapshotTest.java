@@ -0,0 +1,138 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author agent
+ */
+public class AclIndexSnapshotTest {
+
+    private static final Map<String, Collection<String>> READER = singletonMap("user", asList("reader"));
+
+    private static final Map<String, Collection<String>> WRITER = singletonMap("other\tuser", asList("writer"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AclPathTrie index;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        index = new AclPathTrie();
+        index.put(new String[0], new AclIndex.Entry("/", READER));
+        index.put(new String[] {"a", "b[2]"}, new AclIndex.Entry("/a/b[2]", WRITER));
+        file = new File(folder.getRoot(), "acl-index");
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        assertEquals(2, AclIndexSnapshot.write(index, 1234L, file));
+
+        final AclIndexSnapshot snapshot = AclIndexSnapshot.read(file, new AclPathTrie());
+
+        assertNotNull(snapshot);
+        assertEquals(1234L, snapshot.getPosition());
+        assertEquals(2, snapshot.getIndex().size());
+        final AclIndex.Entry entry = snapshot.getIndex().findNearest(new String[] {"a", "b[2]", "c"});
+        assertEquals("/a/b[2]", entry.getPath());
+        assertEquals(WRITER, entry.getAcl());
+        assertEquals(READER, snapshot.getIndex().findNearest(new String[] {"a"}).getAcl());
+    }
+
+    @Test
+    public void testReadRebuildsPathFromKeys() throws IOException {
+        index.put(new String[] {"{http://example.org/ns/}c"}, new AclIndex.Entry("/ex:c", READER));
+        AclIndexSnapshot.write(index, 1234L, file);
+
+        final AclIndexSnapshot snapshot = AclIndexSnapshot.read(file, new AclPathTrie());
+
+        assertNotNull(snapshot);
+        assertEquals("/{http://example.org/ns/}c",
+                snapshot.getIndex().get(new String[] {"{http://example.org/ns/}c"}).getPath());
+    }
+
+    @Test
+    public void testForEachVisitsEveryEntry() {
+        final List<String> paths = new ArrayList<>();
+        index.forEach((keys, entry) -> paths.add(keys.length + entry.getPath()));
+
+        assertEquals(2, paths.size());
+        assertEquals("0/", paths.get(0));
+        assertEquals("2/a/b[2]", paths.get(1));
+    }
+
+    @Test
+    public void testReadMissing() {
+        assertNull(AclIndexSnapshot.read(file, new AclPathTrie()));
+    }
+
+    @Test
+    public void testReadCorrupt() throws IOException {
+        AclIndexSnapshot.write(index, 1234L, file);
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(30);
+            final int b = raf.read();
+            raf.seek(30);
+            raf.write(b ^ 0xff);
+        }
+
+        assertNull(AclIndexSnapshot.read(file, new AclPathTrie()));
+    }
+
+    @Test
+    public void testReadTruncated() throws IOException {
+        AclIndexSnapshot.write(index, 1234L, file);
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        assertNull(AclIndexSnapshot.read(file, new AclPathTrie()));
+    }
+
+    @Test
+    public void testReadOtherVersion() throws IOException {
+        AclIndexSnapshot.write(index, 1234L, file);
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.writeInt(AclIndexSnapshot.VERSION + 1);
+        }
+
+        assertNull(AclIndexSnapshot.read(file, new AclPathTrie()));
+    }
+}
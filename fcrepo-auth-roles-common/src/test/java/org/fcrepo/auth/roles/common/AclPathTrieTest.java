@@ -0,0 +1,138 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.fcrepo.auth.roles.common.AclPathKeys.keys;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AclPathTrieTest {
+
+    private static final Map<String, Collection<String>> READER = singletonMap("user", asList("reader"));
+
+    private static final Map<String, Collection<String>> WRITER = singletonMap("user", asList("writer"));
+
+    @Mock
+    private Session session;
+
+    private AclPathTrie trie;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        trie = new AclPathTrie();
+        when(session.getNamespaceURI(JcrName.NS_PREFIX)).thenReturn(JcrName.NS_URI);
+    }
+
+    private String[] k(final String path) throws RepositoryException {
+        return keys(path, session);
+    }
+
+    @Test
+    public void testKeysResolvePrefixesAndIndexes() throws RepositoryException {
+        assertArrayEquals(new String[0], k("/"));
+        assertArrayEquals(new String[] {"a", "{" + JcrName.NS_URI + "}rbacl", "b[2]"},
+                k("/a/authz:rbacl/b[2]"));
+        assertArrayEquals(k("/a/authz:rbacl"), k("/a/{" + JcrName.NS_URI + "}rbacl[1]"));
+    }
+
+    @Test
+    public void testFindNearestAncestor() throws RepositoryException {
+        final AclIndex.Entry root = new AclIndex.Entry("/", READER);
+        final AclIndex.Entry child = new AclIndex.Entry("/a/b", WRITER);
+        trie.put(k("/"), root);
+        trie.put(k("/a/b"), child);
+
+        assertSame(root, trie.findNearest(k("/a")));
+        assertSame(child, trie.findNearest(k("/a/b")));
+        assertSame(child, trie.findNearest(k("/a/b/c/d")));
+        assertSame(root, trie.findNearest(k("/a/bc")));
+        assertNull(trie.get(k("/a")));
+        assertEquals(2, trie.size());
+    }
+
+    @Test
+    public void testFindNearestWithoutEntries() throws RepositoryException {
+        trie.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+        assertNull(trie.findNearest(k("/a")));
+        assertNull(trie.findNearest(k("/x/y")));
+    }
+
+    @Test
+    public void testRemoveKeepsDescendants() throws RepositoryException {
+        final AclIndex.Entry child = new AclIndex.Entry("/a/b", WRITER);
+        trie.put(k("/a"), new AclIndex.Entry("/a", READER));
+        trie.put(k("/a/b"), child);
+
+        trie.remove(k("/a"));
+
+        assertNull(trie.findNearest(k("/a/c")));
+        assertSame(child, trie.findNearest(k("/a/b/c")));
+        assertEquals(1, trie.size());
+    }
+
+    @Test
+    public void testRemoveSubtree() throws RepositoryException {
+        final AclIndex.Entry root = new AclIndex.Entry("/", READER);
+        trie.put(k("/"), root);
+        trie.put(k("/a"), new AclIndex.Entry("/a", WRITER));
+        trie.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+
+        trie.removeSubtree(k("/a"));
+
+        assertSame(root, trie.findNearest(k("/a/b/c")));
+        assertEquals(1, trie.size());
+    }
+
+    @Test
+    public void testContainsSubtree() throws RepositoryException {
+        trie.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+
+        assertTrue(trie.containsSubtree(k("/")));
+        assertTrue(trie.containsSubtree(k("/a")));
+        assertTrue(trie.containsSubtree(k("/a/b")));
+        assertFalse(trie.containsSubtree(k("/a/b/c")));
+        assertFalse(trie.containsSubtree(k("/x")));
+
+        trie.remove(k("/a/b"));
+        assertFalse(trie.containsSubtree(k("/a")));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.fcrepo.http.commons.test.util.TestHelpers.setField;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Collection;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/**
+ * @author agent
+ */
+public class AclStorageMigratorTest {
+
+    private static final Map<String, Collection<String>> READERS = singletonMap("user1", singletonList("reader"));
+
+    private static final Map<String, Collection<String>> WRITERS = singletonMap("user1", singletonList("writer"));
+
+    @Mock
+    private SessionFactory sessionFactory;
+
+    @Mock
+    private RbAclAccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private FedoraSessionImpl fedoraSession;
+
+    @Mock
+    private FedoraSessionImpl checkFedoraSession;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Session checkSession;
+
+    @Mock
+    private Workspace workspace;
+
+    @Mock
+    private QueryManager queryManager;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private QueryResult result;
+
+    @Mock
+    private NodeIterator nodes;
+
+    @Mock
+    private Node node;
+
+    @Mock
+    private Node storedNode;
+
+    private AclStorageMigrator migrator;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        initMocks(this);
+        when(sessionFactory.getInternalSession()).thenReturn(fedoraSession, checkFedoraSession);
+        when(fedoraSession.getJcrSession()).thenReturn(session);
+        when(checkFedoraSession.getJcrSession()).thenReturn(checkSession);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getNodes()).thenReturn(nodes);
+        when(nodes.hasNext()).thenReturn(true, false);
+        when(nodes.nextNode()).thenReturn(node);
+        when(node.getPath()).thenReturn("/a");
+        when(session.nodeExists("/a")).thenReturn(true);
+        when(session.getNode("/a")).thenReturn(node);
+        when(checkSession.nodeExists("/a")).thenReturn(true);
+        when(checkSession.getNode("/a")).thenReturn(storedNode);
+        when(accessRolesProvider.migrateRoles(node)).thenReturn(true);
+
+        migrator = new AclStorageMigrator();
+        setField(migrator, "sessionFactory", sessionFactory);
+        setField(migrator, "accessRolesProvider", accessRolesProvider);
+    }
+
+    @Test
+    public void testMigrate() throws RepositoryException {
+        when(accessRolesProvider.getRoles(node, false)).thenReturn(READERS);
+        when(accessRolesProvider.getRoles(storedNode, false)).thenReturn(READERS);
+
+        assertEquals(1, migrator.migrate());
+
+        verify(fedoraSession).commit();
+        verify(session, never()).refresh(false);
+        verify(fedoraSession).expire();
+        verify(checkFedoraSession).expire();
+    }
+
+    @Test
+    public void testBatchChangedBeforeSaveIsRewritten() throws RepositoryException {
+        // a user writes new roles after the migration read the old ones
+        when(accessRolesProvider.getRoles(node, false)).thenReturn(READERS, WRITERS);
+        when(accessRolesProvider.getRoles(storedNode, false)).thenReturn(WRITERS);
+
+        assertEquals(1, migrator.migrate());
+
+        verify(session).refresh(false);
+        verify(accessRolesProvider, times(2)).migrateRoles(node);
+        verify(fedoraSession).commit();
+    }
+
+    @Test
+    public void testBatchThatKeepsChangingIsSkipped() throws RepositoryException {
+        when(accessRolesProvider.getRoles(node, false)).thenReturn(READERS);
+        when(accessRolesProvider.getRoles(storedNode, false)).thenReturn(WRITERS);
+
+        assertEquals(0, migrator.migrate());
+
+        verify(session, times(3)).refresh(false);
+        verify(fedoraSession, never()).commit();
+    }
+}
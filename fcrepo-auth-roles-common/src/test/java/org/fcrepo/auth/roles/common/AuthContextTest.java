@@ -0,0 +1,85 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.when;
+
+import java.security.Principal;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AuthContextTest {
+
+    @Mock
+    private Principal principalA;
+
+    @Mock
+    private Principal principalB;
+
+    @Mock
+    private Principal principalAb;
+
+    @Mock
+    private Principal principalEmpty;
+
+    @Before
+    public void setUp() {
+        when(principalA.getName()).thenReturn("a");
+        when(principalB.getName()).thenReturn("b");
+        when(principalAb.getName()).thenReturn("ab");
+        when(principalEmpty.getName()).thenReturn("");
+    }
+
+    @Test
+    public void testNamesAreSorted() {
+        final AuthContext context = new AuthContext(principalB, principals(principalB, principalA));
+        assertArrayEquals(new String[] {"a", "b"}, context.getPrincipalNames());
+    }
+
+    @Test
+    public void testFingerprintIgnoresOrder() {
+        assertEquals(new AuthContext(principalA, principals(principalA, principalB)).getFingerprint(),
+                new AuthContext(principalB, principals(principalB, principalA)).getFingerprint());
+    }
+
+    @Test
+    public void testFingerprintSeparatesNames() {
+        assertNotEquals(new AuthContext(principalA, principals(principalA, principalB)).getFingerprint(),
+                new AuthContext(principalAb, principals(principalAb, principalEmpty)).getFingerprint());
+        assertNotEquals(new AuthContext(principalA, principals(principalA)).getFingerprint(),
+                new AuthContext(principalB, principals(principalB)).getFingerprint());
+    }
+
+    private static Set<Principal> principals(final Principal... principals) {
+        return new LinkedHashSet<>(asList(principals));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CompiledAclTest {
+
+    @Mock
+    private Principal principalA;
+
+    @Mock
+    private Principal principalB;
+
+    private Map<String, Collection<String>> acl;
+
+    @Before
+    public void setUp() {
+        when(principalA.getName()).thenReturn("a");
+        when(principalB.getName()).thenReturn("b");
+        acl = new HashMap<>();
+        acl.put("a", asList("reader", "writer"));
+        acl.put("b", asList("admin"));
+    }
+
+    @Test
+    public void testResolve() {
+        final Set<Principal> principals = new HashSet<>(asList(principalA, principalB));
+        final long roles = CompiledAcl.of(acl).resolve(principals);
+        assertEquals(RoleIds.mask(asList("reader", "writer", "admin")), roles);
+        assertEquals(AbstractRolesAuthorizationDelegate.resolveUserRoles(acl, principals), RoleIds.names(roles));
+    }
+
+    @Test
+    public void testResolveUnmatched() {
+        assertEquals(0, CompiledAcl.of(acl).resolve(new HashSet<>(asList(principalB))) & RoleIds.bit("reader"));
+        assertEquals(0, CompiledAcl.EMPTY.resolve(new HashSet<>(asList(principalA))));
+    }
+
+    @Test
+    public void testOfKeepsAssignments() {
+        final CompiledAcl compiled = CompiledAcl.of(acl);
+        assertEquals(acl, compiled);
+        assertSame(compiled, CompiledAcl.of(compiled));
+        assertSame(CompiledAcl.EMPTY, CompiledAcl.of(emptyMap()));
+    }
+
+    @Test
+    public void testOfInternsEqualLists() {
+        final Map<String, Collection<String>> copy = new HashMap<>();
+        copy.put("b", asList("admin", "admin"));
+        copy.put("a", asList("writer", "reader"));
+
+        final CompiledAcl compiled = CompiledAcl.of(acl);
+        assertSame(compiled, CompiledAcl.of(copy));
+        assertEquals(compiled.getVersion(), CompiledAcl.of(copy).getVersion());
+        assertEquals(asList("reader", "writer"), compiled.get("a"));
+        assertNotSame(compiled, CompiledAcl.of(new HashMap<>(singletonMap("a", asList("reader")))));
+    }
+
+    @Test
+    public void testTagFollowsAssignments() {
+        final Map<String, Collection<String>> copy = new HashMap<>();
+        copy.put("a", asList("writer", "reader", "reader"));
+        copy.put("b", asList("admin"));
+
+        final String tag = CompiledAcl.of(acl).getTag();
+        assertEquals(tag, CompiledAcl.of(copy).getTag());
+        copy.put("b", asList("reader"));
+        assertNotEquals(tag, CompiledAcl.of(copy).getTag());
+        assertNotEquals(tag, CompiledAcl.EMPTY.getTag());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        CompiledAcl.of(acl).put("c", asList("reader"));
+    }
+
+    @Test
+    public void testRoleIdsAreStable() {
+        final long bit = RoleIds.bit("compiled-acl-test");
+        assertEquals(1, Long.bitCount(bit));
+        assertEquals(bit, RoleIds.bit("compiled-acl-test"));
+        assertEquals(new HashSet<>(asList("compiled-acl-test")), RoleIds.names(bit));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DecisionCacheTest {
+
+    private static final String[] READ = {"read"};
+
+    private static final String[] WRITE = {"add_node"};
+
+    private static final Map<String, Collection<String>> ACL = singletonMap("a", asList("reader"));
+
+    @Mock
+    private Principal principalA;
+
+    @Mock
+    private Principal principalB;
+
+    private AuthContext contextA;
+
+    private DecisionCache cache;
+
+    @Before
+    public void setUp() {
+        when(principalA.getName()).thenReturn("a");
+        when(principalB.getName()).thenReturn("b");
+        contextA = new AuthContext(principalA, singleton(principalA));
+        cache = new DecisionCache(100);
+    }
+
+    @Test
+    public void testSharedBetweenSessionsWithSamePrincipals() {
+        final CompiledAcl acl = CompiledAcl.of(ACL);
+        cache.put(contextA, acl, READ, false, true, cache.stamp());
+        assertEquals(true, cache.get(new AuthContext(principalA, singleton(principalA)), acl, READ, false));
+    }
+
+    @Test
+    public void testSharedBetweenEqualAcls() {
+        final CompiledAcl acl = CompiledAcl.of(ACL);
+        cache.put(contextA, acl, READ, false, true, cache.stamp());
+        assertEquals("An equal ACL compiles to the same version", true,
+                cache.get(contextA, CompiledAcl.of(new HashMap<>(ACL)), READ, false));
+    }
+
+    @Test
+    public void testKeyedByPrincipalsAclActionsAndAclNode() {
+        final CompiledAcl acl = CompiledAcl.of(ACL);
+        cache.put(contextA, acl, READ, false, true, cache.stamp());
+        assertNull(cache.get(new AuthContext(principalB, singleton(principalB)), acl, READ, false));
+        assertNull("A different ACL is a different version",
+                cache.get(contextA, CompiledAcl.of(singletonMap("a", asList("writer"))), READ, false));
+        assertNull(cache.get(contextA, acl, WRITE, false));
+        assertNull(cache.get(contextA, acl, READ, true));
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        final CompiledAcl acl = CompiledAcl.of(ACL);
+        cache.put(contextA, acl, READ, false, true, cache.stamp());
+        cache.invalidateAll();
+        assertNull(cache.get(contextA, acl, READ, false));
+    }
+
+    @Test
+    public void testDecisionRacingInvalidationIsNotServed() {
+        final CompiledAcl acl = CompiledAcl.of(ACL);
+        final long stamp = cache.stamp();
+        cache.invalidateAll();
+        cache.put(contextA, acl, READ, false, true, stamp);
+        assertNull("A decision made before an invalidation must not be served", cache.get(contextA, acl, READ, false));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.OK;
+import static org.fcrepo.http.commons.test.util.TestHelpers.mockSession;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.fcrepo.http.commons.session.HttpSession;
+import org.fcrepo.kernel.api.FedoraSession;
+import org.fcrepo.kernel.api.models.FedoraResource;
+import org.fcrepo.kernel.api.services.NodeService;
+import org.fcrepo.kernel.modeshape.FedoraSessionImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EffectiveAccessRolesTest {
+
+    @Mock
+    private AccessRolesProvider accessRolesProvider;
+
+    @Mock
+    private NodeService nodeService;
+
+    @Mock
+    private FedoraResource fedoraResource;
+
+    @Mock
+    private FedoraSessionImpl fedoraSession;
+
+    @Mock
+    private HttpSession session;
+
+    @Mock
+    private Node mockNode;
+
+    private EffectiveAccessRoles effectiveAccessRoles;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        effectiveAccessRoles = new EffectiveAccessRoles("/some/path");
+        setField(effectiveAccessRoles, "accessRolesProvider", accessRolesProvider);
+        setField(effectiveAccessRoles, "nodeService", nodeService);
+        final Session jcrSession = mockSession(effectiveAccessRoles);
+        setField(effectiveAccessRoles, "session", session);
+
+        when(session.getFedoraSession()).thenReturn(fedoraSession);
+        when(fedoraSession.getJcrSession()).thenReturn(jcrSession);
+        when(jcrSession.getNode(anyString())).thenReturn(mockNode);
+
+        when(nodeService.find(any(FedoraSession.class), anyString())).thenReturn(fedoraResource);
+    }
+
+    @Test
+    public void testPostStreamsRolesOfEachPath() throws IOException {
+        final Map<String, Collection<String>> acl = singletonMap("user1", singletonList("reader"));
+        when(accessRolesProvider.getEffectiveRoles(anyListOf(Node.class))).thenAnswer(invocation -> {
+            final List<?> nodes = (List<?>) invocation.getArguments()[0];
+            final List<Map<String, Collection<String>>> roles = new ArrayList<>();
+            nodes.forEach(n -> roles.add(acl));
+            return roles;
+        });
+
+        final Response response = effectiveAccessRoles.post(asList("child1", "/child2", "child1"));
+
+        assertEquals(OK.getStatusCode(), response.getStatus());
+        verify(session).expire();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        final Map<String, Map<String, List<String>>> result = new ObjectMapper().readValue(out.toByteArray(),
+                new TypeReference<Map<String, Map<String, List<String>>>>() {});
+        assertEquals(asList("child1", "/child2"), new ArrayList<>(result.keySet()));
+        assertEquals(acl, result.get("child1"));
+        assertEquals(acl, result.get("/child2"));
+    }
+
+    @Test
+    public void testPostWithoutProvider() {
+        setField(effectiveAccessRoles, "accessRolesProvider", null);
+
+        final Response response = effectiveAccessRoles.post(asList("child1"));
+
+        assertEquals(NOT_FOUND.getStatusCode(), response.getStatus());
+        verify(session).expire();
+    }
+
+    @Test
+    public void testPostWithoutPaths() {
+        final Response response = effectiveAccessRoles.post(null);
+
+        assertEquals(BAD_REQUEST.getStatusCode(), response.getStatus());
+        verify(session).expire();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+
+import javax.jcr.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class EffectiveAclCacheTest {
+
+    private static final Map<String, Collection<String>> ACL = singletonMap("user", asList("reader"));
+
+    @Mock
+    private Session writer;
+
+    private EffectiveAclCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new EffectiveAclCache(10, 0);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        cache.put("/a", ACL, cache.stamp());
+        assertEquals(ACL, cache.get("/a"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCachedRolesAreImmutable() {
+        cache.put("/a", ACL, cache.stamp()).get("user").add("admin");
+    }
+
+    @Test
+    public void testLoadRacingInvalidationIsNotCached() {
+        final long stamp = cache.stamp();
+        cache.invalidate("/b", null);
+        assertEquals("Loaded roles should still be returned", ACL, cache.put("/a", ACL, stamp));
+        assertNull("Roles loaded before an invalidation must not be cached", cache.get("/a"));
+    }
+
+    @Test
+    public void testPendingWriteIsNotCachedUntilCommitted() {
+        when(writer.isLive()).thenReturn(true);
+        cache.invalidate("/a", writer);
+        cache.put("/a", ACL, cache.stamp());
+        assertNull("Roles must not be cached while a write is pending", cache.get("/a"));
+
+        when(writer.isLive()).thenReturn(false);
+        cache.put("/a", ACL, cache.stamp());
+        assertNull("Roles loaded while the write was pending must not be cached", cache.get("/a"));
+        cache.put("/a", ACL, cache.stamp());
+        assertEquals(ACL, cache.get("/a"));
+    }
+
+    @Test
+    public void testLoadSpanningCommitIsNotCached() {
+        when(writer.isLive()).thenReturn(true);
+        cache.invalidate("/a", writer);
+        // a load stamps, then reads the roles before the write is saved
+        final long stamp = cache.stamp();
+        when(writer.isLive()).thenReturn(false);
+        // another load finds the writer gone first
+        cache.put("/a", ACL, cache.stamp());
+        cache.put("/a", ACL, stamp);
+        assertNull("Roles loaded before the write was saved must not be cached", cache.get("/a"));
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        cache.put("/a", ACL, cache.stamp());
+        cache.invalidateAll();
+        assertNull(cache.get("/a"));
+    }
+
+    @Test
+    public void testInvalidateSubtree() {
+        cache.put("/a", ACL, cache.stamp());
+        cache.put("/a/b", ACL, cache.stamp());
+        cache.put("/ab", ACL, cache.stamp());
+        cache.invalidateSubtree("/a");
+        assertNull(cache.get("/a"));
+        assertNull(cache.get("/a/b"));
+        assertEquals("Siblings sharing a name prefix must be kept", ACL, cache.get("/ab"));
+    }
+
+    @Test
+    public void testInvalidateSubtrees() {
+        cache.put("/a/b", ACL, cache.stamp());
+        cache.put("/c", ACL, cache.stamp());
+        cache.put("/d", ACL, cache.stamp());
+        cache.invalidateSubtrees(asList("/a", "/c", "/x"));
+        assertNull(cache.get("/a/b"));
+        assertNull(cache.get("/c"));
+        assertEquals(ACL, cache.get("/d"));
+    }
+
+    @Test
+    public void testCachedSubtrees() {
+        cache.put("/a/b", ACL, cache.stamp());
+        cache.put("/c", ACL, cache.stamp());
+        assertEquals(new HashSet<>(asList("/a", "/c")), cache.cachedSubtrees(asList("/a", "/c", "/a/x", "/ab")));
+    }
+}
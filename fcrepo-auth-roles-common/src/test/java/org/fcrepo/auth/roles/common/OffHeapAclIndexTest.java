@@ -0,0 +1,214 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.common;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.fcrepo.auth.roles.common.AclPathKeys.keys;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class OffHeapAclIndexTest {
+
+    private static final Map<String, Collection<String>> READER = singletonMap("user", asList("reader"));
+
+    private static final Map<String, Collection<String>> WRITER = singletonMap("user", asList("writer"));
+
+    @Mock
+    private Session session;
+
+    private OffHeapAclIndex index;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        index = new OffHeapAclIndex(1024);
+        when(session.getNamespaceURI(JcrName.NS_PREFIX)).thenReturn(JcrName.NS_URI);
+    }
+
+    private String[] k(final String path) throws RepositoryException {
+        return keys(path, session);
+    }
+
+    @Test
+    public void testFindNearestAncestor() throws RepositoryException {
+        index.put(k("/"), new AclIndex.Entry("/", READER));
+        index.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+
+        assertEquals(READER, index.findNearest(k("/a")).getAcl());
+        assertEquals("/", index.findNearest(k("/a")).getPath());
+        assertEquals(WRITER, index.findNearest(k("/a/b")).getAcl());
+        assertEquals("/a/b", index.findNearest(k("/a/b/c/d")).getPath());
+        assertEquals(READER, index.findNearest(k("/a/bc")).getAcl());
+        assertNull(index.get(k("/a")));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testFindNearestWithoutEntries() throws RepositoryException {
+        index.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+        assertNull(index.findNearest(k("/a")));
+        assertNull(index.findNearest(k("/x/y")));
+    }
+
+    @Test
+    public void testPathsUseExpandedNames() throws RepositoryException {
+        index.put(k("/a/authz:rbacl/\u00e9"), new AclIndex.Entry("/a/authz:rbacl/\u00e9", WRITER));
+
+        assertEquals("/a/{" + JcrName.NS_URI + "}rbacl/\u00e9", index.get(k("/a/authz:rbacl/\u00e9")).getPath());
+        assertNull(index.findNearest(k("/a/authz:rbacl/e")));
+    }
+
+    @Test
+    public void testRemoveKeepsDescendants() throws RepositoryException {
+        index.put(k("/a"), new AclIndex.Entry("/a", READER));
+        index.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+
+        index.remove(k("/a"));
+
+        assertNull(index.findNearest(k("/a/c")));
+        assertEquals(WRITER, index.findNearest(k("/a/b/c")).getAcl());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRemoveSubtree() throws RepositoryException {
+        index.put(k("/"), new AclIndex.Entry("/", READER));
+        index.put(k("/a"), new AclIndex.Entry("/a", WRITER));
+        index.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+        index.put(k("/ab"), new AclIndex.Entry("/ab", WRITER));
+
+        index.removeSubtree(k("/a"));
+
+        assertEquals(READER, index.findNearest(k("/a/b/c")).getAcl());
+        assertEquals(WRITER, index.findNearest(k("/ab/c")).getAcl());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testRemoveSubtreeKeepsSiblings() throws RepositoryException {
+        for (int i = 0; i < 1000; i++) {
+            index.put(k("/p/c" + i + "/d"), new AclIndex.Entry("/p/c" + i + "/d", WRITER));
+        }
+        index.put(k("/p/c5"), new AclIndex.Entry("/p/c5", READER));
+
+        index.removeSubtree(k("/p/c5"));
+        index.removeSubtree(k("/p/c999"));
+        index.removeSubtree(k("/p/c0"));
+
+        assertEquals(997, index.size());
+        assertNull(index.findNearest(k("/p/c5/d")));
+        assertEquals(WRITER, index.findNearest(k("/p/c6/d/e")).getAcl());
+
+        index.put(k("/p/c5/d"), new AclIndex.Entry("/p/c5/d", READER));
+        index.removeSubtree(k("/p"));
+
+        assertEquals(0, index.size());
+        assertFalse(index.containsSubtree(k("/")));
+        index.put(k("/p/c1/d"), new AclIndex.Entry("/p/c1/d", READER));
+        assertEquals(READER, index.findNearest(k("/p/c1/d")).getAcl());
+    }
+
+    @Test
+    public void testContainsSubtree() throws RepositoryException {
+        index.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+
+        assertTrue(index.containsSubtree(k("/")));
+        assertTrue(index.containsSubtree(k("/a")));
+        assertTrue(index.containsSubtree(k("/a/b")));
+        assertFalse(index.containsSubtree(k("/a/b/c")));
+        assertFalse(index.containsSubtree(k("/x")));
+
+        index.removeSubtree(k("/a"));
+        assertFalse(index.containsSubtree(k("/a")));
+        assertFalse(index.containsSubtree(k("/")));
+    }
+
+    @Test
+    public void testEqualAclsAreStoredOnce() throws RepositoryException {
+        index.put(k("/a"), new AclIndex.Entry("/a", READER));
+        index.put(k("/b"), new AclIndex.Entry("/b", singletonMap("user", asList("reader"))));
+        index.put(k("/c"), new AclIndex.Entry("/c", WRITER));
+
+        assertEquals(2, index.distinctAcls());
+        // Equal lists decode to the same map
+        assertSame(index.get(k("/a")).getAcl(), index.get(k("/b")).getAcl());
+
+        index.remove(k("/c"));
+        assertEquals(1, index.distinctAcls());
+    }
+
+    @Test
+    public void testForEach() throws RepositoryException {
+        index.put(k("/"), new AclIndex.Entry("/", READER));
+        index.put(k("/a/b"), new AclIndex.Entry("/a/b", WRITER));
+
+        final Map<String, Map<String, Collection<String>>> visited = new HashMap<>();
+        index.forEach((keys, entry) -> visited.put(String.join("/", keys), entry.getAcl()));
+
+        assertEquals(2, visited.size());
+        assertEquals(READER, visited.get(""));
+        assertEquals(WRITER, visited.get("a/b"));
+    }
+
+    @Test
+    public void testGrowAndCompact() throws RepositoryException {
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            final String path = "/objects/" + (i % 50) + "/" + i;
+            paths.add(path);
+            index.put(k(path), new AclIndex.Entry(path, singletonMap("user" + i, asList("reader"))));
+        }
+        final long grown = index.offHeapBytes();
+        for (int i = 0; i < 4900; i++) {
+            index.remove(k(paths.get(i)));
+        }
+
+        assertEquals(100, index.size());
+        assertTrue("Removed entries should be reclaimed", index.offHeapBytes() < grown);
+        for (int i = 4900; i < 5000; i++) {
+            final AclIndex.Entry entry = index.get(k(paths.get(i)));
+            assertEquals(paths.get(i), entry.getPath());
+            assertEquals(singletonMap("user" + i, asList("reader")), entry.getAcl());
+        }
+        assertNull(index.findNearest(k(paths.get(0))));
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.AbstractRolesAuthorizationDelegate;
+import org.fcrepo.auth.roles.common.RoleIds;
+import org.modeshape.jcr.value.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Authorization delegate whose roles and the actions they permit are defined by a {@link RolePolicy} file rather
+ * than in code. The file is polled for changes; a changed policy is compiled and swapped in atomically, so
+ * decisions never lock and never see a partly loaded policy. A policy that fails to load leaves the previous one in
+ * force. Until a file is configured, the bundled policy granting the basic admin, writer and reader roles is
+ * used.
+ *
+ * @author agent
+ */
+public class PolicyRolesAuthorizationDelegate extends AbstractRolesAuthorizationDelegate {
+
+    public static final String EVERYONE_NAME = "EVERYONE";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PolicyRolesAuthorizationDelegate.class);
+
+    private static final String DEFAULT_POLICY = "/policy/default-policy.properties";
+
+    /**
+     * The security principal for every request, that represents the "EVERYONE" user.
+     */
+    private static final Principal EVERYONE = new Principal() {
+
+        @Override
+        public String getName() {
+            return PolicyRolesAuthorizationDelegate.EVERYONE_NAME;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+
+    };
+
+    private final AtomicReference<RolePolicy> policy = new AtomicReference<>(loadDefaultPolicy());
+
+    private String policyFile = "";
+
+    private long reloadInterval = 5;
+
+    private long lastModified;
+
+    private ScheduledExecutorService watcher;
+
+    /**
+     * @param policyFile path of the policy file, or empty for the bundled default policy
+     */
+    @Value("${fcrepo.auth.rbacl.policy.file:}")
+    public void setPolicyFile(final String policyFile) {
+        this.policyFile = policyFile;
+    }
+
+    /**
+     * @param reloadInterval seconds between checks of the policy file for changes, or 0 to never reload it
+     */
+    @Value("${fcrepo.auth.rbacl.policy.reloadInterval:5}")
+    public void setReloadInterval(final long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    /**
+     * Load the policy and start watching the policy file.
+     *
+     * @throws IOException if the policy cannot be read
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (policyFile.isEmpty()) {
+            LOGGER.info("Using the default role policy");
+            return;
+        }
+        lastModified = Files.getLastModifiedTime(Paths.get(policyFile)).toMillis();
+        policy.set(loadPolicyFile());
+        invalidateDecisions();
+        LOGGER.info("Loaded role policy from {}", policyFile);
+        if (reloadInterval > 0) {
+            watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "rbacl-policy");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watcher.scheduleWithFixedDelay(this::reload, reloadInterval, reloadInterval, SECONDS);
+        }
+    }
+
+    /**
+     * Stop watching the policy file.
+     */
+    @PreDestroy
+    public void close() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Reload the policy file if it was modified since it was last loaded.
+     */
+    public void reload() {
+        try {
+            final long modified = Files.getLastModifiedTime(Paths.get(policyFile)).toMillis();
+            if (modified == lastModified) {
+                return;
+            }
+            lastModified = modified;
+            policy.set(loadPolicyFile());
+            invalidateDecisions();
+            LOGGER.info("Reloaded role policy from {}", policyFile);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.error("Unable to reload role policy from {}, keeping the current policy", policyFile, e);
+        }
+    }
+
+    private static RolePolicy loadDefaultPolicy() {
+        try (final InputStream in = PolicyRolesAuthorizationDelegate.class.getResourceAsStream(DEFAULT_POLICY)) {
+            return RolePolicy.load(in);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Unable to read the default role policy", e);
+        }
+    }
+
+    private RolePolicy loadPolicyFile() throws IOException {
+        try (final InputStream in = Files.newInputStream(Paths.get(policyFile))) {
+            return RolePolicy.load(in);
+        }
+    }
+
+    /**
+     * @return the policy in force
+     */
+    public RolePolicy getPolicy() {
+        return policy.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * String absPath, final String[] actions, final Set<String> roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession,
+            final String absPath,
+            final String[] actions, final Set<String> roles) {
+        final boolean aclNode = absPath.contains(AUTHZ_DETECTION);
+        final boolean permitted = policy.get().permits(roles, actions, aclNode);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Decision for roles {}, actions {}, ACL node {}: {}", roles, Arrays.toString(actions),
+                    aclNode, permitted);
+        }
+        return permitted;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * String absPath, final String[] actions, final long roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession,
+            final String absPath,
+            final String[] actions, final long roles) {
+        return decide(roles, actions, absPath.contains(AUTHZ_DETECTION));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.fcrepo.auth.roles.AbstractRolesAuthorizationDelegate#rolesHavePermission(final
+     * Path absPath, final String[] actions, final long roles)
+     */
+    @Override
+    public boolean rolesHavePermission(final Session userSession,
+            final Path absPath,
+            final String[] actions, final long roles) {
+        return decide(roles, actions, isAclPath(absPath));
+    }
+
+    private boolean decide(final long roles, final String[] actions, final boolean aclNode) {
+        final boolean permitted = policy.get().permits(roles, actions, aclNode);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Decision for roles {}, actions {}, ACL node {}: {}", RoleIds.names(roles),
+                    Arrays.toString(actions), aclNode, permitted);
+        }
+        return permitted;
+    }
+
+    /**
+     * Decisions depend only on the roles, the actions and whether the path is within an ACL node.
+     */
+    @Override
+    protected boolean isDecisionCacheable() {
+        return true;
+    }
+
+    /**
+     * Get the principal that represents the "EVERYONE" user.
+     */
+    @Override
+    public Principal getEveryonePrincipal() {
+        return EVERYONE;
+    }
+
+}
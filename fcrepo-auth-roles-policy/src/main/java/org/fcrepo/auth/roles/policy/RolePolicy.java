@@ -0,0 +1,200 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.fcrepo.auth.roles.common.RoleIds;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * An immutable role policy, compiled from lines of the form {@code role = actions} and {@code role.acl = actions}.
+ * The actions granted to each role are held as a mask indexed by the role's id, so a decision combines the masks of
+ * the roles of a request without locking or allocating. Roles left without an id by {@link RoleIds} are held by
+ * name and decided through {@link #permits(Collection, String[], boolean)}.
+ *
+ * @author agent
+ */
+public final class RolePolicy {
+
+    private static final String ACL_SUFFIX = ".acl";
+
+    private static final String ALL_ACTIONS = "*";
+
+    /**
+     * Bit standing for every action the policy does not name, which only the wildcard grants.
+     */
+    private static final long OTHER_ACTIONS = 1L << 63;
+
+    private static final int MAX_ACTIONS = 63;
+
+    private final Map<String, Long> actionBits;
+
+    private final long[] contentGrants = new long[64];
+
+    private final long[] aclGrants = new long[64];
+
+    private final long roles;
+
+    private final Map<String, Long> unmappedContentGrants;
+
+    private final Map<String, Long> unmappedAclGrants;
+
+    private RolePolicy(final Properties policy) {
+        final Map<String, Long> bits = new HashMap<>();
+        final Map<String, String> grants = new HashMap<>();
+        for (final String key : policy.stringPropertyNames()) {
+            grants.put(key.trim(), policy.getProperty(key));
+        }
+        final Map<String, Long> unmappedContent = new HashMap<>();
+        final Map<String, Long> unmappedAcl = new HashMap<>();
+        long allRoles = 0;
+        for (final Map.Entry<String, String> grant : grants.entrySet()) {
+            final boolean acl = grant.getKey().endsWith(ACL_SUFFIX);
+            final String role = acl ? grant.getKey().substring(0, grant.getKey().length() - ACL_SUFFIX.length())
+                    : grant.getKey();
+            if (role.isEmpty()) {
+                throw new IllegalArgumentException("Policy line without a role: " + grant.getKey());
+            }
+            final long actions = parseActions(grant.getValue(), bits);
+            final long bit = RoleIds.bit(role);
+            if (bit == RoleIds.UNMAPPED) {
+                (acl ? unmappedAcl : unmappedContent).merge(role, actions, (a, b) -> a | b);
+                continue;
+            }
+            final int id = Long.numberOfTrailingZeros(bit);
+            if (acl) {
+                aclGrants[id] |= actions;
+            } else {
+                contentGrants[id] |= actions;
+            }
+            allRoles |= bit;
+        }
+        this.actionBits = ImmutableMap.copyOf(bits);
+        this.roles = allRoles;
+        this.unmappedContentGrants = ImmutableMap.copyOf(unmappedContent);
+        this.unmappedAclGrants = ImmutableMap.copyOf(unmappedAcl);
+    }
+
+    private static long parseActions(final String value, final Map<String, Long> bits) {
+        long actions = 0;
+        for (final String token : value.split(",")) {
+            final String action = token.trim();
+            if (action.isEmpty()) {
+                continue;
+            }
+            if (action.equals(ALL_ACTIONS)) {
+                actions = -1L;
+                continue;
+            }
+            Long bit = bits.get(action);
+            if (bit == null) {
+                if (bits.size() == MAX_ACTIONS) {
+                    throw new IllegalArgumentException("A policy may name at most " + MAX_ACTIONS + " actions");
+                }
+                bit = 1L << bits.size();
+                bits.put(action, bit);
+            }
+            actions |= bit;
+        }
+        return actions;
+    }
+
+    /**
+     * @param policy the lines of the policy
+     * @return the compiled policy
+     */
+    public static RolePolicy compile(final Properties policy) {
+        return new RolePolicy(policy);
+    }
+
+    /**
+     * @param in a policy in properties format
+     * @return the compiled policy
+     * @throws IOException if the policy cannot be read
+     */
+    public static RolePolicy load(final InputStream in) throws IOException {
+        final Properties policy = new Properties();
+        policy.load(in);
+        return compile(policy);
+    }
+
+    /**
+     * @param roles mask of roles, as assigned by {@link RoleIds}
+     * @param actions the requested actions, all of which must be permitted
+     * @param aclNode whether the actions are on an access control node
+     * @return true if the roles are permitted every action
+     */
+    public boolean permits(final long roles, final String[] actions, final boolean aclNode) {
+        final long[] grants = aclNode ? aclGrants : contentGrants;
+        long granted = 0;
+        for (long bits = roles & this.roles; bits != 0; bits &= bits - 1) {
+            granted |= grants[Long.numberOfTrailingZeros(bits)];
+        }
+        return permitsAll(granted, actions);
+    }
+
+    /**
+     * Decide on roles by name, for sets of roles of which some have no id.
+     *
+     * @param roles names of the roles
+     * @param actions the requested actions, all of which must be permitted
+     * @param aclNode whether the actions are on an access control node
+     * @return true if the roles are permitted every action
+     */
+    public boolean permits(final Collection<String> roles, final String[] actions, final boolean aclNode) {
+        final long[] grants = aclNode ? aclGrants : contentGrants;
+        final Map<String, Long> unmapped = aclNode ? unmappedAclGrants : unmappedContentGrants;
+        long granted = 0;
+        for (final String role : roles) {
+            final long bit = RoleIds.bit(role);
+            if (bit != RoleIds.UNMAPPED) {
+                granted |= grants[Long.numberOfTrailingZeros(bit)];
+            } else {
+                granted |= unmapped.getOrDefault(role, 0L);
+            }
+        }
+        return permitsAll(granted, actions);
+    }
+
+    private boolean permitsAll(final long granted, final String[] actions) {
+        if (granted == 0) {
+            return false;
+        }
+        for (final String action : actions) {
+            final Long bit = actionBits.get(action);
+            if ((granted & (bit == null ? OTHER_ACTIONS : bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return mask of the roles the policy grants anything to
+     */
+    public long getRoles() {
+        return roles;
+    }
+}
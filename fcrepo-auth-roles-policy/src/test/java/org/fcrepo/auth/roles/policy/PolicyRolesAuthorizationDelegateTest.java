@@ -0,0 +1,116 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.jcr.Session;
+
+import org.fcrepo.auth.roles.common.Constants.JcrName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * @author agent
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PolicyRolesAuthorizationDelegateTest {
+
+    private static final String[] READ = {"read"};
+
+    private static final String[] ADD_NODE = {"add_node"};
+
+    private static final String ACL_PATH = "/a/{" + JcrName.NS_URI + "}rbacl";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private Session session;
+
+    private PolicyRolesAuthorizationDelegate delegate;
+
+    @Before
+    public void setUp() {
+        delegate = new PolicyRolesAuthorizationDelegate();
+    }
+
+    @After
+    public void tearDown() {
+        delegate.close();
+    }
+
+    @Test
+    public void testDefaultPolicyMatchesBasicRoles() throws IOException {
+        delegate.init();
+        assertTrue(delegate.rolesHavePermission(session, "/a", ADD_NODE, singleton("admin")));
+        assertTrue(delegate.rolesHavePermission(session, ACL_PATH, ADD_NODE, singleton("admin")));
+        assertTrue(delegate.rolesHavePermission(session, "/a", ADD_NODE, singleton("writer")));
+        assertFalse(delegate.rolesHavePermission(session, ACL_PATH, ADD_NODE, singleton("writer")));
+        assertTrue(delegate.rolesHavePermission(session, ACL_PATH, READ, singleton("writer")));
+        assertTrue(delegate.rolesHavePermission(session, "/a", READ, singleton("reader")));
+        assertFalse(delegate.rolesHavePermission(session, "/a", ADD_NODE, singleton("reader")));
+        assertFalse(delegate.rolesHavePermission(session, "/a", READ, singleton("something_else")));
+    }
+
+    @Test
+    public void testReloadChangedPolicy() throws IOException {
+        final File file = folder.newFile("policy.properties");
+        write(file, "curator = read\n");
+        delegate.setPolicyFile(file.getPath());
+        delegate.setReloadInterval(0);
+        delegate.init();
+        assertFalse(delegate.rolesHavePermission(session, "/a", ADD_NODE, singleton("curator")));
+
+        write(file, "curator = read, add_node\n");
+        file.setLastModified(file.lastModified() + 2000);
+        delegate.reload();
+        assertTrue(delegate.rolesHavePermission(session, "/a", ADD_NODE, singleton("curator")));
+    }
+
+    @Test
+    public void testInvalidPolicyKeepsCurrentPolicy() throws IOException {
+        final File file = folder.newFile("policy.properties");
+        write(file, "curator = read\n");
+        delegate.setPolicyFile(file.getPath());
+        delegate.setReloadInterval(0);
+        delegate.init();
+
+        write(file, ".acl = read\n");
+        file.setLastModified(file.lastModified() + 2000);
+        delegate.reload();
+        assertTrue(delegate.rolesHavePermission(session, "/a", READ, singleton("curator")));
+    }
+
+    private static void write(final File file, final String policy) throws IOException {
+        Files.write(file.toPath(), policy.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to DuraSpace under one or more contributor license agreements.
+ * See the NOTICE file distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * DuraSpace licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.auth.roles.policy;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.fcrepo.auth.roles.common.RoleIds;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class RolePolicyTest {
+
+    private static final String[] READ = {"read"};
+
+    private static final String[] ADD_NODE = {"add_node"};
+
+    private static final String[] SET_PROPERTY = {"set_property"};
+
+    private static final String[] REMOVE = {"remove"};
+
+    private static final String[] ADD_AND_SET = {"add_node", "set_property"};
+
+    private RolePolicy policy;
+
+    @Before
+    public void setUp() throws IOException {
+        policy = policy("curator = read, add_node, set_property, remove\n" +
+                "curator.acl = read\n" +
+                "ingest-only = add_node, set_property\n" +
+                "metadata-editor = read, set_property\n" +
+                "superuser = *\n" +
+                "superuser.acl = *\n");
+    }
+
+    @Test
+    public void testContentActions() {
+        final long curator = RoleIds.bit("curator");
+        assertTrue(policy.permits(curator, READ, false));
+        assertTrue(policy.permits(curator, REMOVE, false));
+        assertTrue(policy.permits(curator, ADD_AND_SET, false));
+        assertFalse("Unnamed actions are only granted by the wildcard",
+                policy.permits(curator, new String[] {"register_type"}, false));
+
+        final long ingest = RoleIds.bit("ingest-only");
+        assertTrue(policy.permits(ingest, ADD_NODE, false));
+        assertFalse(policy.permits(ingest, READ, false));
+        assertFalse(policy.permits(ingest, REMOVE, false));
+    }
+
+    @Test
+    public void testAclActions() {
+        final long curator = RoleIds.bit("curator");
+        assertTrue(policy.permits(curator, READ, true));
+        assertFalse(policy.permits(curator, SET_PROPERTY, true));
+        assertFalse("A role without an ACL line may not act on ACL nodes",
+                policy.permits(RoleIds.bit("metadata-editor"), READ, true));
+        assertTrue(policy.permits(RoleIds.bit("superuser"), new String[] {"register_type"}, true));
+    }
+
+    @Test
+    public void testCombinedRoles() {
+        final long roles = RoleIds.bit("ingest-only") | RoleIds.bit("metadata-editor");
+        assertTrue(policy.permits(roles, READ, false));
+        assertTrue(policy.permits(roles, ADD_AND_SET, false));
+        assertFalse(policy.permits(roles, REMOVE, false));
+    }
+
+    @Test
+    public void testNoRoles() {
+        assertFalse(policy.permits(0, READ, false));
+        assertFalse(policy.permits(RoleIds.bit("unknown-to-policy"), READ, false));
+    }
+
+    @Test
+    public void testRolesByName() {
+        assertTrue(policy.permits(asList("ingest-only", "metadata-editor"), ADD_AND_SET, false));
+        assertFalse(policy.permits(asList("ingest-only"), READ, false));
+        assertFalse(policy.permits(asList("unknown-to-policy"), READ, false));
+    }
+
+    @Test
+    public void testRolesWithoutIds() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 70; i++) {
+            text.append("many-roles-").append(i).append(" = read\n");
+        }
+        text.append("many-roles-last.acl = read\n");
+        final RolePolicy many = policy(text.toString());
+
+        assertTrue("Roles left without an id must still be granted",
+                many.permits(asList("many-roles-69"), READ, false));
+        assertTrue(many.permits(asList("many-roles-last"), READ, true));
+        assertFalse(many.permits(asList("many-roles-last"), READ, false));
+        assertFalse(many.permits(asList("many-roles-69"), ADD_NODE, false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLineWithoutRole() throws IOException {
+        policy(".acl = read\n");
+    }
+
+    private static RolePolicy policy(final String text) throws IOException {
+        return RolePolicy.load(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}